@@ -0,0 +1,35 @@
+#!/bin/bash
+set -e
+
+# Runs the load test against an in-process mock listener, arguments are passed to io.logz.e2e.load.LoadTest,
+# for example: ./e2e/run-load.sh --threads=8 --rate=50000 --duration=3600 --queue=disk
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+PROJECT_ROOT="$(dirname "$SCRIPT_DIR")"
+
+echo "Installing logzio-log4j2-appender to local Maven repository..."
+cd "$PROJECT_ROOT"
+
+VERSION=$(mvn help:evaluate -Dexpression=project.version -q -DforceStdout)
+JAR_FILE="$PROJECT_ROOT/target/logzio-log4j2-appender-${VERSION}.jar"
+
+if [ ! -f "$JAR_FILE" ]; then
+    echo "ERROR: JAR file not found at $JAR_FILE"
+    echo "Please run 'mvn package -DskipTests' first"
+    exit 1
+fi
+
+mvn install:install-file \
+    -Dfile="$JAR_FILE" \
+    -DgroupId=io.logz.log4j2 \
+    -DartifactId=logzio-log4j2-appender \
+    -Dversion="$VERSION" \
+    -Dpackaging=jar \
+    -DgeneratePom=false \
+    --batch-mode \
+    --no-transfer-progress
+
+echo "Running load test with logzio-appender version: $VERSION"
+cd "$SCRIPT_DIR"
+mvn compile exec:java -Dlogzio-appender.version="$VERSION" -Dexec.mainClass=io.logz.e2e.load.LoadTest \
+    -Dexec.args="$*" --batch-mode --no-transfer-progress
@@ -0,0 +1,116 @@
+package io.logz.e2e.load;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Options of the load test, given as {@code --name=value} arguments.
+ */
+class LoadOptions {
+
+    int threads = 4;
+    long eventsPerSec = 10_000;
+    int durationSec = 60;
+    int reportIntervalSec = 10;
+    MessageSize messageSize = MessageSize.parse("uniform:100:1000");
+    int mdcCardinality = 100;
+    double exceptionRatio = 0.01;
+    String queue = "memory";
+    int listenerLatencyMs = 0;
+    double listenerFailureRatio = 0;
+    int drainWaitSec = 60;
+    double maxDropRatio = -1;
+    Map<String, String> appender = new HashMap<>();
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "threads": options.threads = Integer.parseInt(value); break;
+                case "rate": options.eventsPerSec = Long.parseLong(value); break;
+                case "duration": options.durationSec = Integer.parseInt(value); break;
+                case "report-interval": options.reportIntervalSec = Integer.parseInt(value); break;
+                case "message-size": options.messageSize = MessageSize.parse(value); break;
+                case "mdc-cardinality": options.mdcCardinality = Integer.parseInt(value); break;
+                case "exception-ratio": options.exceptionRatio = Double.parseDouble(value); break;
+                case "queue": options.queue = value; break;
+                case "listener-latency-ms": options.listenerLatencyMs = Integer.parseInt(value); break;
+                case "listener-failure-ratio": options.listenerFailureRatio = Double.parseDouble(value); break;
+                case "drain-wait": options.drainWaitSec = Integer.parseInt(value); break;
+                case "max-drop-ratio": options.maxDropRatio = Double.parseDouble(value); break;
+                default:
+                    if (name.startsWith("appender.")) {
+                        options.appender.put(name.substring("appender.".length()), value);
+                    } else {
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                    }
+            }
+        }
+        if (!options.queue.equals("memory") && !options.queue.equals("disk")) {
+            throw new IllegalArgumentException("queue must be memory or disk, got: " + options.queue);
+        }
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + threads + " rate=" + (eventsPerSec > 0 ? eventsPerSec + "/s" : "unlimited")
+                + " duration=" + durationSec + "s message-size=" + messageSize + " mdc-cardinality=" + mdcCardinality
+                + " exception-ratio=" + exceptionRatio + " queue=" + queue + " listener-latency-ms=" + listenerLatencyMs
+                + " listener-failure-ratio=" + listenerFailureRatio + (appender.isEmpty() ? "" : " appender=" + appender);
+    }
+
+    /**
+     * Distribution of the message sizes, in characters: {@code fixed:N}, {@code uniform:MIN:MAX} or
+     * {@code lognormal:MEDIAN:SIGMA}.
+     */
+    static class MessageSize {
+
+        private final String spec;
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private MessageSize(String spec, String kind, double a, double b) {
+            this.spec = spec;
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static MessageSize parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0]) {
+                case "fixed":
+                    return new MessageSize(spec, parts[0], Double.parseDouble(parts[1]), 0);
+                case "uniform":
+                case "lognormal":
+                    return new MessageSize(spec, parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown message size distribution: " + spec);
+            }
+        }
+
+        int next(ThreadLocalRandom random) {
+            switch (kind) {
+                case "fixed":
+                    return (int) a;
+                case "uniform":
+                    return (int) (a + random.nextDouble() * (b - a + 1));
+                default:
+                    return (int) Math.min(1_000_000, a * Math.exp(b * random.nextGaussian()));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+}
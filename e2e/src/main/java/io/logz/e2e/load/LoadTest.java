@@ -0,0 +1,289 @@
+package io.logz.e2e.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+
+import io.logz.log4j2.LogzioAppender;
+
+/**
+ * Load and soak test of the appender against an in-process mock listener.
+ * <p>
+ * Producer threads log at a target rate for a given duration, while the mock listener records the delivery latency
+ * of every log. Every report interval, and once more at the end, prints the sustained throughput, the delivery
+ * latency percentiles, the heap and GC activity and the disk queue size. Logs that were never delivered once the
+ * appender stopped are reported as dropped.
+ * <p>
+ * Options, all given as {@code --name=value}:
+ * <pre>
+ * --threads=4                    producer threads
+ * --rate=10000                   target events per second of all the producers together, 0 for as fast as possible
+ * --duration=60                  seconds to produce logs for
+ * --report-interval=10           seconds between reports
+ * --message-size=uniform:100:1000  fixed:N, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA characters
+ * --mdc-cardinality=100          distinct values of the MDC key added to every log, 0 for none
+ * --exception-ratio=0.01         ratio of logs with an exception
+ * --queue=memory                 memory or disk
+ * --listener-latency-ms=0        latency added by the mock listener to every bulk
+ * --listener-failure-ratio=0     ratio of bulks the mock listener answers with 503
+ * --drain-wait=60                seconds to wait for the last logs to be delivered after stopping
+ * --max-drop-ratio=-1            exit with 1 if more logs were dropped, -1 to never fail
+ * --appender.NAME=VALUE          any other appender parameter, for example --appender.maxInFlightBulks=4
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final String MDC_KEY = "load_key";
+
+    private final LoadOptions options;
+    private final LatencyHistogram totalLatencies = new LatencyHistogram();
+    private final LatencyHistogram intervalLatencies = new LatencyHistogram();
+    private final AtomicLong produced = new AtomicLong();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private long maxHeapUsed;
+    private long maxDiskUsage;
+
+    LoadTest(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("log4j2.configurationFile", "log4j2-load.xml");
+        LoadOptions options = LoadOptions.parse(args);
+        boolean passed = new LoadTest(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        System.out.println("Load test: " + options);
+        MockListener listener = new MockListener(options.listenerLatencyMs, options.listenerFailureRatio, totalLatencies, intervalLatencies);
+        Path queueDir = Files.createTempDirectory("logzio-load-test");
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        LogzioAppender appender = newAppender(listener.getUrl(), queueDir);
+        attach(context, appender);
+
+        Logger logger = LogManager.getLogger(LoadTest.class);
+        List<Thread> producers = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(options.durationSec);
+        for (int i = 0; i < options.threads; i++) {
+            Thread producer = new Thread(() -> produce(logger, endNanos), "load-producer-" + i);
+            producers.add(producer);
+            producer.start();
+        }
+
+        long lastReportNanos = startNanos;
+        long lastProduced = 0;
+        long lastDelivered = 0;
+        long[] lastGc = gcStats();
+        while (System.nanoTime() < endNanos) {
+            TimeUnit.SECONDS.sleep(Math.min(options.reportIntervalSec, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(endNanos - System.nanoTime()))));
+            long now = System.nanoTime();
+            double seconds = (now - lastReportNanos) / 1e9;
+            long producedNow = produced.get();
+            long deliveredNow = listener.getDelivered();
+            long[] gc = gcStats();
+            System.out.printf("[%5ds] produced %,.0f/s delivered %,.0f/s latency %s heap %s gc %d (%d ms) disk %s%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - startNanos),
+                    (producedNow - lastProduced) / seconds, (deliveredNow - lastDelivered) / seconds,
+                    percentiles(intervalLatencies), megabytes(heapUsed()), gc[0] - lastGc[0], gc[1] - lastGc[1],
+                    megabytes(diskUsage(queueDir)));
+            intervalLatencies.reset();
+            lastReportNanos = now;
+            lastProduced = producedNow;
+            lastDelivered = deliveredNow;
+            lastGc = gc;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        double produceSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        detach(context, appender);
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainWaitSec);
+        while (listener.getDelivered() < produced.get() && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        double totalSeconds = (System.nanoTime() - startNanos) / 1e9;
+        listener.stop();
+        long[] gc = gcStats();
+        long producedTotal = produced.get();
+        long delivered = listener.getDelivered();
+        long dropped = producedTotal - delivered;
+        double dropRatio = producedTotal == 0 ? 0 : (double) dropped / producedTotal;
+
+        System.out.println("=== Load test results ===");
+        System.out.printf("produced    %,d logs, %,.0f/s%n", producedTotal, producedTotal / produceSeconds);
+        System.out.printf("delivered   %,d logs, %,.0f/s (including %.1f s of drain), %,d duplicates%n",
+                delivered, delivered / totalSeconds, totalSeconds - produceSeconds, listener.getDuplicates());
+        System.out.printf("dropped     %,d logs (%.4f%%)%n", dropped, dropRatio * 100);
+        System.out.printf("bulks       %,d accepted, %,d failed, %s received%n",
+                listener.getBulks(), listener.getFailedBulks(), megabytes(listener.getReceivedBytes()));
+        System.out.println("latency     " + percentiles(totalLatencies));
+        System.out.printf("heap        max %s used, gc %d collections (%d ms)%n", megabytes(maxHeapUsed), gc[0], gc[1]);
+        System.out.println("disk        max " + megabytes(maxDiskUsage));
+        deleteRecursively(queueDir);
+
+        if (options.maxDropRatio >= 0 && dropRatio > options.maxDropRatio) {
+            System.out.println("FAILED: drop ratio above " + options.maxDropRatio);
+            return false;
+        }
+        return true;
+    }
+
+    private void produce(Logger logger, long endNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intervalNanos = options.eventsPerSec > 0 ? TimeUnit.SECONDS.toNanos(options.threads) / options.eventsPerSec : 0;
+        StringBuilder message = new StringBuilder();
+        RuntimeException exception = new IllegalStateException("Load test exception");
+        long next = System.nanoTime();
+        while (next < endNanos) {
+            if (intervalNanos > 0) {
+                // Keep to the schedule even when falling behind, so a stalled appender shows up in the latencies
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                next += intervalNanos;
+            } else {
+                next = System.nanoTime();
+            }
+            if (options.mdcCardinality > 0) {
+                ThreadContext.put(MDC_KEY, "value-" + random.nextInt(options.mdcCardinality));
+            }
+            message.setLength(0);
+            message.append("load seq=").append(produced.getAndIncrement()).append(" t=").append(System.nanoTime()).append(' ');
+            int size = options.messageSize.next(random);
+            while (message.length() < size) {
+                message.append('x');
+            }
+            if (random.nextDouble() < options.exceptionRatio) {
+                logger.error(message.toString(), exception);
+            } else {
+                logger.info(message.toString());
+            }
+        }
+        ThreadContext.remove(MDC_KEY);
+    }
+
+    private LogzioAppender newAppender(String url, Path queueDir) throws ReflectiveOperationException {
+        LogzioAppender.Builder builder = LogzioAppender.newBuilder()
+                .setName("LoadTest")
+                .setLogzioUrl(url)
+                .setLogzioToken("load-test-token")
+                .setLogzioType("load-test")
+                .setQueueDir(queueDir.toString())
+                .setInMemoryQueue(options.queue.equals("memory"));
+        for (Map.Entry<String, String> parameter : options.appender.entrySet()) {
+            set(builder, parameter.getKey(), parameter.getValue());
+        }
+        LogzioAppender appender = builder.build();
+        if (appender == null) {
+            throw new IllegalStateException("Invalid appender parameters " + options.appender);
+        }
+        appender.start();
+        return appender;
+    }
+
+    private static void set(LogzioAppender.Builder builder, String name, String value) throws ReflectiveOperationException {
+        String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (Method method : LogzioAppender.Builder.class.getMethods()) {
+            if (!method.getName().equals(setter) || method.getParameterCount() != 1) {
+                continue;
+            }
+            Class<?> type = method.getParameterTypes()[0];
+            if (type == String.class) {
+                method.invoke(builder, value);
+            } else if (type == int.class) {
+                method.invoke(builder, Integer.parseInt(value));
+            } else if (type == long.class) {
+                method.invoke(builder, Long.parseLong(value));
+            } else if (type == boolean.class) {
+                method.invoke(builder, Boolean.parseBoolean(value));
+            } else {
+                continue;
+            }
+            return;
+        }
+        throw new IllegalArgumentException("Unknown appender parameter: " + name);
+    }
+
+    private static void attach(LoggerContext context, LogzioAppender appender) {
+        Configuration configuration = context.getConfiguration();
+        configuration.addAppender(appender);
+        configuration.getRootLogger().addAppender(appender, null, null);
+        context.updateLoggers();
+    }
+
+    private static void detach(LoggerContext context, LogzioAppender appender) {
+        context.getConfiguration().getRootLogger().removeAppender(appender.getName());
+        context.updateLoggers();
+        appender.stop();
+    }
+
+    private long heapUsed() {
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        maxHeapUsed = Math.max(maxHeapUsed, used);
+        return used;
+    }
+
+    private long[] gcStats() {
+        long count = 0;
+        long timeMs = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+            timeMs += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[]{count, timeMs};
+    }
+
+    private long diskUsage(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            long usage = files.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+            maxDiskUsage = Math.max(maxDiskUsage, usage);
+            return usage;
+        } catch (IOException | UncheckedIOException e) {
+            // files of the disk queue may be deleted while walking
+            return maxDiskUsage;
+        }
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format("p50 %s p99 %s p99.9 %s max %s", millis(histogram.percentile(50)), millis(histogram.percentile(99)),
+                millis(histogram.percentile(99.9)), millis(histogram.getMax()));
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1fMB", bytes / (1024.0 * 1024));
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
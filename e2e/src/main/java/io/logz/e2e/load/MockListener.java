@@ -0,0 +1,155 @@
+package io.logz.e2e.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Logz.io listener. Accepts bulks on any path, optionally delaying or failing them,
+ * and records the delivery latency of every log sent by the load test from the send time embedded in its message.
+ */
+class MockListener {
+
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final Pattern LOAD_MESSAGE = Pattern.compile("\"message\":\"load seq=(\\d+) t=(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+    private final int latencyMs;
+    private final double failureRatio;
+    private final LatencyHistogram[] latencies;
+    // Sequence numbers are tracked in blocks, fully delivered blocks are forgotten so long runs use little memory
+    private final Map<Long, Block> pendingBlocks = new HashMap<>();
+    private final Set<Long> deliveredBlocks = new HashSet<>();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong bulks = new AtomicLong();
+    private final AtomicLong failedBulks = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    MockListener(int latencyMs, double failureRatio, LatencyHistogram... latencies) throws IOException {
+        this.latencyMs = latencyMs;
+        this.failureRatio = failureRatio;
+        this.latencies = latencies;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 256);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    long getDelivered() {
+        return deliveredCount.get();
+    }
+
+    long getDuplicates() {
+        return duplicates.get();
+    }
+
+    long getBulks() {
+        return bulks.get();
+    }
+
+    long getFailedBulks() {
+        return failedBulks.get();
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            if (latencyMs > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMs);
+            }
+            if (failureRatio > 0 && ThreadLocalRandom.current().nextDouble() < failureRatio) {
+                failedBulks.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                receivedBytes.addAndGet(line.length() + 1);
+                Matcher matcher = LOAD_MESSAGE.matcher(line);
+                if (matcher.find()) {
+                    onDelivered(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+                }
+            }
+            bulks.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void onDelivered(long seq, long sentNanos) {
+        long block = seq / BLOCK_SIZE;
+        int bit = (int) (seq % BLOCK_SIZE);
+        synchronized (pendingBlocks) {
+            Block delivered = deliveredBlocks.contains(block) ? null : pendingBlocks.computeIfAbsent(block, b -> new Block());
+            if (delivered == null || !delivered.add(bit)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            if (delivered.count == BLOCK_SIZE) {
+                pendingBlocks.remove(block);
+                deliveredBlocks.add(block);
+            }
+        }
+        deliveredCount.incrementAndGet();
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos);
+        for (LatencyHistogram histogram : latencies) {
+            histogram.record(latencyMicros);
+        }
+    }
+
+    private static class Block {
+
+        private final BitSet seqs = new BitSet(BLOCK_SIZE);
+        private int count;
+
+        boolean add(int bit) {
+            if (seqs.get(bit)) {
+                return false;
+            }
+            seqs.set(bit);
+            count++;
+            return true;
+        }
+    }
+}
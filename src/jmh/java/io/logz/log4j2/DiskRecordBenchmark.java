@@ -0,0 +1,67 @@
+package io.logz.log4j2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.logz.sender.com.google.gson.JsonObject;
+
+/**
+ * Compares serializing a log to JSON on the appending thread with encoding it to a binary record, and measures
+ * transcoding the record to JSON, done later on the drain thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiskRecordBenchmark {
+
+    private LogRecordCodec codec;
+    private JsonObject logMessage;
+    private byte[] record;
+
+    @Setup
+    public void setup() {
+        codec = new LogRecordCodec(Arrays.asList("@timestamp", "loglevel", "message", "logger", "thread", "hostname",
+                "INFO", "environment", "production", "web-1.example.com"));
+        logMessage = new JsonObject();
+        logMessage.addProperty("requestId", "4bf92f3577b34da6a3ce929d0e0e4736");
+        logMessage.addProperty("user", "benchmark");
+        logMessage.addProperty("@timestamp", "2024-01-01T12:00:00.123Z");
+        logMessage.addProperty("loglevel", "INFO");
+        logMessage.addProperty("message", "Order 4711 of customer \"ACME Corporation\" shipped in 37 ms");
+        logMessage.addProperty("logger", "io.logz.benchmark.OrderService");
+        logMessage.addProperty("thread", "http-nio-8080-exec-1");
+        logMessage.addProperty("environment", "production");
+        logMessage.addProperty("hostname", "web-1.example.com");
+        record = codec.encode(logMessage);
+    }
+
+    @Benchmark
+    public byte[] json() {
+        return logMessage.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] binaryRecord() {
+        return codec.encode(logMessage);
+    }
+
+    @Benchmark
+    public byte[] transcodeRecord() {
+        return codec.toJson(record);
+    }
+}
@@ -0,0 +1,104 @@
+package io.logz.log4j2;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.layout.template.json.JsonTemplateLayout;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+/**
+ * Compares encoding a log with the appender's own JSON format with encoding it through a nested layout, from the
+ * log event to the bytes put on the queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+
+    // The fields of the appender's own format
+    private static final String EVENT_TEMPLATE = "{"
+            + "\"@timestamp\":{\"$resolver\":\"timestamp\",\"pattern\":{\"format\":\"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'\",\"timeZone\":\"UTC\"}},"
+            + "\"loglevel\":{\"$resolver\":\"level\",\"field\":\"name\"},"
+            + "\"message\":{\"$resolver\":\"message\",\"stringified\":true},"
+            + "\"logger\":{\"$resolver\":\"logger\",\"field\":\"name\"},"
+            + "\"thread\":{\"$resolver\":\"thread\",\"field\":\"name\"},"
+            + "\"mdc\":{\"$resolver\":\"mdc\",\"flatten\":true}"
+            + "}";
+
+    private LogzioAppender builtIn;
+    private LogzioAppender patternLayout;
+    private LogzioAppender jsonTemplateLayout;
+    private LogEvent logEvent;
+
+    @Setup
+    public void setup() {
+        builtIn = newAppender().build();
+        patternLayout = newAppender()
+                .setLayout(PatternLayout.newBuilder()
+                        .withPattern("{\"@timestamp\":\"%d{yyyy-MM-dd'T'HH:mm:ss.SSS'Z'}{UTC}\",\"loglevel\":\"%p\","
+                                + "\"message\":\"%enc{%m}{JSON}\",\"logger\":\"%c\",\"thread\":\"%t\"}%n")
+                        .build())
+                .build();
+        jsonTemplateLayout = newAppender()
+                .setLayout(JsonTemplateLayout.newBuilder()
+                        .setConfiguration(new DefaultConfiguration())
+                        .setEventTemplate(EVENT_TEMPLATE)
+                        .build())
+                .build();
+
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("requestId", "4bf92f3577b34da6a3ce929d0e0e4736");
+        contextData.putValue("user", "benchmark");
+        logEvent = Log4jLogEvent.newBuilder()
+                .setLoggerName("io.logz.benchmark.OrderService")
+                .setLevel(Level.INFO)
+                .setThreadName("http-nio-8080-exec-1")
+                .setTimeMillis(System.currentTimeMillis())
+                .setContextData(contextData)
+                .setMessage(new ParameterizedMessage("Order {} of customer {} shipped in {} ms", 4711, "ACME Corporation", 37))
+                .build();
+        ThreadContext.clearAll();
+    }
+
+    @Benchmark
+    public byte[] builtInJson() {
+        return builtIn.encode(logEvent, SpanContext.getInvalid());
+    }
+
+    @Benchmark
+    public byte[] patternLayout() {
+        return patternLayout.encode(logEvent, SpanContext.getInvalid());
+    }
+
+    @Benchmark
+    public byte[] jsonTemplateLayout() {
+        return jsonTemplateLayout.encode(logEvent, SpanContext.getInvalid());
+    }
+
+    private static LogzioAppender.Builder newAppender() {
+        return LogzioAppender.newBuilder()
+                .setLogzioToken("benchmark")
+                .setAddOpentelemetryContext(false);
+    }
+}
@@ -0,0 +1,81 @@
+package io.logz.log4j2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.util.StackLocatorUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the caller location with {@link LocationResolver} with the location capture Log4j2 does for
+ * includeLocation, from behind a few logger frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocationBenchmark {
+
+    private static final String LOGGER_FQCN = FakeLogger.class.getName();
+
+    private LocationResolver resolver;
+    private LogEvent logEvent;
+
+    @Setup
+    public void setup() {
+        resolver = new LocationResolver();
+        logEvent = Log4jLogEvent.newBuilder().setLoggerFqcn(LOGGER_FQCN).build();
+    }
+
+    @Benchmark
+    public Object log4j2Location() {
+        return FakeLogger.info(() -> StackLocatorUtil.calcLocation(LOGGER_FQCN));
+    }
+
+    @Benchmark
+    public Object cachedStackWalker() {
+        return FakeLogger.info(() -> resolver.resolve(logEvent));
+    }
+
+    @Benchmark
+    public Object throwableStackTrace() {
+        return FakeLogger.info(() -> {
+            StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+            for (int i = 0; i < stackTrace.length - 1; i++) {
+                if (stackTrace[i].getClassName().equals(LOGGER_FQCN) && !stackTrace[i + 1].getClassName().equals(LOGGER_FQCN)) {
+                    return stackTrace[i + 1];
+                }
+            }
+            return null;
+        });
+    }
+
+    // Stands for the logger and appender frames between the caller and the appender
+    private static class FakeLogger {
+
+        static Object info(Supplier<Object> appender) {
+            return logIfEnabled(appender);
+        }
+
+        private static Object logIfEnabled(Supplier<Object> appender) {
+            return logMessage(appender);
+        }
+
+        private static Object logMessage(Supplier<Object> appender) {
+            return appender.get();
+        }
+    }
+}
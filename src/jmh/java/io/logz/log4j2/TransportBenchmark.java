@@ -0,0 +1,164 @@
+package io.logz.log4j2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.logz.sender.HttpsRequestConfiguration;
+
+/**
+ * Compares sending small bulks with {@link HttpBulkTransport} and {@link HttpClientBulkTransport} to a local listener
+ * over TLS, from several threads like a shipper with several bulks in flight. The listener offers HTTP/2 and
+ * HTTP/1.1 through ALPN, with a self-signed certificate generated by keytool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransportBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final int LOGS_PER_BULK = 20;
+
+    @Param({LogzioAppender.URL_CONNECTION_TRANSPORT, LogzioAppender.HTTP_CLIENT_TRANSPORT})
+    public String transport;
+
+    private File keyStore;
+    private Server server;
+    private BulkTransport bulkTransport;
+    private byte[] bulk;
+
+    @Setup
+    public void setup() throws Exception {
+        keyStore = generateKeyStore();
+        server = startListener(keyStore);
+        trustListener(keyStore);
+
+        HttpsRequestConfiguration configuration = HttpsRequestConfiguration.builder()
+                .setLogzioListenerUrl("https://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort())
+                .setLogzioToken("benchmark")
+                .setLogzioType("benchmark")
+                .setCompressRequests(false)
+                .build();
+        bulkTransport = transport.equals(LogzioAppender.HTTP_CLIENT_TRANSPORT)
+                ? new HttpClientBulkTransport(configuration) : new HttpBulkTransport(configuration);
+
+        StringBuilder logs = new StringBuilder();
+        for (int i = 0; i < LOGS_PER_BULK; i++) {
+            logs.append("{\"@timestamp\":\"2024-01-01T00:00:00.000Z\",\"loglevel\":\"INFO\",\"message\":\"Order ")
+                    .append(i).append(" shipped\",\"logger\":\"io.logz.benchmark.OrderService\",\"thread\":\"main\"}\n");
+        }
+        bulk = logs.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        keyStore.delete();
+    }
+
+    @Benchmark
+    public int send() throws Exception {
+        return bulkTransport.send(bulk);
+    }
+
+    private static File generateKeyStore() throws Exception {
+        File file = File.createTempFile("listener", ".p12");
+        file.delete();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "listener", "-keyalg", "RSA", "-keysize", "2048",
+                "-validity", "1", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", "PKCS12",
+                "-keystore", file.getAbsolutePath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed with exit code " + process.exitValue());
+        }
+        return file;
+    }
+
+    private static Server startListener(File keyStore) throws Exception {
+        Server server = new Server();
+        HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.addCustomizer(new SecureRequestCustomizer(false));
+        HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfiguration);
+        HTTP2ServerConnectionFactory http2 = new HTTP2ServerConnectionFactory(httpConfiguration);
+        ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+        alpn.setDefaultProtocol(http1.getProtocol());
+
+        SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+        sslContextFactory.setKeyStorePath(keyStore.getAbsolutePath());
+        sslContextFactory.setKeyStorePassword(PASSWORD);
+        sslContextFactory.setKeyStoreType("PKCS12");
+        sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+        SslConnectionFactory tls = new SslConnectionFactory(sslContextFactory, alpn.getProtocol());
+
+        ServerConnector connector = new ServerConnector(server, tls, alpn, http2, http1);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new Handler.Abstract() {
+            @Override
+            public boolean handle(Request request, Response response, Callback callback) {
+                // Reads the bulk and answers 200 with an empty body
+                Content.Source.consumeAll(request, callback);
+                return true;
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void trustListener(File keyStore) throws Exception {
+        KeyStore trusted = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStore)) {
+            trusted.load(in, PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trusted);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        // Before the shared HttpClient is created, it uses the default context
+        SSLContext.setDefault(sslContext);
+        HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
+    }
+}
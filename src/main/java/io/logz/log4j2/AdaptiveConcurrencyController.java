@@ -0,0 +1,100 @@
+package io.logz.log4j2;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) controller for the number of in-flight bulk requests and the
+ * bulk size used by the {@link BulkShipper}.
+ * <p>
+ * After every "round" of successful, fast requests (one success per allowed in-flight request) the concurrency limit
+ * grows by one and the bulk size by {@link #BULK_SIZE_STEP_BYTES}. A failed request (IO error, timeout or 5xx), or a
+ * request that took close to the socket timeout, halves both. Requests that succeed but are slow hold the current
+ * limits.
+ * <p>
+ * With a single in-flight bulk allowed the limits never adapt, bulks are {@link #MAX_BULK_SIZE_BYTES} like the ones
+ * of the LogzioSender, so the defaults ship the way they always did.
+ */
+class AdaptiveConcurrencyController {
+
+    static final int MIN_BULK_SIZE_BYTES = 64 * 1024;
+    // Same bulk size limit the LogzioSender uses
+    static final int MAX_BULK_SIZE_BYTES = 3 * 1024 * 1024;
+    static final int BULK_SIZE_STEP_BYTES = 256 * 1024;
+    private static final int INITIAL_BULK_SIZE_BYTES = 1024 * 1024;
+
+    private final int maxConcurrency;
+    private final boolean adaptive;
+    private final long slowLatencyMs;
+    private final long timeoutLatencyMs;
+
+    private int concurrency;
+    private int bulkSizeBytes;
+    private int successesInRound;
+    private long increases;
+    private long decreases;
+
+    /**
+     * @param adaptive whether to adapt the limits, only applies when maxConcurrency is above 1
+     */
+    AdaptiveConcurrencyController(int maxConcurrency, boolean adaptive, int socketTimeoutMs) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.adaptive = adaptive && this.maxConcurrency > 1;
+        this.slowLatencyMs = socketTimeoutMs / 4;
+        this.timeoutLatencyMs = socketTimeoutMs * 3L / 4;
+        this.concurrency = this.adaptive ? 1 : this.maxConcurrency;
+        this.bulkSizeBytes = this.adaptive ? INITIAL_BULK_SIZE_BYTES : MAX_BULK_SIZE_BYTES;
+    }
+
+    synchronized void onSuccess(long latencyMs) {
+        if (!adaptive) {
+            return;
+        }
+        if (latencyMs >= timeoutLatencyMs) {
+            decrease();
+        } else if (latencyMs >= slowLatencyMs) {
+            successesInRound = 0;
+        } else if (++successesInRound >= concurrency) {
+            increase();
+        }
+    }
+
+    synchronized void onFailure() {
+        if (adaptive) {
+            decrease();
+        }
+    }
+
+    synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    synchronized int getBulkSizeBytes() {
+        return bulkSizeBytes;
+    }
+
+    synchronized long getIncreases() {
+        return increases;
+    }
+
+    synchronized long getDecreases() {
+        return decreases;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    private void increase() {
+        successesInRound = 0;
+        if (concurrency < maxConcurrency || bulkSizeBytes < MAX_BULK_SIZE_BYTES) {
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+            bulkSizeBytes = Math.min(MAX_BULK_SIZE_BYTES, bulkSizeBytes + BULK_SIZE_STEP_BYTES);
+            increases++;
+        }
+    }
+
+    private void decrease() {
+        successesInRound = 0;
+        concurrency = Math.max(1, concurrency / 2);
+        bulkSizeBytes = Math.max(MIN_BULK_SIZE_BYTES, bulkSizeBytes / 2);
+        decreases++;
+    }
+}
@@ -0,0 +1,382 @@
+package io.logz.log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+
+import io.logz.sender.LogsQueue;
+import io.logz.sender.SenderStatusReporter;
+
+/**
+ * Appender owned replacement for the LogzioSender drain loop that keeps several bulk requests in flight at once.
+ * The number of in-flight bulks and the bulk size are driven by an {@link AdaptiveConcurrencyController}.
+ * <p>
+ * A bulk that failed is put back on the queue and the current drain stops, so it is retried on the next interval.
+ * While the {@link CircuitBreaker} is open no bulk is sent and logs keep accumulating in the queue.
+ * <p>
+ * Draining never waits for an in-flight slot: when all of them are taken the drain stops, and the bulk that frees a
+ * slot schedules the next one. Shippers can so share a few scheduler threads without a slow one holding them.
+ */
+class BulkShipper {
+
+    private static final int FINAL_DRAIN_TIMEOUT_SEC = 20;
+    private static final long FINAL_DRAIN_POLL_MS = 50;
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private final LogsQueue logsQueue;
+    private final BulkTransport transport;
+    private final AdaptiveConcurrencyController controller;
+    private final CircuitBreaker circuitBreaker;
+    private final ScheduledExecutorService tasksExecutor;
+    private final ExecutorService bulkExecutor;
+    private final boolean ownsExecutors;
+    private final SenderStatusReporter reporter;
+    private final int drainTimeoutSec;
+    private final boolean debug;
+
+    private final AtomicBoolean drainRunning = new AtomicBoolean(false);
+    private final Object inFlightLock = new Object();
+    private int inFlight;
+    private volatile boolean bulkFailed;
+    private volatile boolean waitingForSlot;
+    private volatile ScheduledFuture<?> drainTask;
+
+    private final AtomicLong sentBulks = new AtomicLong();
+    private final AtomicLong failedBulks = new AtomicLong();
+    private final AtomicLong sentLogs = new AtomicLong();
+    private volatile long lastBulkLatencyMs;
+
+    BulkShipper(LogsQueue logsQueue, BulkTransport transport, AdaptiveConcurrencyController controller,
+                CircuitBreaker circuitBreaker, SenderStatusReporter reporter, int drainTimeoutSec, boolean debug) {
+        this(logsQueue, transport, controller, circuitBreaker, reporter, drainTimeoutSec, debug,
+                Executors.newScheduledThreadPool(1, Log4jThreadFactory.createDaemonThreadFactory(BulkShipper.class.getSimpleName())),
+                Executors.newFixedThreadPool(controller.getMaxConcurrency(), Log4jThreadFactory.createDaemonThreadFactory(BulkShipper.class.getSimpleName())),
+                true);
+    }
+
+    /**
+     * Creates a shipper running on executors shared with other shippers, they are not shut down when it stops.
+     */
+    BulkShipper(LogsQueue logsQueue, BulkTransport transport, AdaptiveConcurrencyController controller,
+                CircuitBreaker circuitBreaker, SenderStatusReporter reporter, int drainTimeoutSec, boolean debug,
+                ScheduledExecutorService tasksExecutor, ExecutorService bulkExecutor) {
+        this(logsQueue, transport, controller, circuitBreaker, reporter, drainTimeoutSec, debug, tasksExecutor, bulkExecutor, false);
+    }
+
+    private BulkShipper(LogsQueue logsQueue, BulkTransport transport, AdaptiveConcurrencyController controller,
+                        CircuitBreaker circuitBreaker, SenderStatusReporter reporter, int drainTimeoutSec, boolean debug,
+                        ScheduledExecutorService tasksExecutor, ExecutorService bulkExecutor, boolean ownsExecutors) {
+        this.logsQueue = logsQueue;
+        this.transport = transport;
+        this.controller = controller;
+        this.circuitBreaker = circuitBreaker;
+        this.reporter = reporter;
+        this.drainTimeoutSec = drainTimeoutSec;
+        this.debug = debug;
+        this.tasksExecutor = tasksExecutor;
+        this.bulkExecutor = bulkExecutor;
+        this.ownsExecutors = ownsExecutors;
+    }
+
+    public void start() {
+        drainTask = tasksExecutor.scheduleWithFixedDelay(this::drainQueueAndSend, 0, drainTimeoutSec, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        debug("Got stop request, draining the queue before shutdown. Will timeout in " + FINAL_DRAIN_TIMEOUT_SEC + " seconds.");
+        try {
+            stopAsync().get(FINAL_DRAIN_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            debug("Waited " + FINAL_DRAIN_TIMEOUT_SEC + " seconds, but could not finish draining. quitting.", e);
+        } finally {
+            if (ownsExecutors) {
+                bulkExecutor.shutdownNow();
+                tasksExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic drain and ships what is left in the queue on the shipper's executors, without holding the
+     * calling thread.
+     *
+     * @return completes once the queue is drained, or once a bulk failed and nothing is in flight anymore
+     */
+    CompletableFuture<Void> stopAsync() {
+        ScheduledFuture<?> task = drainTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+        CompletableFuture<Void> drained = new CompletableFuture<>();
+        long failedBefore = failedBulks.get();
+        try {
+            ScheduledFuture<?> finalDrain = tasksExecutor.scheduleWithFixedDelay(() -> {
+                if (isDrained() || (failedBulks.get() != failedBefore && getInFlightBulks() == 0)) {
+                    drained.complete(null);
+                } else {
+                    drainQueueAndSend();
+                }
+            }, 0, FINAL_DRAIN_POLL_MS, TimeUnit.MILLISECONDS);
+            drained.whenComplete((result, error) -> finalDrain.cancel(false));
+        } catch (RejectedExecutionException e) {
+            drained.complete(null);
+        }
+        return drained;
+    }
+
+    public void send(byte[] log) {
+        logsQueue.enqueue(log);
+    }
+
+    public void send(List<byte[]> logs) {
+        if (logsQueue instanceof InMemoryLogsQueue) {
+            ((InMemoryLogsQueue) logsQueue).enqueueAll(logs);
+        } else {
+            logs.forEach(logsQueue::enqueue);
+        }
+    }
+
+    public void drainQueueAndSend() {
+        if (!drainRunning.compareAndSet(false, true)) {
+            debug("Drain is running so we won't run another one in parallel");
+            return;
+        }
+        try {
+            drainQueue();
+        } catch (Exception e) {
+            reporter.error("Uncaught error from Logz.io bulk shipper", e);
+        } finally {
+            drainRunning.set(false);
+        }
+        // A bulk that completed while this drain was stopping couldn't start the next one
+        drainIfSlotFreed();
+    }
+
+    /**
+     * @return true if the queue is empty and no bulk is being sent
+     */
+    boolean isDrained() {
+        return logsQueue.isEmpty() && getInFlightBulks() == 0;
+    }
+
+    int getInFlightBulks() {
+        synchronized (inFlightLock) {
+            return inFlight;
+        }
+    }
+
+    ScheduledExecutorService getTasksExecutor() {
+        return tasksExecutor;
+    }
+
+    LogsQueue getLogsQueue() {
+        return logsQueue;
+    }
+
+    BulkTransport getTransport() {
+        return transport;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    AdaptiveConcurrencyController getController() {
+        return controller;
+    }
+
+    long getSentBulks() {
+        return sentBulks.get();
+    }
+
+    long getFailedBulks() {
+        return failedBulks.get();
+    }
+
+    long getSentLogs() {
+        return sentLogs.get();
+    }
+
+    long getLastBulkLatencyMs() {
+        return lastBulkLatencyMs;
+    }
+
+    private void drainQueue() {
+        debug("Attempting to drain queue");
+        bulkFailed = false;
+        waitingForSlot = false;
+        while (!logsQueue.isEmpty() && !bulkFailed) {
+            if (!tryAcquireInFlightSlot()) {
+                // The next bulk to complete schedules a drain
+                waitingForSlot = true;
+                break;
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                debug("Circuit breaker is " + circuitBreaker.getState() + ", not sending");
+                releaseInFlightSlot();
+                break;
+            }
+            List<byte[]> bulk = dequeueUpToBulkSize(controller.getBulkSizeBytes());
+            if (bulk.isEmpty()) {
+                circuitBreaker.release();
+                releaseInFlightSlot();
+                break;
+            }
+            sendBulk(bulk);
+        }
+    }
+
+    private void sendBulk(List<byte[]> bulk) {
+        long start = System.nanoTime();
+        CompletableFuture<Integer> response;
+        try {
+            response = transport.sendAsync(toNewLineSeparatedByteArray(bulk), bulkExecutor);
+        } catch (RuntimeException e) {
+            // the executor rejects bulks once stopping
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((responseCode, error) -> onBulkSent(bulk, start, responseCode, error));
+    }
+
+    private void onBulkSent(List<byte[]> bulk, long start, Integer responseCode, Throwable error) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        try {
+            if (error != null) {
+                throw BulkTransport.asIOException(error);
+            }
+            lastBulkLatencyMs = latencyMs;
+            if (responseCode >= 500) {
+                controller.onFailure();
+                onBulkFailed(bulk, "Got " + responseCode + " from logz.io, will retry in the next interval");
+                onListenerFailure();
+                return;
+            }
+            onListenerSuccess();
+            if (responseCode == 400) {
+                reporter.warning("Got 400 from logzio, dropping bulk of " + bulk.size() + " logs");
+            } else if (responseCode == 401) {
+                reporter.error("Logz.io: Got forbidden! Your token is not right. Unfortunately, dropping logs.");
+            } else {
+                controller.onSuccess(latencyMs);
+                sentLogs.addAndGet(bulk.size());
+                debug("Successfully sent bulk to logz.io, size: " + bulk.size());
+            }
+            sentBulks.incrementAndGet();
+        } catch (IOException e) {
+            lastBulkLatencyMs = latencyMs;
+            controller.onFailure();
+            onBulkFailed(bulk, "Could not send bulk to logz.io, will retry in the next interval: " + e.getMessage());
+            onListenerFailure();
+        } catch (RuntimeException e) {
+            circuitBreaker.release();
+            onBulkFailed(bulk, "Uncaught error while sending bulk to logz.io: " + e.getMessage());
+        } finally {
+            releaseInFlightSlot();
+            drainIfSlotFreed();
+        }
+    }
+
+    private void drainIfSlotFreed() {
+        if (waitingForSlot && !bulkFailed && getInFlightBulks() < controller.getConcurrency()) {
+            scheduleDrain(0);
+        }
+    }
+
+    private void onListenerSuccess() {
+        if (circuitBreaker.onSuccess()) {
+            reporter.info("Logz.io: listener is reachable again, resuming shipping");
+            scheduleDrain(0);
+        }
+    }
+
+    private void onListenerFailure() {
+        long backoffMs = circuitBreaker.onFailure();
+        if (backoffMs > 0) {
+            reporter.warning("Logz.io: listener keeps failing, pausing shipping for " + backoffMs + " ms, logs are kept in the queue");
+            scheduleDrain(backoffMs);
+        }
+    }
+
+    private void scheduleDrain(long delayMs) {
+        try {
+            tasksExecutor.schedule(this::drainQueueAndSend, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopping, the final drain ships what is left
+        }
+    }
+
+    private void onBulkFailed(List<byte[]> bulk, String message) {
+        bulkFailed = true;
+        failedBulks.incrementAndGet();
+        reporter.warning(message);
+        bulk.forEach(logsQueue::enqueue);
+    }
+
+    private List<byte[]> dequeueUpToBulkSize(int bulkSizeBytes) {
+        List<byte[]> bulk = new ArrayList<>();
+        int size = 0;
+        while (size < bulkSizeBytes && !logsQueue.isEmpty()) {
+            byte[] log = logsQueue.dequeue();
+            if (log != null && log.length > 0) {
+                bulk.add(log);
+                size += log.length;
+            }
+        }
+        return bulk;
+    }
+
+    private static byte[] toNewLineSeparatedByteArray(List<byte[]> bulk) {
+        int size = 0;
+        for (byte[] log : bulk) {
+            size += log.length + NEW_LINE.length;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+        for (byte[] log : bulk) {
+            bos.write(log, 0, log.length);
+            bos.write(NEW_LINE, 0, NEW_LINE.length);
+        }
+        return bos.toByteArray();
+    }
+
+    private boolean tryAcquireInFlightSlot() {
+        synchronized (inFlightLock) {
+            if (inFlight >= controller.getConcurrency()) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+    }
+
+    private void releaseInFlightSlot() {
+        synchronized (inFlightLock) {
+            inFlight--;
+        }
+    }
+
+    private void debug(String message) {
+        if (debug) {
+            reporter.info("DEBUG: " + message);
+        }
+    }
+
+    private void debug(String message, Throwable e) {
+        if (debug) {
+            reporter.info("DEBUG: " + message, e);
+        }
+    }
+}
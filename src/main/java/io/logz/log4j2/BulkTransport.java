@@ -0,0 +1,76 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Ships a single newline separated bulk to a Logz.io listener.
+ */
+interface BulkTransport {
+
+    /**
+     * @param bulk newline separated, uncompressed log lines
+     * @return the HTTP status code returned by the listener
+     * @throws IOException if the bulk could not be delivered
+     */
+    int send(byte[] bulk) throws IOException;
+
+    /**
+     * Sends the bulk without holding a thread while waiting for the listener, for transports that support it. By
+     * default {@link #send(byte[])} runs on the executor.
+     *
+     * @return completes with the HTTP status code returned by the listener, or with an {@link IOException} if the
+     * bulk could not be delivered
+     */
+    default CompletableFuture<Integer> sendAsync(byte[] bulk, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(bulk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits for a response of {@link #sendAsync(byte[], Executor)}, for the transports implementing {@link #send(byte[])}
+     * with it.
+     */
+    static int await(CompletableFuture<Integer> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending bulk");
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the IOException a bulk failed with, unwrapped from the {@link CompletionException} of a future
+     * @throws RuntimeException if the bulk failed for any other reason
+     */
+    static IOException asIOException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException) {
+            return ((UncheckedIOException) cause).getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+}
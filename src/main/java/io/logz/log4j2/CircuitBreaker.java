@@ -0,0 +1,114 @@
+package io.logz.log4j2;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the {@link BulkShipper} from sending bulks to a listener that keeps failing.
+ * <p>
+ * After {@code failureThreshold} consecutive failed bulks the breaker opens and no bulk is sent until the backoff
+ * elapses. The backoff doubles with every consecutive opening, up to {@code maxBackoffMs}, and is jittered between
+ * half and the full value so a fleet of appenders doesn't come back in lockstep. Once it elapses the breaker is
+ * half-open and lets a single probe bulk through: a success closes it, a failure opens it again.
+ * <p>
+ * Bulks rejected by the listener (4xx) count as successes, the listener is reachable.
+ */
+class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpens;
+    private long openUntilNanos;
+    private boolean probeInFlight;
+    private long opens;
+
+    /**
+     * @param failureThreshold consecutive failed bulks opening the breaker, 0 disables the breaker
+     */
+    CircuitBreaker(int failureThreshold, long baseBackoffMs, long maxBackoffMs) {
+        this.failureThreshold = failureThreshold;
+        this.baseBackoffMs = Math.max(1, baseBackoffMs);
+        this.maxBackoffMs = Math.max(this.baseBackoffMs, maxBackoffMs);
+    }
+
+    /**
+     * @return true if a bulk may be sent now. In half-open state only the first caller gets to send the probe.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Gives back a permit that was not used to send a bulk.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * @return true if this success closed an open or half-open breaker
+     */
+    synchronized boolean onSuccess() {
+        consecutiveFailures = 0;
+        if (state == State.CLOSED) {
+            return false;
+        }
+        state = State.CLOSED;
+        consecutiveOpens = 0;
+        probeInFlight = false;
+        return true;
+    }
+
+    /**
+     * @return the backoff in milliseconds if this failure opened the breaker, otherwise 0
+     */
+    synchronized long onFailure() {
+        if (failureThreshold <= 0) {
+            return 0;
+        }
+        consecutiveFailures++;
+        if (state == State.OPEN || (state == State.CLOSED && consecutiveFailures < failureThreshold)) {
+            return 0;
+        }
+        long backoffMs = Math.min(maxBackoffMs, baseBackoffMs << Math.min(consecutiveOpens, 20));
+        backoffMs = backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+        consecutiveOpens++;
+        opens++;
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+        return backoffMs;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized long getOpens() {
+        return opens;
+    }
+}
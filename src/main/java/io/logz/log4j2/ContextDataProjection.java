@@ -0,0 +1,196 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.TriConsumer;
+
+import io.logz.sender.com.google.gson.JsonObject;
+
+/**
+ * Selects, renames and types the context data (MDC) keys added to each log.
+ * <p>
+ * Keys are kept if they match the include list, or every key if it is empty, and don't match the exclude list.
+ * Patterns are exact keys, prefixes ending with {@code *}, or globs with {@code *} and {@code ?}. Values of keys typed
+ * {@code number} or {@code boolean} are added as JSON primitives when they parse, as strings otherwise.
+ * <p>
+ * The rules are compiled once. The context data is walked in place with
+ * {@link ReadOnlyStringMap#forEach(TriConsumer, Object)} instead of copying it with {@code toMap()}, and the decision
+ * for each key is cached, since the same keys show up in every log.
+ */
+class ContextDataProjection {
+
+    // Bounds the cache when keys are generated, decisions for more keys are computed per log
+    static final int MAX_CACHED_KEYS = 1024;
+
+    enum Type {
+        STRING, NUMBER, BOOLEAN
+    }
+
+    private final KeyMatcher include;
+    private final KeyMatcher exclude;
+    private final Map<String, String> renames;
+    private final Map<String, Type> types;
+    private final UnaryOperator<String> valueFilter;
+    private final Map<String, Field> fields = new ConcurrentHashMap<>();
+    private final TriConsumer<String, Object, JsonObject> addField = this::addField;
+
+    /**
+     * @param valueFilter applied to the string values before they are added, like redaction
+     */
+    ContextDataProjection(List<String> include, List<String> exclude, Map<String, String> renames, Map<String, Type> types,
+                          UnaryOperator<String> valueFilter) {
+        this.include = include.isEmpty() ? null : new KeyMatcher(include);
+        this.exclude = exclude.isEmpty() ? null : new KeyMatcher(exclude);
+        this.renames = new HashMap<>(renames);
+        this.types = new HashMap<>(types);
+        this.valueFilter = valueFilter;
+    }
+
+    void addTo(ReadOnlyStringMap contextData, JsonObject logMessage) {
+        contextData.forEach(addField, logMessage);
+    }
+
+    private void addField(String key, Object value, JsonObject logMessage) {
+        Field field = fields.get(key);
+        if (field == null) {
+            field = newField(key);
+            if (fields.size() < MAX_CACHED_KEYS) {
+                fields.put(key, field);
+            }
+        }
+        if (field == Field.EXCLUDED) {
+            return;
+        }
+        if (field.type == Type.NUMBER && value instanceof Number) {
+            logMessage.addProperty(field.name, (Number) value);
+            return;
+        }
+        if (field.type == Type.BOOLEAN && value instanceof Boolean) {
+            logMessage.addProperty(field.name, (Boolean) value);
+            return;
+        }
+        String text = valueFilter.apply(value == null ? null : String.valueOf(value));
+        if (text != null && field.type == Type.NUMBER) {
+            Number number = parseNumber(text);
+            if (number != null) {
+                logMessage.addProperty(field.name, number);
+                return;
+            }
+        } else if (text != null && field.type == Type.BOOLEAN) {
+            if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+                logMessage.addProperty(field.name, Boolean.parseBoolean(text));
+                return;
+            }
+        }
+        logMessage.addProperty(field.name, text);
+    }
+
+    private Field newField(String key) {
+        if ((include != null && !include.matches(key)) || (exclude != null && exclude.matches(key))) {
+            return Field.EXCLUDED;
+        }
+        return new Field(renames.getOrDefault(key, key), types.getOrDefault(key, Type.STRING));
+    }
+
+    private static Number parseNumber(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            double number = Double.parseDouble(text);
+            return Double.isFinite(number) ? number : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Field {
+
+        static final Field EXCLUDED = new Field(null, null);
+
+        final String name;
+        final Type type;
+
+        Field(String name, Type type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    private static class KeyMatcher {
+
+        private final Set<String> keys = new HashSet<>();
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<Pattern> globs = new ArrayList<>();
+
+        KeyMatcher(List<String> patterns) {
+            for (String pattern : patterns) {
+                int wildcard = indexOfWildcard(pattern);
+                if (wildcard == -1) {
+                    keys.add(pattern);
+                } else if (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*') {
+                    prefixes.add(pattern.substring(0, wildcard));
+                } else {
+                    globs.add(toRegex(pattern));
+                }
+            }
+        }
+
+        boolean matches(String key) {
+            if (keys.contains(key)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            for (Pattern glob : globs) {
+                if (glob.matcher(key).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int indexOfWildcard(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static Pattern toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int literalStart = 0;
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > literalStart) {
+                        regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    literalStart = i + 1;
+                }
+            }
+            if (literalStart < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(literalStart)));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.logz.log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+
+import io.logz.sender.LogsQueue;
+import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.org.ikasan.bigqueue.BigQueueImpl;
+
+/**
+ * Disk {@link LogsQueue} owned by the appender, shipped by the {@link BulkShipper}. Like the sender's disk queue, it
+ * is a BigQueue directory, logs are dropped while the file system is fuller than the threshold, and the pages of
+ * shipped logs are deleted periodically.
+ * <p>
+ * Records are transcoded to JSON when dequeued, on the shipper's drain thread. Logs that aren't records, like the
+ * ones queued with the JSON format or put back after a failed bulk, are returned as they are.
+ * <p>
+ * A directory is opened once per JVM: while Log4j2 reconfigures, the new appender starts before the old one stops,
+ * and both use the same queue until the last of them closes it. The maintenance of all the open queues runs on one
+ * thread, started with the first queue and stopped with the last, so routing to many destinations doesn't add a thread
+ * per queue. Running out of disk space is reported when it starts and when it ends, rather than on every check.
+ */
+class DiskLogsQueue implements LogsQueue {
+
+    private static final int DONT_CHECK_DISK_SPACE = -1;
+    private static final long CHECK_DISK_SPACE_INTERVAL_MS = 1000;
+
+    private static final Map<File, DiskLogsQueue> openQueues = new HashMap<>();
+    // Guarded by openQueues
+    private static ScheduledExecutorService maintenanceExecutor;
+
+    private final BigQueueImpl logsQueue;
+    private final File queueDirectory;
+    private final int fsPercentThreshold;
+    private final SenderStatusReporter reporter;
+    private final List<ScheduledFuture<?>> maintenanceTasks = new ArrayList<>();
+    private volatile LogRecordCodec codec;
+    private volatile boolean isEnoughSpace = true;
+    private int references;
+
+    /**
+     * Opens the queue of a directory, or shares the one already open.
+     *
+     * @param queueDirectory the directory of the queue, {@code <queueDir>/<logzioType>}
+     * @param codec reads the records of the queue, it replaces the codec of a shared queue if it has more entries
+     */
+    static DiskLogsQueue open(File queueDirectory, LogRecordCodec codec, int fsPercentThreshold,
+                              int gcPersistedQueueFilesIntervalSeconds, SenderStatusReporter reporter) throws IOException {
+        File directory = queueDirectory.getAbsoluteFile();
+        synchronized (openQueues) {
+            DiskLogsQueue queue = openQueues.get(directory);
+            if (queue == null) {
+                queue = new DiskLogsQueue(directory, codec, fsPercentThreshold, reporter);
+                if (maintenanceExecutor == null) {
+                    maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                            Log4jThreadFactory.createDaemonThreadFactory(DiskLogsQueue.class.getSimpleName()));
+                }
+                queue.scheduleMaintenance(gcPersistedQueueFilesIntervalSeconds);
+                openQueues.put(directory, queue);
+            } else if (codec.size() > queue.codec.size()) {
+                // Entries are only added to the dictionary, so the larger codec reads the records of both appenders
+                queue.codec = codec;
+            }
+            queue.references++;
+            return queue;
+        }
+    }
+
+    private DiskLogsQueue(File queueDirectory, LogRecordCodec codec, int fsPercentThreshold, SenderStatusReporter reporter) throws IOException {
+        this.logsQueue = new BigQueueImpl(queueDirectory.getParent(), queueDirectory.getName());
+        this.queueDirectory = queueDirectory;
+        this.codec = codec;
+        this.fsPercentThreshold = fsPercentThreshold;
+        this.reporter = reporter;
+    }
+
+    // Called under the openQueues lock
+    private void scheduleMaintenance(int gcPersistedQueueFilesIntervalSeconds) {
+        maintenanceTasks.add(maintenanceExecutor.scheduleWithFixedDelay(this::gc, 0,
+                Math.max(1, gcPersistedQueueFilesIntervalSeconds), TimeUnit.SECONDS));
+        if (fsPercentThreshold != DONT_CHECK_DISK_SPACE) {
+            maintenanceTasks.add(maintenanceExecutor.scheduleWithFixedDelay(this::checkDiskSpace, 0,
+                    CHECK_DISK_SPACE_INTERVAL_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void enqueue(byte[] log) {
+        if (!isEnoughSpace) {
+            return;
+        }
+        try {
+            logsQueue.enqueue(log);
+        } catch (IOException e) {
+            reporter.error("Encountered an error while enqueue", e);
+        }
+    }
+
+    @Override
+    public byte[] dequeue() {
+        while (true) {
+            byte[] log;
+            try {
+                log = logsQueue.dequeue();
+            } catch (IOException e) {
+                reporter.error("Encountered an error while dequeue", e);
+                return null;
+            }
+            if (log == null) {
+                return null;
+            }
+            try {
+                return codec.toJson(log);
+            } catch (IllegalArgumentException e) {
+                reporter.error("Dropping a log that can't be read from the disk queue: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return logsQueue.isEmpty();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        logsQueue.removeAll();
+    }
+
+    /**
+     * Releases the queue, the directory is closed once every appender that opened it released it.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (openQueues) {
+            if (--references > 0) {
+                return;
+            }
+            openQueues.remove(queueDirectory);
+            maintenanceTasks.forEach(task -> task.cancel(false));
+            if (openQueues.isEmpty()) {
+                maintenanceExecutor.shutdownNow();
+                maintenanceExecutor = null;
+            }
+        }
+        logsQueue.close();
+    }
+
+    private void checkDiskSpace() {
+        try {
+            int usedPercent = (int) (100 - (queueDirectory.getUsableSpace() * 100.0 / queueDirectory.getTotalSpace()));
+            boolean wasEnoughSpace = isEnoughSpace;
+            isEnoughSpace = usedPercent < fsPercentThreshold;
+            if (wasEnoughSpace && !isEnoughSpace) {
+                reporter.warning(String.format("Logz.io: Dropping logs, as FS used space on %s is %d percent, and the drop threshold is %d percent",
+                        queueDirectory.getAbsolutePath(), usedPercent, fsPercentThreshold));
+            } else if (!wasEnoughSpace && isEnoughSpace) {
+                reporter.info(String.format("Logz.io: Queueing logs again, as FS used space on %s is %d percent, below the drop threshold of %d percent",
+                        queueDirectory.getAbsolutePath(), usedPercent, fsPercentThreshold));
+            }
+        } catch (RuntimeException e) {
+            reporter.error("Uncaught error from checkDiskSpace()", e);
+        }
+    }
+
+    private void gc() {
+        try {
+            logsQueue.gc();
+        } catch (IOException | RuntimeException e) {
+            reporter.error("Uncaught error from BigQueue.gc()", e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.logz.log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the logs of a disk queue persisted by the appender without changing it.
+ * <p>
+ * The disk queue is a BigQueue directory: {@code meta_data} holds the head and tail indexes of the logs ever written,
+ * {@code front_index} the index of the next log to dequeue, and each log has a 32 bytes item in the {@code index}
+ * pages pointing at its bytes in a {@code data} page. Pages are mapped read only, one index page and one data page
+ * at a time, so reading the queue in order maps each page once.
+ */
+class DiskQueueReader {
+
+    private static final String PAGE_FILE = "page-%d.dat";
+    private static final int INDEX_ITEMS_PER_PAGE_BITS = 17;
+    private static final int INDEX_ITEM_LENGTH_BITS = 5;
+    private static final int DATA_PAGE_INDEX_OFFSET = 0;
+    private static final int DATA_ITEM_OFFSET_OFFSET = 8;
+    private static final int DATA_ITEM_LENGTH_OFFSET = 12;
+
+    private final File queueDirectory;
+    private final long headIndex;
+    private final long tailIndex;
+    private final long frontIndex;
+
+    private long indexPageIndex = -1;
+    private ByteBuffer indexPage;
+    private long dataPageIndex = -1;
+    private ByteBuffer dataPage;
+
+    /**
+     * @param queueDirectory the directory of the queue, {@code <queueDir>/<logzioType>}
+     */
+    DiskQueueReader(File queueDirectory) throws IOException {
+        this.queueDirectory = queueDirectory;
+        File metaData = pageFile("meta_data", 0);
+        if (!metaData.isFile()) {
+            throw new IOException("Not a disk queue directory: " + queueDirectory);
+        }
+        ByteBuffer meta = map(metaData);
+        this.headIndex = meta.getLong(0);
+        this.tailIndex = meta.getLong(8);
+        File front = pageFile("front_index", 0);
+        this.frontIndex = front.isFile() ? Math.max(tailIndex, map(front).getLong(0)) : tailIndex;
+    }
+
+    File getQueueDirectory() {
+        return queueDirectory;
+    }
+
+    /**
+     * @return the index of the first log the sender didn't dequeue yet
+     */
+    long getFrontIndex() {
+        return frontIndex;
+    }
+
+    /**
+     * @return the index following the last log written
+     */
+    long getHeadIndex() {
+        return headIndex;
+    }
+
+    /**
+     * @param index between {@link #getFrontIndex()} and {@link #getHeadIndex()}
+     */
+    byte[] read(long index) throws IOException {
+        if (index < tailIndex || index >= headIndex) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in the queue, [" + tailIndex + ", " + headIndex + ")");
+        }
+        long pageIndex = index >>> INDEX_ITEMS_PER_PAGE_BITS;
+        if (pageIndex != indexPageIndex) {
+            indexPage = map(pageFile("index", pageIndex));
+            indexPageIndex = pageIndex;
+        }
+        int itemPosition = (int) (index - (pageIndex << INDEX_ITEMS_PER_PAGE_BITS)) << INDEX_ITEM_LENGTH_BITS;
+        long itemDataPageIndex = indexPage.getLong(itemPosition + DATA_PAGE_INDEX_OFFSET);
+        int offset = indexPage.getInt(itemPosition + DATA_ITEM_OFFSET_OFFSET);
+        int length = indexPage.getInt(itemPosition + DATA_ITEM_LENGTH_OFFSET);
+        if (itemDataPageIndex != dataPageIndex) {
+            dataPage = map(pageFile("data", itemDataPageIndex));
+            dataPageIndex = itemDataPageIndex;
+        }
+        byte[] log = new byte[length];
+        ByteBuffer item = dataPage.duplicate();
+        item.position(offset);
+        item.get(log);
+        return log;
+    }
+
+    private File pageFile(String folder, long pageIndex) {
+        return new File(new File(queueDirectory, folder), String.format(PAGE_FILE, pageIndex));
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Encoded logs of a single appending thread, collected until Log4j2 marks the end of the batch
+ * ({@link org.apache.logging.log4j.core.LogEvent#isEndOfBatch()}) or the buffer is full.
+ * <p>
+ * A buffer is only filled by its own thread; the lock is uncontended except when the appender writes out what is
+ * left in every registered buffer, on its periodic tick, a linger flush or when it stops. A buffer that stayed empty
+ * for a whole tick leaves the registry, so the buffers of dead threads can be collected, and joins it again on its
+ * next log.
+ */
+class EndOfBatchBuffer {
+
+    private final int maxLogs;
+    private final List<byte[]> logs;
+    private final Set<EndOfBatchBuffer> registry;
+    private long sizeInBytes;
+    private Level mostSpecificLevel;
+    private boolean registered;
+    private boolean addedSinceCheck;
+
+    /**
+     * @param registry the buffers the appender writes out, this buffer is registered while it is in use
+     */
+    EndOfBatchBuffer(int maxLogs, Set<EndOfBatchBuffer> registry) {
+        this.maxLogs = maxLogs;
+        this.logs = new ArrayList<>(maxLogs);
+        this.registry = registry;
+        register();
+    }
+
+    /**
+     * @return true if the buffer reached its maximum size and should be written out
+     */
+    synchronized boolean add(byte[] log, Level level) {
+        if (!registered) {
+            register();
+        }
+        addedSinceCheck = true;
+        logs.add(log);
+        sizeInBytes += log.length;
+        if (mostSpecificLevel == null || level.isMoreSpecificThan(mostSpecificLevel)) {
+            mostSpecificLevel = level;
+        }
+        return logs.size() >= maxLogs;
+    }
+
+    synchronized void writeTo(BatchWriter writer) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        try {
+            writer.write(logs, sizeInBytes, mostSpecificLevel);
+        } finally {
+            logs.clear();
+            sizeInBytes = 0;
+            mostSpecificLevel = null;
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return logs.isEmpty();
+    }
+
+    /**
+     * Leaves the registry if the buffer is empty and nothing was added since the previous check. Both happen under
+     * the buffer's lock, so a log added meanwhile registers it again.
+     */
+    synchronized void unregisterIfIdle() {
+        if (logs.isEmpty() && !addedSinceCheck && registered) {
+            registry.remove(this);
+            registered = false;
+        }
+        addedSinceCheck = false;
+    }
+
+    private void register() {
+        registry.add(this);
+        registered = true;
+    }
+
+    /**
+     * Consumes the batch synchronously, the list is reused once write returns.
+     */
+    interface BatchWriter {
+        void write(List<byte[]> logs, long sizeInBytes, Level mostSpecificLevel);
+    }
+}
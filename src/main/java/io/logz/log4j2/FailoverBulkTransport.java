@@ -0,0 +1,192 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BulkTransport} spreading bulks over several listener endpoints.
+ * <p>
+ * Each bulk goes to a healthy endpoint picked at random, weighted by the inverse of its recent latency, so slow
+ * endpoints get less of the traffic. An endpoint that failed to answer, or answered with a server error, is taken out
+ * of rotation for a cooldown that doubles with every consecutive failure, and the bulk fails over to the next endpoint
+ * right away. When every endpoint is cooling down the one that recovers first is tried.
+ */
+class FailoverBulkTransport implements BulkTransport {
+
+    static final long BASE_COOLDOWN_MS = 1000;
+    static final long MAX_COOLDOWN_MS = 60 * 1000;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final List<Endpoint> endpoints;
+
+    FailoverBulkTransport(List<Endpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        this.endpoints = endpoints;
+    }
+
+    @Override
+    public int send(byte[] bulk) throws IOException {
+        return BulkTransport.await(sendAsync(bulk, Runnable::run));
+    }
+
+    /**
+     * Tries the endpoints one after the other, each attempt starting once the previous one failed, without waiting
+     * for the responses on a thread when the endpoints' transports send asynchronously.
+     */
+    @Override
+    public CompletableFuture<Integer> sendAsync(byte[] bulk, Executor executor) {
+        CompletableFuture<Integer> response = new CompletableFuture<>();
+        sendToNextEndpoint(bulk, executor, new ArrayList<>(endpoints), null, -1, response);
+        return response;
+    }
+
+    private void sendToNextEndpoint(byte[] bulk, Executor executor, List<Endpoint> candidates, IOException lastException,
+                                    int lastResponseCode, CompletableFuture<Integer> response) {
+        if (candidates.isEmpty()) {
+            if (lastResponseCode != -1) {
+                response.complete(lastResponseCode);
+            } else {
+                response.completeExceptionally(lastException);
+            }
+            return;
+        }
+        Endpoint endpoint = pick(candidates);
+        candidates.remove(endpoint);
+        long start = System.nanoTime();
+        CompletableFuture<Integer> attempt;
+        try {
+            attempt = endpoint.transport.sendAsync(bulk, executor);
+        } catch (RuntimeException e) {
+            response.completeExceptionally(e);
+            return;
+        }
+        attempt.whenComplete((responseCode, error) -> {
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (error == null && responseCode < 500) {
+                endpoint.onSuccess(latencyMs);
+                response.complete(responseCode);
+                return;
+            }
+            if (error == null) {
+                endpoint.onFailure(latencyMs);
+                sendToNextEndpoint(bulk, executor, candidates, lastException, responseCode, response);
+                return;
+            }
+            IOException exception;
+            try {
+                exception = BulkTransport.asIOException(error);
+            } catch (RuntimeException | Error e) {
+                response.completeExceptionally(e);
+                return;
+            }
+            endpoint.onFailure(latencyMs);
+            sendToNextEndpoint(bulk, executor, candidates, exception, lastResponseCode, response);
+        });
+    }
+
+    int getHealthyEndpoints() {
+        long now = System.currentTimeMillis();
+        int healthy = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    private static Endpoint pick(List<Endpoint> candidates) {
+        long now = System.currentTimeMillis();
+        double totalWeight = 0;
+        for (Endpoint endpoint : candidates) {
+            if (endpoint.isHealthy(now)) {
+                totalWeight += endpoint.weight();
+            }
+        }
+        if (totalWeight == 0) {
+            Endpoint soonest = candidates.get(0);
+            for (Endpoint endpoint : candidates) {
+                if (endpoint.unhealthyUntil < soonest.unhealthyUntil) {
+                    soonest = endpoint;
+                }
+            }
+            return soonest;
+        }
+        double point = ThreadLocalRandom.current().nextDouble(totalWeight);
+        Endpoint picked = null;
+        for (Endpoint endpoint : candidates) {
+            if (endpoint.isHealthy(now)) {
+                picked = endpoint;
+                point -= endpoint.weight();
+                if (point < 0) {
+                    break;
+                }
+            }
+        }
+        return picked;
+    }
+
+    static class Endpoint {
+
+        private final String url;
+        private final BulkTransport transport;
+        private volatile double averageLatencyMs;
+        private volatile int consecutiveFailures;
+        private volatile long unhealthyUntil;
+
+        Endpoint(String url, BulkTransport transport) {
+            this.url = url;
+            this.transport = transport;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        double getAverageLatencyMs() {
+            return averageLatencyMs;
+        }
+
+        boolean isHealthy(long now) {
+            return unhealthyUntil <= now;
+        }
+
+        private double weight() {
+            return 1 / (averageLatencyMs + 1);
+        }
+
+        private synchronized void onSuccess(long latencyMs) {
+            updateLatency(latencyMs);
+            consecutiveFailures = 0;
+            unhealthyUntil = 0;
+        }
+
+        private synchronized void onFailure(long latencyMs) {
+            updateLatency(latencyMs);
+            consecutiveFailures++;
+            long cooldownMs = Math.min(MAX_COOLDOWN_MS, BASE_COOLDOWN_MS << Math.min(consecutiveFailures - 1, 16));
+            unhealthyUntil = System.currentTimeMillis() + cooldownMs;
+        }
+
+        private void updateLatency(long latencyMs) {
+            averageLatencyMs = averageLatencyMs == 0 ? latencyMs
+                    : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.logz.log4j2;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+
+import io.logz.sender.com.google.gson.JsonElement;
+import io.logz.sender.com.google.gson.JsonObject;
+
+/**
+ * Per field size limits, applied while a log is built so an oversized field is cut before it is copied into the
+ * JSON tree and serialized. A limit of 0 disables it.
+ * <p>
+ * Cut fields end with {@link LogMessageEncoder#TRUNCATED_MESSAGE_SUFFIX} and are counted. Fields are redacted before
+ * they are cut, so a sensitive value straddling the limit is masked rather than left partly visible. Stack traces are
+ * written into a bounded buffer holding {@link #REDACTION_MARGIN_CHARS} past maxExceptionChars, so the rest is never
+ * held in memory. maxEventBytes is checked on the lengths of the fields before serializing, cutting the exception and
+ * then the message to fit.
+ * <p>
+ * Messages that can format themselves into a {@link StringBuilder} are formatted into a buffer reused by the thread,
+ * and only what is kept is copied. Log4j2 can't stop formatting at a length, so the whole message is still formatted
+ * once, but it is redacted only up to the margin past maxMessageChars.
+ */
+class FieldLimits {
+
+    private static final String SUFFIX = LogMessageEncoder.TRUNCATED_MESSAGE_SUFFIX;
+    // Quotes, colon and comma around each field
+    private static final int FIELD_OVERHEAD = 6;
+    // Read past a limit before redacting, so a value crossing the limit is seen whole
+    static final int REDACTION_MARGIN_CHARS = 1024;
+    // A limit has to leave room for the suffix and at least one char of the value
+    static final int MIN_LIMIT_CHARS = SUFFIX.length() + 1;
+    // Larger buffers are dropped after use rather than kept by the thread
+    private static final int MAX_RETAINED_BUFFER_CHARS = 64 * 1024;
+
+    private final int maxMessageChars;
+    private final int maxExceptionChars;
+    private final int maxMdcValueChars;
+    private final int maxEventBytes;
+    private final AtomicLong truncatedFields = new AtomicLong();
+    private final ThreadLocal<StringBuilder> messageBuffers = ThreadLocal.withInitial(StringBuilder::new);
+
+    /**
+     * @throws IllegalArgumentException if a char limit is below {@link #MIN_LIMIT_CHARS}, a cut value would be
+     *                                  longer than the limit
+     */
+    FieldLimits(int maxMessageChars, int maxExceptionChars, int maxMdcValueChars, int maxEventBytes) {
+        this.maxMessageChars = checkLimit("maxMessageChars", maxMessageChars);
+        this.maxExceptionChars = checkLimit("maxExceptionChars", maxExceptionChars);
+        this.maxMdcValueChars = checkLimit("maxMdcValueChars", maxMdcValueChars);
+        this.maxEventBytes = Math.max(0, maxEventBytes);
+    }
+
+    /**
+     * @return whether a char limit can be applied, 0 or at least {@link #MIN_LIMIT_CHARS}
+     */
+    static boolean isValidLimit(int maxChars) {
+        return maxChars <= 0 || maxChars >= MIN_LIMIT_CHARS;
+    }
+
+    String message(String message) {
+        return cut(message, maxMessageChars);
+    }
+
+    /**
+     * @param redact applied to the message before it is cut
+     */
+    String message(Message message, UnaryOperator<String> redact) {
+        if (maxMessageChars == 0 || !(message instanceof StringBuilderFormattable)) {
+            return redactAndCut(message.getFormattedMessage(), maxMessageChars, redact);
+        }
+        StringBuilder buffer = messageBuffers.get();
+        try {
+            ((StringBuilderFormattable) message).formatTo(buffer);
+            return redactAndCut(buffer, maxMessageChars, redact);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_CHARS) {
+                messageBuffers.remove();
+            } else {
+                buffer.setLength(0);
+            }
+        }
+    }
+
+    String mdcValue(String value) {
+        return cut(value, maxMdcValueChars);
+    }
+
+    String exception(Throwable throwable) {
+        return exception(throwable, UnaryOperator.identity());
+    }
+
+    /**
+     * @param redact applied to the stack trace before it is cut
+     */
+    String exception(Throwable throwable, UnaryOperator<String> redact) {
+        // One char more than what is redacted tells that the stack trace was longer
+        LimitedWriter writer = new LimitedWriter(maxExceptionChars == 0 ? 0 : maxExceptionChars + REDACTION_MARGIN_CHARS + 1);
+        throwable.printStackTrace(new PrintWriter(writer));
+        return redactAndCut(writer.buffer, maxExceptionChars, redact);
+    }
+
+    /**
+     * Cuts the exception, and then the message if needed, so the serialized log would stay within maxEventBytes.
+     * Sizes are counted in chars, the serialized size is checked again by the encoder.
+     */
+    void fitEvent(JsonObject logMessage, String messageField, String exceptionField) {
+        if (maxEventBytes == 0) {
+            return;
+        }
+        long size = 2;
+        for (Map.Entry<String, JsonElement> field : logMessage.entrySet()) {
+            JsonElement value = field.getValue();
+            size += field.getKey().length() + FIELD_OVERHEAD
+                    + (value.isJsonPrimitive() ? value.getAsString().length() : value.toString().length());
+        }
+        long excess = size - maxEventBytes;
+        excess = shrink(logMessage, exceptionField, excess);
+        shrink(logMessage, messageField, excess);
+    }
+
+    void onTruncated() {
+        truncatedFields.incrementAndGet();
+    }
+
+    int getMaxEventBytes() {
+        return maxEventBytes;
+    }
+
+    long getTruncatedFields() {
+        return truncatedFields.get();
+    }
+
+    private long shrink(JsonObject logMessage, String field, long excess) {
+        if (excess <= 0) {
+            return excess;
+        }
+        JsonElement element = logMessage.get(field);
+        if (element == null) {
+            return excess;
+        }
+        String value = element.getAsString();
+        int keepLength = (int) Math.max(0, value.length() - excess - SUFFIX.length());
+        logMessage.addProperty(field, cut(value, keepLength + SUFFIX.length()));
+        return excess - (value.length() - keepLength - SUFFIX.length());
+    }
+
+    private String redactAndCut(CharSequence text, int maxChars, UnaryOperator<String> redact) {
+        if (text == null) {
+            return redact.apply(null);
+        }
+        int redactedChars = maxChars + REDACTION_MARGIN_CHARS;
+        if (maxChars == 0 || text.length() <= redactedChars) {
+            return cut(redact.apply(text.toString()), maxChars);
+        }
+        // A value crossing the end of the margin is only partly redacted, the text stops at the end of a line
+        // instead when there is one past the limit. Either way the cut drops that part.
+        int end = redactedChars;
+        for (int i = end - 1; i >= maxChars; i--) {
+            if (text.charAt(i) == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        String redacted = redact.apply(text.subSequence(0, end).toString());
+        truncatedFields.incrementAndGet();
+        return redacted.substring(0, keepLength(redacted, maxChars)) + SUFFIX;
+    }
+
+    private String cut(String value, int maxChars) {
+        if (maxChars == 0 || value == null || value.length() <= maxChars) {
+            return value;
+        }
+        truncatedFields.incrementAndGet();
+        return value.substring(0, keepLength(value, maxChars)) + SUFFIX;
+    }
+
+    private static int checkLimit(String name, int maxChars) {
+        if (!isValidLimit(maxChars)) {
+            throw new IllegalArgumentException(name + " must be 0 or at least " + MIN_LIMIT_CHARS + ", got " + maxChars);
+        }
+        return Math.max(0, maxChars);
+    }
+
+    private static int keepLength(String value, int maxChars) {
+        int keepLength = Math.min(value.length(), Math.max(0, maxChars - SUFFIX.length()));
+        // Don't split a surrogate pair
+        if (keepLength > 0 && Character.isHighSurrogate(value.charAt(keepLength - 1))) {
+            keepLength--;
+        }
+        return keepLength;
+    }
+
+    private static class LimitedWriter extends Writer {
+
+        private final int maxChars;
+        private final StringBuilder buffer = new StringBuilder();
+
+        LimitedWriter(int maxChars) {
+            this.maxChars = maxChars == 0 ? Integer.MAX_VALUE : maxChars;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            int keep = Math.min(length, maxChars - buffer.length());
+            if (keep > 0) {
+                buffer.append(chars, offset, keep);
+            }
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            int keep = Math.min(length, maxChars - buffer.length());
+            if (keep > 0) {
+                buffer.append(text, offset, offset + keep);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.lookup.Interpolator;
+import org.apache.logging.log4j.core.lookup.StrLookup;
+import org.apache.logging.log4j.core.lookup.StrSubstitutor;
+
+/**
+ * An additionalFields value with Log4j2 lookups, like {@code ${ctx:requestId}} or {@code ${sys:region}-${ctx:zone}},
+ * compiled once when the appender starts.
+ * <p>
+ * The value is split into parts: text between lookups is kept as is, lookups that don't depend on the log, like
+ * {@code sys} or {@code env}, are resolved once and merged with the text around them, and only the lookups of the
+ * log, like {@code ctx} or {@code map}, are resolved per log, by calling their {@link StrLookup} directly instead of
+ * parsing the value again. A value made of a single lookup that resolves to nothing is left out of the log.
+ */
+class FieldTemplate {
+
+    // Lookups whose result depends on the log event
+    private static final Set<String> EVENT_LOOKUPS = new HashSet<>(Arrays.asList("ctx", "map", "marker", "event", "date", "sd"));
+    private static final String DEFAULT_VALUE_DELIMITER = ":-";
+
+    private final String name;
+    private final String constant;
+    private final Part[] parts;
+
+    private FieldTemplate(String name, String constant, Part[] parts) {
+        this.name = name;
+        this.constant = constant;
+        this.parts = parts;
+    }
+
+    static boolean hasLookups(String value) {
+        return value != null && value.contains("${");
+    }
+
+    /**
+     * @return the compiled value, or null if it doesn't depend on the log and resolves to nothing
+     */
+    static FieldTemplate compile(String name, String value, StrSubstitutor substitutor) {
+        List<Part> parts = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int position = 0;
+        while (position < value.length()) {
+            int start = value.indexOf("${", position);
+            int end = start == -1 ? -1 : closingBrace(value, start + 2);
+            if (end == -1) {
+                text.append(value, position, value.length());
+                break;
+            }
+            text.append(value, position, start);
+            String lookup = value.substring(start, end + 1);
+            Part part = dynamicPart(lookup, substitutor);
+            if (part == null) {
+                // Doesn't depend on the log, resolved once
+                String resolved = substitutor.replace(lookup);
+                if (!lookup.equals(resolved)) {
+                    text.append(resolved);
+                }
+            } else {
+                addText(parts, text);
+                parts.add(part);
+            }
+            position = end + 1;
+        }
+        addText(parts, text);
+        if (parts.isEmpty()) {
+            return null;
+        }
+        if (parts.size() == 1 && parts.get(0).isText()) {
+            return new FieldTemplate(name, parts.get(0).text, null);
+        }
+        return new FieldTemplate(name, null, parts.toArray(new Part[0]));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the value of the field if it doesn't depend on the log, null otherwise
+     */
+    String getConstant() {
+        return constant;
+    }
+
+    /**
+     * @return the value of the field for the log, or null to leave the field out
+     */
+    String resolve(LogEvent logEvent) {
+        if (constant != null) {
+            return constant;
+        }
+        if (parts.length == 1) {
+            return parts[0].resolve(logEvent);
+        }
+        StringBuilder value = new StringBuilder();
+        for (Part part : parts) {
+            String resolved = part.resolve(logEvent);
+            if (resolved != null) {
+                value.append(resolved);
+            }
+        }
+        return value.toString();
+    }
+
+    private static Part dynamicPart(String lookup, StrSubstitutor substitutor) {
+        String variable = lookup.substring(2, lookup.length() - 1);
+        if (variable.contains("${")) {
+            // Nested lookups are resolved as a whole
+            return containsEventLookup(variable) ? Part.substituted(lookup, substitutor) : null;
+        }
+        String defaultValue = null;
+        int defaultIndex = variable.indexOf(DEFAULT_VALUE_DELIMITER);
+        if (defaultIndex != -1) {
+            defaultValue = variable.substring(defaultIndex + DEFAULT_VALUE_DELIMITER.length());
+            variable = variable.substring(0, defaultIndex);
+        }
+        int prefixIndex = variable.indexOf(':');
+        if (prefixIndex == -1 || !EVENT_LOOKUPS.contains(variable.substring(0, prefixIndex))) {
+            return null;
+        }
+        StrLookup resolver = substitutor.getVariableResolver();
+        String key = variable;
+        if (resolver instanceof Interpolator) {
+            StrLookup prefixLookup = ((Interpolator) resolver).getStrLookupMap().get(variable.substring(0, prefixIndex));
+            if (prefixLookup != null) {
+                resolver = prefixLookup;
+                key = variable.substring(prefixIndex + 1);
+            }
+        }
+        return Part.lookup(resolver, key, defaultValue);
+    }
+
+    private static boolean containsEventLookup(String variable) {
+        for (String prefix : EVENT_LOOKUPS) {
+            if (variable.contains(prefix + ":")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int closingBrace(String value, int from) {
+        int depth = 1;
+        for (int i = from; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '{' && value.charAt(i - 1) == '$') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void addText(List<Part> parts, StringBuilder text) {
+        if (text.length() > 0) {
+            parts.add(Part.text(text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    private static class Part {
+
+        private final String text;
+        private final StrLookup lookup;
+        private final String key;
+        private final String defaultValue;
+        private final StrSubstitutor substitutor;
+
+        private Part(String text, StrLookup lookup, String key, String defaultValue, StrSubstitutor substitutor) {
+            this.text = text;
+            this.lookup = lookup;
+            this.key = key;
+            this.defaultValue = defaultValue;
+            this.substitutor = substitutor;
+        }
+
+        static Part text(String text) {
+            return new Part(text, null, null, null, null);
+        }
+
+        static Part lookup(StrLookup lookup, String key, String defaultValue) {
+            return new Part(null, lookup, key, defaultValue, null);
+        }
+
+        static Part substituted(String value, StrSubstitutor substitutor) {
+            return new Part(value, null, null, null, substitutor);
+        }
+
+        boolean isText() {
+            return lookup == null && substitutor == null;
+        }
+
+        String resolve(LogEvent logEvent) {
+            if (substitutor != null) {
+                String resolved = substitutor.replace(logEvent, text);
+                return text.equals(resolved) ? null : resolved;
+            }
+            if (lookup == null) {
+                return text;
+            }
+            String resolved = lookup.lookup(logEvent, key);
+            return resolved != null ? resolved : defaultValue;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.logz.log4j2;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+
+/**
+ * Drains the queue ahead of the periodic drainTimeoutSec tick when the logs appended since the last triggered flush
+ * cross a size or count threshold, when the oldest of them waited for maxLingerMs, or right away for logs at or above
+ * flushLevel. A threshold of 0 (or a null level) disables that trigger.
+ * <p>
+ * Flushes are coalesced: while one is pending on the executor, further triggers are ignored.
+ * <p>
+ * Logs held in end of batch buffers are only counted once written to the queue, {@link #onBuffered()} starts the
+ * linger timer for them.
+ */
+class FlushTrigger {
+
+    private final long bytesThreshold;
+    private final long countThreshold;
+    private final long maxLingerMs;
+    private final Level flushLevel;
+    private final ScheduledExecutorService executor;
+    private final Runnable drain;
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicBoolean flushPending = new AtomicBoolean(false);
+    private final AtomicBoolean bufferedLingerPending = new AtomicBoolean(false);
+    private final AtomicLong triggeredFlushes = new AtomicLong();
+
+    FlushTrigger(long bytesThreshold, long countThreshold, long maxLingerMs, Level flushLevel,
+                 ScheduledExecutorService executor, Runnable drain) {
+        this.bytesThreshold = bytesThreshold;
+        this.countThreshold = countThreshold;
+        this.maxLingerMs = maxLingerMs;
+        this.flushLevel = flushLevel;
+        this.executor = executor;
+        this.drain = drain;
+    }
+
+    boolean isEnabled() {
+        return bytesThreshold > 0 || countThreshold > 0 || maxLingerMs > 0 || flushLevel != null;
+    }
+
+    void onAppend(Level level, long sizeInBytes) {
+        onAppend(level, 1, sizeInBytes);
+    }
+
+    void onAppend(Level mostSpecificLevel, int logsCount, long sizeInBytes) {
+        if (!isEnabled()) {
+            return;
+        }
+        long bytes = pendingBytes.addAndGet(sizeInBytes);
+        long count = pendingCount.addAndGet(logsCount);
+
+        if ((flushLevel != null && mostSpecificLevel.isMoreSpecificThan(flushLevel))
+                || (bytesThreshold > 0 && bytes >= bytesThreshold)
+                || (countThreshold > 0 && count >= countThreshold)) {
+            flush();
+        } else if (maxLingerMs > 0 && count == logsCount) {
+            scheduleLingerFlush();
+        }
+    }
+
+    /**
+     * Called when a buffer gets its first log, flushes after maxLingerMs. The drain writes out the buffers.
+     */
+    void onBuffered() {
+        if (maxLingerMs <= 0 || !bufferedLingerPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.schedule(() -> {
+                bufferedLingerPending.set(false);
+                flush();
+            }, maxLingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the appender is stopping, the final drain ships what is left
+            bufferedLingerPending.set(false);
+        }
+    }
+
+    void flush() {
+        if (!flushPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::runFlush);
+        } catch (RejectedExecutionException e) {
+            // the appender is stopping, the final drain ships what is left
+            flushPending.set(false);
+        }
+    }
+
+    long getTriggeredFlushes() {
+        return triggeredFlushes.get();
+    }
+
+    private void scheduleLingerFlush() {
+        try {
+            executor.schedule(() -> {
+                if (pendingCount.get() > 0) {
+                    flush();
+                }
+            }, maxLingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the appender is stopping, the final drain ships what is left
+        }
+    }
+
+    private void runFlush() {
+        flushPending.set(false);
+        pendingCount.set(0);
+        pendingBytes.set(0);
+        triggeredFlushes.incrementAndGet();
+        drain.run();
+    }
+}
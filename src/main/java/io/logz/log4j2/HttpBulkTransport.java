@@ -0,0 +1,59 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+import io.logz.sender.HttpsRequestConfiguration;
+
+/**
+ * {@link BulkTransport} over {@link HttpURLConnection}, sending the same request the LogzioSender sends.
+ */
+class HttpBulkTransport implements BulkTransport {
+
+    private final HttpsRequestConfiguration configuration;
+
+    HttpBulkTransport(HttpsRequestConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public int send(byte[] bulk) throws IOException {
+        byte[] payload = ListenerRequests.body(configuration, bulk);
+
+        HttpURLConnection conn = (HttpURLConnection) configuration.getLogzioListenerUrl().openConnection();
+        conn.setRequestMethod(configuration.getRequestMethod());
+        conn.setRequestProperty("Content-length", String.valueOf(payload.length));
+        conn.setRequestProperty("Content-Type", ListenerRequests.CONTENT_TYPE);
+        conn.setRequestProperty("User-Agent", ListenerRequests.USER_AGENT);
+        if (configuration.isCompressRequests()) {
+            conn.setRequestProperty("Content-Encoding", ListenerRequests.GZIP_ENCODING);
+        }
+        conn.setReadTimeout(configuration.getSocketTimeout());
+        conn.setConnectTimeout(configuration.getConnectTimeout());
+        conn.setDoOutput(true);
+        conn.setDoInput(true);
+
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(payload);
+        }
+
+        int responseCode = conn.getResponseCode();
+        consume(responseCode < 400 ? conn.getInputStream() : conn.getErrorStream());
+        return responseCode;
+    }
+
+    // Reading the response to its end lets HttpURLConnection return the connection to the keep-alive cache
+    private static void consume(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream body = in) {
+            byte[] buffer = new byte[1024];
+            while (body.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+}
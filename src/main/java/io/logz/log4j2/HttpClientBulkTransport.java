@@ -0,0 +1,93 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import io.logz.sender.HttpsRequestConfiguration;
+
+/**
+ * {@link BulkTransport} over {@link HttpClient}, sending the same request as {@link HttpBulkTransport}.
+ * <p>
+ * One client is shared by all the appenders of the JVM, per connect timeout, so its connection pool is shared too:
+ * TLS connections are kept alive between bulks, and bulks sent at once by several appenders or by a shipper with more
+ * than one bulk in flight are multiplexed over a single HTTP/2 connection when the listener negotiates it.
+ */
+class HttpClientBulkTransport implements BulkTransport {
+
+    private static final Map<Integer, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final HttpsRequestConfiguration configuration;
+    private final HttpClient client;
+    private final URI uri;
+
+    HttpClientBulkTransport(HttpsRequestConfiguration configuration) {
+        this.configuration = configuration;
+        this.client = sharedClient(configuration.getConnectTimeout());
+        try {
+            this.uri = configuration.getLogzioListenerUrl().toURI();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid listener url " + configuration.getLogzioListenerUrl(), e);
+        }
+    }
+
+    @Override
+    public int send(byte[] bulk) throws IOException {
+        return BulkTransport.await(sendAsync(bulk, Runnable::run));
+    }
+
+    /**
+     * Compresses the bulk on the executor, then sends it asynchronously: no thread waits for the listener's response.
+     */
+    @Override
+    public CompletableFuture<Integer> sendAsync(byte[] bulk, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> newRequest(bulk), executor)
+                .thenCompose(request -> client.sendAsync(request, HttpResponse.BodyHandlers.discarding()))
+                .thenApply(HttpResponse::statusCode);
+    }
+
+    private HttpRequest newRequest(byte[] bulk) {
+        byte[] payload;
+        try {
+            payload = ListenerRequests.body(configuration, bulk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .method(configuration.getRequestMethod(), HttpRequest.BodyPublishers.ofByteArray(payload))
+                .header("Content-Type", ListenerRequests.CONTENT_TYPE)
+                .header("User-Agent", ListenerRequests.USER_AGENT);
+        if (configuration.isCompressRequests()) {
+            request.header("Content-Encoding", ListenerRequests.GZIP_ENCODING);
+        }
+        if ("http".equals(uri.getScheme())) {
+            // No HTTP/2 upgrade attempt on new plain text connections
+            request.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (configuration.getSocketTimeout() > 0) {
+            request.timeout(Duration.ofMillis(configuration.getSocketTimeout()));
+        }
+        return request.build();
+    }
+
+    static HttpClient sharedClient(int connectTimeoutMs) {
+        return CLIENTS.computeIfAbsent(connectTimeoutMs, timeout -> {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .followRedirects(HttpClient.Redirect.NEVER);
+            if (timeout > 0) {
+                builder.connectTimeout(Duration.ofMillis(timeout));
+            }
+            return builder.build();
+        });
+    }
+}
@@ -0,0 +1,194 @@
+package io.logz.log4j2;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.logz.sender.LogsQueue;
+import io.logz.sender.SenderStatusReporter;
+
+/**
+ * In-memory {@link LogsQueue} owned by the appender, used when logs are shipped by the {@link BulkShipper}.
+ * Capacity checks follow the sender's in-memory queue: a log is accepted as long as the queue is below its limits.
+ * Several queues can also share a {@link SharedCapacity}, a log is then accepted as long as all of them together are
+ * below it.
+ */
+class InMemoryLogsQueue implements LogsQueue {
+
+    static final long DONT_LIMIT_CAPACITY = -1;
+    private static final int MB_IN_BYTES = 1024 * 1024;
+
+    private final ConcurrentLinkedQueue<byte[]> logsBuffer = new ConcurrentLinkedQueue<>();
+    private final long capacityInBytes;
+    private final long logsCountLimit;
+    private final SharedCapacity sharedCapacity;
+    private final SenderStatusReporter reporter;
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private volatile long size;
+    private volatile long logsCounter;
+
+    InMemoryLogsQueue(long capacityInBytes, long logsCountLimit, SenderStatusReporter reporter) {
+        this(capacityInBytes, logsCountLimit, null, reporter);
+    }
+
+    /**
+     * @param sharedCapacity capacity shared with other queues, or null
+     */
+    InMemoryLogsQueue(long capacityInBytes, long logsCountLimit, SharedCapacity sharedCapacity, SenderStatusReporter reporter) {
+        this.capacityInBytes = capacityInBytes;
+        this.logsCountLimit = logsCountLimit;
+        this.sharedCapacity = sharedCapacity;
+        this.reporter = reporter;
+    }
+
+    @Override
+    public void enqueue(byte[] log) {
+        queueLock.lock();
+        try {
+            if (isEnoughSpace()) {
+                add(log);
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Enqueues the log unless the queue is full, without reporting the drop; the caller reports the drops at once.
+     *
+     * @return false if the log was dropped
+     */
+    boolean offer(byte[] log) {
+        queueLock.lock();
+        try {
+            if (getFullThreshold() != null) {
+                return false;
+            }
+            add(log);
+            return true;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    void enqueueAll(List<byte[]> logs) {
+        queueLock.lock();
+        try {
+            for (byte[] log : logs) {
+                if (!isEnoughSpace()) {
+                    break;
+                }
+                add(log);
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] dequeue() {
+        queueLock.lock();
+        try {
+            byte[] log = logsBuffer.poll();
+            if (log != null) {
+                size -= log.length;
+                logsCounter--;
+                if (sharedCapacity != null) {
+                    sharedCapacity.size.addAndGet(-log.length);
+                }
+            }
+            return log;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return logsBuffer.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        queueLock.lock();
+        try {
+            logsBuffer.clear();
+            if (sharedCapacity != null) {
+                sharedCapacity.size.addAndGet(-size);
+            }
+            size = 0;
+            logsCounter = 0;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    long getSizeInBytes() {
+        return size;
+    }
+
+    long getLogsCount() {
+        return logsCounter;
+    }
+
+    private void add(byte[] log) {
+        logsBuffer.add(log);
+        size += log.length;
+        logsCounter++;
+        if (sharedCapacity != null) {
+            sharedCapacity.size.addAndGet(log.length);
+        }
+    }
+
+    private boolean isEnoughSpace() {
+        String threshold = getFullThreshold();
+        if (threshold != null) {
+            reporter.warning("Logz.io: Dropping logs - we crossed the " + threshold);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the threshold the queue crossed, or null if there is space left
+     */
+    private String getFullThreshold() {
+        if (capacityInBytes != DONT_LIMIT_CAPACITY && size >= capacityInBytes) {
+            return String.format("memory threshold of %d MB", capacityInBytes / MB_IN_BYTES);
+        }
+        if (logsCountLimit != DONT_LIMIT_CAPACITY && logsCounter >= logsCountLimit) {
+            return String.format("logs counter threshold of %d logs", logsCountLimit);
+        }
+        if (sharedCapacity != null && sharedCapacity.isFull()) {
+            return String.format("shared memory threshold of %d MB", sharedCapacity.capacityInBytes / MB_IN_BYTES);
+        }
+        return null;
+    }
+
+    /**
+     * Memory shared by several queues, like the queues of the routed destinations.
+     */
+    static class SharedCapacity {
+
+        private final long capacityInBytes;
+        private final AtomicLong size = new AtomicLong();
+
+        SharedCapacity(long capacityInBytes) {
+            this.capacityInBytes = capacityInBytes;
+        }
+
+        long getSizeInBytes() {
+            return size.get();
+        }
+
+        private boolean isFull() {
+            return capacityInBytes != DONT_LIMIT_CAPACITY && size.get() >= capacityInBytes;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.logz.log4j2;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+/**
+ * Encodes logs with a user supplied {@link Layout}, like Log4j2's JsonTemplateLayout, instead of the appender's own
+ * JSON format.
+ * <p>
+ * The layout writes the log through {@link Layout#encode} into a per thread buffer, which garbage-free layouts do
+ * without building a String or a byte array first. The queue keeps a byte array per log, so the encoded bytes are
+ * copied once, without the line separator the layout may end the log with. The buffer grows up to the maximum log
+ * size; logs above it are dropped, since a layout's output can't be cut like the message field.
+ */
+class LayoutEncoder {
+
+    static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    // Buffers grown above this size by a large log are not kept for the next logs
+    static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private final Layout<?> layout;
+    private final int maxLogSizeInBytes;
+    private final ThreadLocal<Destination> destination = ThreadLocal.withInitial(Destination::new);
+
+    LayoutEncoder(Layout<?> layout, int maxLogSizeInBytes) {
+        this.layout = layout;
+        this.maxLogSizeInBytes = maxLogSizeInBytes;
+    }
+
+    /**
+     * @return the encoded log, or null if it is empty or exceeds the maximum size and should be dropped
+     */
+    byte[] encode(LogEvent logEvent) {
+        Destination buffer = destination.get();
+        buffer.reset(maxLogSizeInBytes);
+        layout.encode(logEvent, buffer);
+        return buffer.toLog();
+    }
+
+    private static class Destination implements ByteBufferDestination {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private int maxSize;
+        private boolean oversized;
+
+        void reset(int maxSize) {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+            buffer.clear();
+            this.maxSize = maxSize;
+            this.oversized = false;
+        }
+
+        byte[] toLog() {
+            if (oversized) {
+                return null;
+            }
+            int length = buffer.position();
+            byte[] array = buffer.array();
+            while (length > 0 && (array[length - 1] == '\n' || array[length - 1] == '\r')) {
+                length--;
+            }
+            if (length == 0 || length > maxSize) {
+                return null;
+            }
+            byte[] log = new byte[length];
+            System.arraycopy(array, 0, log, 0, length);
+            return log;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public ByteBuffer drain(ByteBuffer full) {
+            // Room for the line separator the layout may add past the maximum size
+            int limit = maxSize + 2;
+            if (oversized || buffer.capacity() >= limit) {
+                // The log is too large, the rest of it is discarded
+                oversized = true;
+                buffer.clear();
+                return buffer;
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.min((long) buffer.capacity() * 2, limit));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+            return buffer;
+        }
+
+        @Override
+        public void writeBytes(ByteBuffer data) {
+            ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+        }
+
+        @Override
+        public void writeBytes(byte[] data, int offset, int length) {
+            ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+        }
+    }
+}
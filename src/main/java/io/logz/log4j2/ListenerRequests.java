@@ -0,0 +1,36 @@
+package io.logz.log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.logz.sender.HttpsRequestConfiguration;
+
+/**
+ * The headers and body of a bulk request to the listener, shared by the transports so they send the same request the
+ * LogzioSender sends.
+ */
+final class ListenerRequests {
+
+    static final String USER_AGENT = "java/log4j2-appender/logs";
+    static final String CONTENT_TYPE = "text/plain";
+    static final String GZIP_ENCODING = "gzip";
+
+    private ListenerRequests() {
+    }
+
+    /**
+     * @return the bulk, gzipped if the configuration compresses requests
+     */
+    static byte[] body(HttpsRequestConfiguration configuration, byte[] bulk) throws IOException {
+        return configuration.isCompressRequests() ? gzip(bulk) : bulk;
+    }
+
+    private static byte[] gzip(byte[] bulk) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(bulk.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+            gzip.write(bulk);
+        }
+        return bos.toByteArray();
+    }
+}
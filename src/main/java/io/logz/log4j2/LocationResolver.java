@@ -0,0 +1,126 @@
+package io.logz.log4j2;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.core.LogEvent;
+
+/**
+ * Finds the code location a log was appended from, for includeLocation.
+ * <p>
+ * The caller is the frame right after the logger's frames. It is found with a {@link StackWalker}, which stops there
+ * instead of capturing the whole stack. Resolving the file and line of a frame is the costly part, so they are cached
+ * per call site (class, method and bytecode index) in a bounded cache. When the log was handed over to another thread
+ * (AsyncLoggers or an AsyncAppender) the logger's frames aren't on the stack, and the location captured by Log4j2 on
+ * the calling thread is used, if any.
+ */
+class LocationResolver {
+
+    static final int MAX_CALL_SITES = 4096;
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final Map<CallSite, Location> callSites = new ConcurrentHashMap<>();
+
+    /**
+     * @return the location, or null if it isn't known
+     */
+    Location resolve(LogEvent logEvent) {
+        String loggerFqcn = logEvent.getLoggerFqcn();
+        StackWalker.StackFrame frame = loggerFqcn == null ? null : WALKER.walk(frames -> findCaller(frames, loggerFqcn));
+        if (frame == null) {
+            StackTraceElement source = logEvent.getSource();
+            return source == null ? null : new Location(source);
+        }
+        CallSite callSite = new CallSite(frame.getClassName(), frame.getMethodName(), frame.getByteCodeIndex());
+        Location location = callSites.get(callSite);
+        if (location == null) {
+            location = new Location(frame.toStackTraceElement());
+            if (callSites.size() < MAX_CALL_SITES) {
+                callSites.putIfAbsent(callSite, location);
+            }
+        }
+        return location;
+    }
+
+    int getCachedCallSites() {
+        return callSites.size();
+    }
+
+    private static StackWalker.StackFrame findCaller(Stream<StackWalker.StackFrame> frames, String loggerFqcn) {
+        boolean inLogger = false;
+        Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+        while (iterator.hasNext()) {
+            StackWalker.StackFrame frame = iterator.next();
+            if (frame.getClassName().equals(loggerFqcn)) {
+                inLogger = true;
+            } else if (inLogger) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    static class Location {
+
+        private final String className;
+        private final String methodName;
+        private final String fileName;
+        private final int lineNumber;
+
+        Location(StackTraceElement element) {
+            this.className = element.getClassName();
+            this.methodName = element.getMethodName();
+            this.fileName = element.getFileName();
+            this.lineNumber = element.getLineNumber();
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        String getMethodName() {
+            return methodName;
+        }
+
+        String getFileName() {
+            return fileName;
+        }
+
+        int getLineNumber() {
+            return lineNumber;
+        }
+    }
+
+    private static class CallSite {
+
+        private final String className;
+        private final String methodName;
+        private final int byteCodeIndex;
+
+        CallSite(String className, String methodName, int byteCodeIndex) {
+            this.className = className;
+            this.methodName = methodName;
+            this.byteCodeIndex = byteCodeIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallSite)) {
+                return false;
+            }
+            CallSite that = (CallSite) o;
+            return byteCodeIndex == that.byteCodeIndex && className.equals(that.className) && methodName.equals(that.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * className.hashCode() + methodName.hashCode()) + byteCodeIndex;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.logz.log4j2;
+
+import java.nio.charset.StandardCharsets;
+
+import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.com.google.gson.JsonElement;
+import io.logz.sender.com.google.gson.JsonObject;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.sdk.resources.Resource;
+
+/**
+ * Serializes a formatted log message to the bytes put on the queue, applying the same opentelemetry enrichment,
+ * size limits and exceedMaxSizeAction handling the LogzioSender applies to a JsonObject. maxEventBytes, when set,
+ * lowers the maximum size of a log.
+ * <p>
+ * Given a {@link LogRecordCodec}, the log is serialized to a binary record instead of its JSON. The size limits
+ * apply to the JSON the record transcodes to, so a log is cut or dropped the same way in both formats.
+ */
+class LogMessageEncoder {
+
+    static final int MAX_LOG_SIZE_IN_BYTES = 500000;
+    static final int MAX_LOG_LINE_SIZE_IN_BYTES = 32700;
+    static final String TRUNCATED_MESSAGE_SUFFIX = "...truncated";
+    private static final String DROP_EXCEEDING_LOG = "drop";
+    private static final AttributeKey<String> SERVICE_NAME = AttributeKey.stringKey("service.name");
+
+    private final String exceedMaxSizeAction;
+    private final boolean withOpentelemetryContext;
+    private final FieldLimits fieldLimits;
+    private final int maxLogSizeInBytes;
+    private final SenderStatusReporter reporter;
+    private final boolean debug;
+    private volatile String serviceName;
+
+    LogMessageEncoder(String exceedMaxSizeAction, boolean withOpentelemetryContext, FieldLimits fieldLimits,
+                      SenderStatusReporter reporter, boolean debug) {
+        this.exceedMaxSizeAction = exceedMaxSizeAction;
+        this.withOpentelemetryContext = withOpentelemetryContext;
+        this.fieldLimits = fieldLimits;
+        this.maxLogSizeInBytes = fieldLimits.getMaxEventBytes() > 0
+                ? Math.min(fieldLimits.getMaxEventBytes(), MAX_LOG_SIZE_IN_BYTES) : MAX_LOG_SIZE_IN_BYTES;
+        this.reporter = reporter;
+        this.debug = debug;
+    }
+
+    /**
+     * @return the UTF-8 encoded log, or null if the log exceeds the maximum size and should be dropped
+     */
+    byte[] encode(JsonObject logMessage, SpanContext spanContext) {
+        return encode(logMessage, spanContext, null);
+    }
+
+    /**
+     * @param recordCodec serializes the log to a binary record, or null for JSON
+     * @return the encoded log, or null if the log exceeds the maximum size and should be dropped
+     */
+    byte[] encode(JsonObject logMessage, SpanContext spanContext, LogRecordCodec recordCodec) {
+        addContext(logMessage, spanContext);
+        return serialize(logMessage, recordCodec);
+    }
+
+    /**
+     * Adds the fields taken from the appending thread's context, so the log can be serialized later on another thread.
+     *
+     * @param spanContext the span context of the appending thread, read once by the appender
+     */
+    void addContext(JsonObject logMessage, SpanContext spanContext) {
+        if (withOpentelemetryContext && spanContext.isValid()) {
+            logMessage.addProperty("trace_id", spanContext.getTraceId());
+            logMessage.addProperty("span_id", spanContext.getSpanId());
+            String service = getServiceName();
+            if (!service.isEmpty()) {
+                logMessage.addProperty("service_name", service);
+            }
+        }
+    }
+
+    // Resolved on the first traced log, so the SDK resource isn't loaded by applications without tracing
+    private String getServiceName() {
+        String service = serviceName;
+        if (service == null) {
+            service = Resource.getDefault().getAttributes().get(SERVICE_NAME);
+            serviceName = service = service == null ? "" : service;
+        }
+        return service;
+    }
+
+    /**
+     * @return the UTF-8 encoded log, or null if the log exceeds the maximum size and should be dropped
+     */
+    byte[] serialize(JsonObject logMessage) {
+        return serialize(logMessage, null);
+    }
+
+    /**
+     * @param recordCodec serializes the log to a binary record, or null for JSON
+     * @return the encoded log, or null if the log exceeds the maximum size and should be dropped
+     */
+    byte[] serialize(JsonObject logMessage, LogRecordCodec recordCodec) {
+        if (!DROP_EXCEEDING_LOG.equals(exceedMaxSizeAction)) {
+            fieldLimits.fitEvent(logMessage, "message", "exception");
+        }
+        byte[] log = toBytes(logMessage, recordCodec);
+        int jsonLength = recordCodec == null ? log.length : LogRecordCodec.jsonLength(log);
+        JsonElement messageElement = logMessage.get("message");
+        String message = messageElement == null ? "" : messageElement.getAsString();
+        if (jsonLength > maxLogSizeInBytes || message.length() >= MAX_LOG_LINE_SIZE_IN_BYTES) {
+            int keepLength = Math.min(MAX_LOG_LINE_SIZE_IN_BYTES - TRUNCATED_MESSAGE_SUFFIX.length(),
+                    message.length() - Math.max(0, jsonLength - maxLogSizeInBytes) - TRUNCATED_MESSAGE_SUFFIX.length());
+            if (keepLength <= 0 || DROP_EXCEEDING_LOG.equals(exceedMaxSizeAction)) {
+                debug(keepLength <= 0 ? "Message field is empty after truncating, dropping log" : "Dropping oversized log");
+                return null;
+            }
+            logMessage.addProperty("message", message.substring(0, keepLength) + TRUNCATED_MESSAGE_SUFFIX);
+            fieldLimits.onTruncated();
+            log = toBytes(logMessage, recordCodec);
+            debug("Truncated oversized log");
+        }
+        return log;
+    }
+
+    private static byte[] toBytes(JsonObject logMessage, LogRecordCodec recordCodec) {
+        return recordCodec == null ? logMessage.toString().getBytes(StandardCharsets.UTF_8) : recordCodec.encode(logMessage);
+    }
+
+    private void debug(String message) {
+        if (debug) {
+            reporter.info("DEBUG: " + message);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package io.logz.log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.logz.sender.com.google.gson.JsonElement;
+import io.logz.sender.com.google.gson.JsonObject;
+import io.logz.sender.com.google.gson.JsonPrimitive;
+
+/**
+ * Compact binary form of a log, put on the disk queue instead of its JSON when diskQueueFormat is binary, and
+ * transcoded to the same JSON bytes on the shipper's drain thread.
+ * <p>
+ * A record starts with a zero byte, which no JSON or layout output starts with, the format version, the length of
+ * the JSON it transcodes to and the number of fields, followed by each field name and typed value. Strings are either
+ * an id in the dictionary or length prefixed UTF-8. The dictionary holds the field names and levels of the appender's
+ * format and the constants of the appender, like the hostname and the additional fields. It is persisted next to
+ * the queue, entries are only ever added to it, so records written before a restart can still be read.
+ * <p>
+ * The JSON length is computed while encoding, so the size limits of a log apply to its JSON as in the JSON format,
+ * and the transcoding writes into an array of the exact size.
+ */
+class LogRecordCodec {
+
+    static final String DICTIONARY_SUFFIX = ".dictionary";
+    static final int MAX_DICTIONARY_SIZE = 4096;
+    static final int MAX_ENTRY_LENGTH = 256;
+
+    private static final byte MAGIC = 0;
+    private static final byte VERSION = 1;
+    private static final int DICTIONARY_MAGIC = 0x4C5A4431; // "LZD1"
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    // Buffers grown above this size by a large log are not kept for the next logs
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    // Value types
+    private static final byte STRING = 0;
+    private static final byte LONG = 1;
+    private static final byte NUMBER = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte NULL = 5;
+    private static final byte JSON = 6;
+
+    private static final List<String> BUILT_IN_ENTRIES = Collections.unmodifiableList(Arrays.asList(
+            "@timestamp", "loglevel", "marker", "message", "logger", "thread", "exception", "hostname",
+            "class", "method", "file", "line", "trace_id", "span_id", "service_name",
+            "TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL"));
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Each entry as a JSON string, quoted and escaped
+    private final byte[][] jsonEntries;
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    LogRecordCodec(List<String> entries) {
+        jsonEntries = new byte[entries.size()][];
+        for (int id = 0; id < entries.size(); id++) {
+            String entry = entries.get(id);
+            ids.putIfAbsent(entry, id);
+            byte[] utf8 = entry.getBytes(StandardCharsets.UTF_8);
+            byte[] json = new byte[jsonStringLength(utf8)];
+            writeJsonString(utf8, 0, utf8.length, json, 0);
+            jsonEntries[id] = json;
+        }
+    }
+
+    /**
+     * Reads the dictionary persisted next to a queue, adds the built-in entries and the given constants it doesn't
+     * have yet, and saves it back before any record uses them.
+     * <p>
+     * Appenders sharing a queue open its dictionary in turn, so each one adds its constants after the entries of the
+     * others and the ids stay the same for all of them.
+     */
+    static synchronized LogRecordCodec open(File dictionaryFile, Collection<String> constants) throws IOException {
+        List<String> entries = dictionaryFile.exists() ? readDictionary(dictionaryFile) : new ArrayList<>();
+        int persisted = entries.size();
+        Set<String> known = new HashSet<>(entries);
+        List<String> candidates = new ArrayList<>(BUILT_IN_ENTRIES);
+        candidates.addAll(constants);
+        for (String candidate : candidates) {
+            if (entries.size() >= MAX_DICTIONARY_SIZE) {
+                break;
+            }
+            if (candidate != null && !candidate.isEmpty() && candidate.length() <= MAX_ENTRY_LENGTH && known.add(candidate)) {
+                entries.add(candidate);
+            }
+        }
+        if (entries.size() > persisted) {
+            writeDictionary(dictionaryFile, entries);
+        }
+        return new LogRecordCodec(entries);
+    }
+
+    /**
+     * Reads the dictionary persisted next to a queue without changing it, or uses the built-in entries if there is none.
+     */
+    static LogRecordCodec load(File dictionaryFile) throws IOException {
+        return new LogRecordCodec(dictionaryFile.exists() ? readDictionary(dictionaryFile) : BUILT_IN_ENTRIES);
+    }
+
+    /**
+     * @return the number of entries in the dictionary
+     */
+    int size() {
+        return jsonEntries.length;
+    }
+
+    static boolean isRecord(byte[] log) {
+        return log.length > 0 && log[0] == MAGIC;
+    }
+
+    /**
+     * @return the length of the JSON a record transcodes to, or the length of the log if it isn't a record
+     */
+    static int jsonLength(byte[] log) {
+        if (!isRecord(log)) {
+            return log.length;
+        }
+        return new Reader(log).readHeader();
+    }
+
+    byte[] encode(JsonObject logMessage) {
+        Buffer buffer = buffers.get();
+        buffer.reset();
+        // Braces and commas
+        long jsonLength = 2 + Math.max(0, logMessage.size() - 1);
+        for (Map.Entry<String, JsonElement> field : logMessage.entrySet()) {
+            jsonLength += writeString(buffer, field.getKey()) + 1;
+            jsonLength += writeValue(buffer, field.getValue());
+        }
+        if (jsonLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Log of " + jsonLength + " bytes can't be encoded");
+        }
+
+        Buffer header = new Buffer(16);
+        header.write(MAGIC);
+        header.write(VERSION);
+        header.writeVarint((int) jsonLength);
+        header.writeVarint(logMessage.size());
+        byte[] record = new byte[header.size + buffer.size];
+        System.arraycopy(header.bytes, 0, record, 0, header.size);
+        System.arraycopy(buffer.bytes, 0, record, header.size, buffer.size);
+        return record;
+    }
+
+    /**
+     * @return the JSON of a record, or the log itself if it isn't a record
+     * @throws IllegalArgumentException if the record is corrupted or uses an id missing from the dictionary
+     */
+    byte[] toJson(byte[] log) {
+        if (!isRecord(log)) {
+            return log;
+        }
+        try {
+            return new Reader(log).toJson(jsonEntries);
+        } catch (IndexOutOfBoundsException e) {
+            // The reads are checked, a value longer than the JSON length of the header overflows the JSON
+            throw new IllegalArgumentException("Corrupted log record of " + log.length + " bytes", e);
+        }
+    }
+
+    // Returns the length of the string as JSON
+    private int writeString(Buffer buffer, String string) {
+        Integer id = string.length() <= MAX_ENTRY_LENGTH ? ids.get(string) : null;
+        if (id != null) {
+            buffer.writeVarint(id << 1 | 1);
+            return jsonEntries[id].length;
+        }
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        buffer.writeVarint(utf8.length << 1);
+        buffer.write(utf8, 0, utf8.length);
+        return jsonStringLength(utf8);
+    }
+
+    // Returns the length of the value as JSON
+    private int writeValue(Buffer buffer, JsonElement value) {
+        if (value.isJsonPrimitive()) {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isString()) {
+                buffer.write(STRING);
+                return writeString(buffer, primitive.getAsString());
+            }
+            if (primitive.isBoolean()) {
+                boolean bool = primitive.getAsBoolean();
+                buffer.write(bool ? TRUE : FALSE);
+                return bool ? 4 : 5;
+            }
+            Number number = primitive.getAsNumber();
+            if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+                long longValue = number.longValue();
+                buffer.write(LONG);
+                buffer.writeVarlong((longValue << 1) ^ (longValue >> 63));
+                return decimalLength(longValue);
+            }
+            // Other numbers are written as Gson writes them
+            return writeRaw(buffer, NUMBER, number.toString());
+        }
+        if (value.isJsonNull()) {
+            buffer.write(NULL);
+            return 4;
+        }
+        return writeRaw(buffer, JSON, value.toString());
+    }
+
+    private static int writeRaw(Buffer buffer, byte type, String json) {
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        buffer.write(type);
+        buffer.writeVarint(utf8.length);
+        buffer.write(utf8, 0, utf8.length);
+        return utf8.length;
+    }
+
+    private static int decimalLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int length = value < 0 ? 2 : 1;
+        long abs = Math.abs(value);
+        while (abs >= 10) {
+            abs /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    // Escapes like Gson's JsonWriter: quotes, backslashes, control characters, U+2028 and U+2029
+    private static int jsonStringLength(byte[] utf8) {
+        int length = utf8.length + 2;
+        for (int i = 0; i < utf8.length; i++) {
+            byte b = utf8[i];
+            if (b >= 0 && b < 0x20) {
+                length += isShortEscape(b) ? 1 : 5;
+            } else if (b == '"' || b == '\\') {
+                length++;
+            } else if (isLineOrParagraphSeparator(utf8, i, utf8.length)) {
+                length += 3;
+                i += 2;
+            }
+        }
+        return length;
+    }
+
+    private static int writeJsonString(byte[] utf8, int offset, int end, byte[] json, int position) {
+        json[position++] = '"';
+        for (int i = offset; i < end; i++) {
+            byte b = utf8[i];
+            if (b >= 0 && b < 0x20) {
+                json[position++] = '\\';
+                switch (b) {
+                    case '\b': json[position++] = 'b'; break;
+                    case '\t': json[position++] = 't'; break;
+                    case '\n': json[position++] = 'n'; break;
+                    case '\f': json[position++] = 'f'; break;
+                    case '\r': json[position++] = 'r'; break;
+                    default:
+                        json[position++] = 'u';
+                        json[position++] = '0';
+                        json[position++] = '0';
+                        json[position++] = HEX[b >> 4];
+                        json[position++] = HEX[b & 0xF];
+                }
+            } else if (b == '"' || b == '\\') {
+                json[position++] = '\\';
+                json[position++] = b;
+            } else if (isLineOrParagraphSeparator(utf8, i, end)) {
+                json[position++] = '\\';
+                json[position++] = 'u';
+                json[position++] = '2';
+                json[position++] = '0';
+                json[position++] = '2';
+                json[position++] = utf8[i + 2] == (byte) 0xA8 ? (byte) '8' : (byte) '9';
+                i += 2;
+            } else {
+                json[position++] = b;
+            }
+        }
+        json[position++] = '"';
+        return position;
+    }
+
+    private static boolean isShortEscape(byte b) {
+        return b == '\b' || b == '\t' || b == '\n' || b == '\f' || b == '\r';
+    }
+
+    private static boolean isLineOrParagraphSeparator(byte[] utf8, int i, int end) {
+        return utf8[i] == (byte) 0xE2 && i + 2 < end && utf8[i + 1] == (byte) 0x80
+                && (utf8[i + 2] == (byte) 0xA8 || utf8[i + 2] == (byte) 0xA9);
+    }
+
+    private static List<String> readDictionary(File file) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != DICTIONARY_MAGIC) {
+                throw new IOException("Not a log record dictionary: " + file);
+            }
+            while (true) {
+                try {
+                    entries.add(in.readUTF());
+                } catch (EOFException e) {
+                    return entries;
+                }
+            }
+        }
+    }
+
+    private static void writeDictionary(File file, List<String> entries) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(DICTIONARY_MAGIC);
+            for (String entry : entries) {
+                out.writeUTF(entry);
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Buffer {
+
+        private byte[] bytes;
+        private int size;
+
+        Buffer() {
+            this(INITIAL_BUFFER_SIZE);
+        }
+
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            if (bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+            size = 0;
+        }
+
+        void write(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+
+    private static class Reader {
+
+        private final byte[] record;
+        private int position;
+        private int fields;
+
+        Reader(byte[] record) {
+            this.record = record;
+        }
+
+        // Returns the JSON length
+        int readHeader() {
+            position = 1;
+            byte version = readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported log record version " + version);
+            }
+            int jsonLength = readVarint();
+            // Checked before the JSON is allocated, no log is larger
+            if (jsonLength < 2 || jsonLength > LogMessageEncoder.MAX_LOG_SIZE_IN_BYTES) {
+                throw corrupted();
+            }
+            fields = readVarint();
+            return jsonLength;
+        }
+
+        byte[] toJson(byte[][] jsonEntries) {
+            byte[] json = new byte[readHeader()];
+            int out = 0;
+            json[out++] = '{';
+            for (int field = 0; field < fields; field++) {
+                if (field > 0) {
+                    json[out++] = ',';
+                }
+                out = readString(jsonEntries, json, out);
+                json[out++] = ':';
+                byte type = readByte();
+                switch (type) {
+                    case STRING:
+                        out = readString(jsonEntries, json, out);
+                        break;
+                    case LONG:
+                        long zigzag = readVarlong();
+                        out = copy(Long.toString((zigzag >>> 1) ^ -(zigzag & 1)).getBytes(StandardCharsets.US_ASCII), json, out);
+                        break;
+                    case NUMBER:
+                    case JSON:
+                        int length = readLength();
+                        System.arraycopy(record, position, json, out, length);
+                        position += length;
+                        out += length;
+                        break;
+                    case TRUE:
+                        out = copy(new byte[]{'t', 'r', 'u', 'e'}, json, out);
+                        break;
+                    case FALSE:
+                        out = copy(new byte[]{'f', 'a', 'l', 's', 'e'}, json, out);
+                        break;
+                    case NULL:
+                        out = copy(new byte[]{'n', 'u', 'l', 'l'}, json, out);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown value type " + type + " in log record");
+                }
+            }
+            json[out++] = '}';
+            if (out != json.length || position != record.length) {
+                throw corrupted();
+            }
+            return json;
+        }
+
+        private int readString(byte[][] jsonEntries, byte[] json, int out) {
+            int ref = readVarint();
+            if ((ref & 1) == 1) {
+                int id = ref >>> 1;
+                if (id >= jsonEntries.length) {
+                    throw new IllegalArgumentException("Log record uses id " + id + ", missing from the dictionary");
+                }
+                return copy(jsonEntries[id], json, out);
+            }
+            int length = ref >>> 1;
+            if (length > record.length - position) {
+                throw corrupted();
+            }
+            int end = position + length;
+            out = writeJsonString(record, position, end, json, out);
+            position = end;
+            return out;
+        }
+
+        private static int copy(byte[] source, byte[] json, int out) {
+            System.arraycopy(source, 0, json, out, source.length);
+            return out + source.length;
+        }
+
+        // A length of bytes that follow in the record
+        private int readLength() {
+            int length = readVarint();
+            if (length > record.length - position) {
+                throw corrupted();
+            }
+            return length;
+        }
+
+        private int readVarint() {
+            long value = readVarlong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw corrupted();
+            }
+            return (int) value;
+        }
+
+        private long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw corrupted();
+        }
+
+        private byte readByte() {
+            if (position >= record.length) {
+                throw corrupted();
+            }
+            return record[position++];
+        }
+
+        private IllegalArgumentException corrupted() {
+            return new IllegalArgumentException("Corrupted log record of " + record.length + " bytes");
+        }
+    }
+}
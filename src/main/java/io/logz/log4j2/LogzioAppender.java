@@ -2,40 +2,60 @@ package io.logz.log4j2;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
 
-import com.google.common.base.Throwables;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
 import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.lookup.Interpolator;
+import org.apache.logging.log4j.core.lookup.StrSubstitutor;
 import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.MessageFormatMessage;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.ReusableMessage;
+import org.apache.logging.log4j.message.StringFormattedMessage;
 import org.apache.logging.log4j.status.StatusLogger;
 import org.apache.logging.log4j.util.ReadOnlyStringMap;
 
 import com.google.common.base.Splitter;
 import io.logz.sender.HttpsRequestConfiguration;
-import io.logz.sender.LogzioSender;
+import io.logz.sender.LogsQueue;
 import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.com.google.gson.JsonArray;
 import io.logz.sender.com.google.gson.JsonObject;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
 import io.logz.sender.exceptions.LogzioParameterErrorException;
 
 @Plugin(name = "LogzioAppender", category = "Core", elementType = Appender.ELEMENT_TYPE, printObject = true)
@@ -49,6 +69,14 @@ public class LogzioAppender extends AbstractAppender {
     private static final String THREAD = "thread";
     private static final String EXCEPTION = "exception";
 
+    static final String URL_CONNECTION_TRANSPORT = "urlConnection";
+    static final String HTTP_CLIENT_TRANSPORT = "httpClient";
+    static final String JSON_DISK_QUEUE_FORMAT = "json";
+    static final String BINARY_DISK_QUEUE_FORMAT = "binary";
+    // Under queueDir, next to the directory of the appender's own queue
+    private static final String ROUTES_QUEUE_DIR = "routes";
+    private static final long DEFAULT_TRACE_SAMPLING_BUFFER_BYTES = 10 * 1024 * 1024;
+
     private static final Set<String> reservedFields = new HashSet<>(Arrays.asList(TIMESTAMP, LOGLEVEL, MARKER, MESSAGE, LOGGER, THREAD, EXCEPTION));
 
     private static Logger statusLogger = StatusLogger.getLogger();
@@ -63,6 +91,12 @@ public class LogzioAppender extends AbstractAppender {
         @PluginElement("Filter")
         private Filter filter;
 
+        @PluginElement("Layout")
+        private Layout<? extends Serializable> layout;
+
+        @PluginConfiguration
+        private Configuration configuration;
+
         @PluginBuilderAttribute
         String name = "LogzioAppender";
 
@@ -125,18 +159,159 @@ public class LogzioAppender extends AbstractAppender {
         @PluginBuilderAttribute
         long inMemoryLogsCountCapacity = DONT_LIMIT_CAPACITY;
 
+        @PluginBuilderAttribute
+        boolean inMemoryQueueSnapshot = false;
+
         @PluginBuilderAttribute
         String exceedMaxSizeAction = "cut";
 
+        @PluginBuilderAttribute
+        String httpTransport = URL_CONNECTION_TRANSPORT;
+
+        @PluginBuilderAttribute
+        String diskQueueFormat = JSON_DISK_QUEUE_FORMAT;
+
         @PluginBuilderAttribute
         boolean addOpentelemetryContext = true;
 
+        @PluginBuilderAttribute
+        int maxInFlightBulks = 1;
+
+        @PluginBuilderAttribute
+        boolean adaptiveShipping = true;
+
+        @PluginBuilderAttribute
+        long flushBytesThreshold = 0;
+
+        @PluginBuilderAttribute
+        int flushCountThreshold = 0;
+
+        @PluginBuilderAttribute
+        long maxLingerMs = 0;
+
+        @PluginBuilderAttribute
+        String flushLevel;
+
+        @PluginBuilderAttribute
+        int circuitBreakerFailureThreshold = 5;
+
+        @PluginBuilderAttribute
+        long circuitBreakerBaseBackoffMs = 1000;
+
+        @PluginBuilderAttribute
+        long circuitBreakerMaxBackoffMs = 5 * 60 * 1000;
+
+        @PluginBuilderAttribute
+        String routingMdcKey;
+
+        @PluginBuilderAttribute
+        boolean routeByMarker = false;
+
+        @PluginBuilderAttribute(sensitive = true)
+        String routes;
+
+        @PluginBuilderAttribute
+        int routeIdleTimeoutSec = 300;
+
+        @PluginBuilderAttribute
+        long routeQueueCapacityBytes = 10 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        long routesCapacityBytes = 100 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        boolean includeLocation = false;
+
+        @PluginBuilderAttribute
+        String traceSamplingLevel;
+
+        @PluginBuilderAttribute
+        int traceSamplingBufferMs = 2000;
+
+        @PluginBuilderAttribute
+        int traceSamplingBufferSize = 100;
+
+        @PluginBuilderAttribute
+        long traceSamplingBufferBytes = DEFAULT_TRACE_SAMPLING_BUFFER_BYTES;
+
+        @PluginBuilderAttribute
+        String redact;
+
+        @PluginBuilderAttribute(sensitive = true)
+        String redactLiterals;
+
+        @PluginBuilderAttribute
+        String redactPattern;
+
+        @PluginBuilderAttribute
+        String redactMask = Redactor.DEFAULT_MASK;
+
+        @PluginBuilderAttribute
+        String mdcIncludeKeys;
+
+        @PluginBuilderAttribute
+        String mdcExcludeKeys;
+
+        @PluginBuilderAttribute
+        String mdcRenameKeys;
+
+        @PluginBuilderAttribute
+        String mdcKeyTypes;
+
+        @PluginBuilderAttribute
+        boolean topTalkers = false;
+
+        @PluginBuilderAttribute
+        boolean topTalkersByTemplate = false;
+
+        @PluginBuilderAttribute
+        int topTalkersSize = 20;
+
+        @PluginBuilderAttribute
+        int topTalkersSummaryIntervalSec = 0;
+
+        @PluginBuilderAttribute
+        int statusSummaryIntervalSec = 60;
+
+        @PluginBuilderAttribute
+        int maxMessageChars = 0;
+
+        @PluginBuilderAttribute
+        int maxExceptionChars = 0;
+
+        @PluginBuilderAttribute
+        int maxMdcValueChars = 0;
+
+        @PluginBuilderAttribute
+        int maxEventBytes = 0;
+
+        @PluginBuilderAttribute
+        boolean nonBlockingStart = false;
+
+        @PluginBuilderAttribute
+        int startupStagingCapacity = 10000;
+
+        @PluginBuilderAttribute
+        boolean endOfBatchBuffering = false;
+
+        @PluginBuilderAttribute
+        int endOfBatchMaxLogs = 256;
+
+        @PluginBuilderAttribute
+        boolean flushOnEndOfBatch = false;
+
+        // Compiled by build(), an invalid redaction configuration fails it rather than shipping logs unredacted
+        private Redactor redactor;
+
         @Override
         public LogzioAppender build() {
-            return new LogzioAppender(name, filter, ignoreExceptions, logzioUrl, logzioToken, logzioType,
-                    drainTimeoutSec, fileSystemFullPercentThreshold, queueDir == null ? bufferDir : queueDir, socketTimeoutMs, connectTimeoutMs,
-                    addHostname, additionalFields, debug, gcPersistedQueueFilesIntervalSeconds, compressRequests,
-                    inMemoryQueue, inMemoryQueueCapacityBytes, inMemoryLogsCountCapacity, exceedMaxSizeAction, addOpentelemetryContext);
+            try {
+                redactor = Redactor.create(redact, redactLiterals, redactPattern, redactMask);
+            } catch (IllegalArgumentException e) {
+                statusLogger.error("Invalid redaction configuration, the appender isn't created: " + e.getMessage());
+                return null;
+            }
+            return new LogzioAppender(this);
         }
 
         public Builder setFilter(Filter filter) {
@@ -144,6 +319,16 @@ public class LogzioAppender extends AbstractAppender {
             return this;
         }
 
+        public Builder setLayout(Layout<? extends Serializable> layout) {
+            this.layout = layout;
+            return this;
+        }
+
+        public Builder setConfiguration(Configuration configuration) {
+            this.configuration = configuration;
+            return this;
+        }
+
         public Builder setIgnoreExceptions(final boolean ignoreExceptions) {
             this.ignoreExceptions = ignoreExceptions;
             return this;
@@ -244,28 +429,253 @@ public class LogzioAppender extends AbstractAppender {
             return this;
         }
 
+        public Builder setInMemoryQueueSnapshot(boolean inMemoryQueueSnapshot) {
+            this.inMemoryQueueSnapshot = inMemoryQueueSnapshot;
+            return this;
+        }
+
         public Builder setExceedMaxSizeAction(String exceedMaxSizeAction) {
             this.exceedMaxSizeAction = exceedMaxSizeAction;
             return this;
         }
 
+        public Builder setHttpTransport(String httpTransport) {
+            this.httpTransport = httpTransport;
+            return this;
+        }
+
+        public Builder setDiskQueueFormat(String diskQueueFormat) {
+            this.diskQueueFormat = diskQueueFormat;
+            return this;
+        }
+
         public Builder setAddOpentelemetryContext(boolean addOpentelemetryContext) {
             this.addOpentelemetryContext = addOpentelemetryContext;
             return this;
         }
 
+        public Builder setMaxInFlightBulks(int maxInFlightBulks) {
+            this.maxInFlightBulks = maxInFlightBulks;
+            return this;
+        }
+
+        public Builder setAdaptiveShipping(boolean adaptiveShipping) {
+            this.adaptiveShipping = adaptiveShipping;
+            return this;
+        }
+
+        public Builder setFlushBytesThreshold(long flushBytesThreshold) {
+            this.flushBytesThreshold = flushBytesThreshold;
+            return this;
+        }
+
+        public Builder setFlushCountThreshold(int flushCountThreshold) {
+            this.flushCountThreshold = flushCountThreshold;
+            return this;
+        }
+
+        public Builder setMaxLingerMs(long maxLingerMs) {
+            this.maxLingerMs = maxLingerMs;
+            return this;
+        }
+
+        public Builder setFlushLevel(String flushLevel) {
+            this.flushLevel = flushLevel;
+            return this;
+        }
+
+        public Builder setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+            this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+            return this;
+        }
+
+        public Builder setCircuitBreakerBaseBackoffMs(long circuitBreakerBaseBackoffMs) {
+            this.circuitBreakerBaseBackoffMs = circuitBreakerBaseBackoffMs;
+            return this;
+        }
+
+        public Builder setCircuitBreakerMaxBackoffMs(long circuitBreakerMaxBackoffMs) {
+            this.circuitBreakerMaxBackoffMs = circuitBreakerMaxBackoffMs;
+            return this;
+        }
+
+        public Builder setRoutingMdcKey(String routingMdcKey) {
+            this.routingMdcKey = routingMdcKey;
+            return this;
+        }
+
+        public Builder setRouteByMarker(boolean routeByMarker) {
+            this.routeByMarker = routeByMarker;
+            return this;
+        }
+
+        public Builder setRoutes(String routes) {
+            this.routes = routes;
+            return this;
+        }
+
+        public Builder setRouteIdleTimeoutSec(int routeIdleTimeoutSec) {
+            this.routeIdleTimeoutSec = routeIdleTimeoutSec;
+            return this;
+        }
+
+        public Builder setRouteQueueCapacityBytes(long routeQueueCapacityBytes) {
+            this.routeQueueCapacityBytes = routeQueueCapacityBytes;
+            return this;
+        }
+
+        public Builder setRoutesCapacityBytes(long routesCapacityBytes) {
+            this.routesCapacityBytes = routesCapacityBytes;
+            return this;
+        }
+
+        public Builder setIncludeLocation(boolean includeLocation) {
+            this.includeLocation = includeLocation;
+            return this;
+        }
+
+        public Builder setTraceSamplingLevel(String traceSamplingLevel) {
+            this.traceSamplingLevel = traceSamplingLevel;
+            return this;
+        }
+
+        public Builder setTraceSamplingBufferMs(int traceSamplingBufferMs) {
+            this.traceSamplingBufferMs = traceSamplingBufferMs;
+            return this;
+        }
+
+        public Builder setTraceSamplingBufferSize(int traceSamplingBufferSize) {
+            this.traceSamplingBufferSize = traceSamplingBufferSize;
+            return this;
+        }
+
+        public Builder setTraceSamplingBufferBytes(long traceSamplingBufferBytes) {
+            this.traceSamplingBufferBytes = traceSamplingBufferBytes;
+            return this;
+        }
+
+        public Builder setRedact(String redact) {
+            this.redact = redact;
+            return this;
+        }
+
+        public Builder setRedactLiterals(String redactLiterals) {
+            this.redactLiterals = redactLiterals;
+            return this;
+        }
+
+        public Builder setRedactPattern(String redactPattern) {
+            this.redactPattern = redactPattern;
+            return this;
+        }
+
+        public Builder setRedactMask(String redactMask) {
+            this.redactMask = redactMask;
+            return this;
+        }
+
+        public Builder setMdcIncludeKeys(String mdcIncludeKeys) {
+            this.mdcIncludeKeys = mdcIncludeKeys;
+            return this;
+        }
+
+        public Builder setMdcExcludeKeys(String mdcExcludeKeys) {
+            this.mdcExcludeKeys = mdcExcludeKeys;
+            return this;
+        }
+
+        public Builder setMdcRenameKeys(String mdcRenameKeys) {
+            this.mdcRenameKeys = mdcRenameKeys;
+            return this;
+        }
+
+        public Builder setMdcKeyTypes(String mdcKeyTypes) {
+            this.mdcKeyTypes = mdcKeyTypes;
+            return this;
+        }
+
+        public Builder setTopTalkers(boolean topTalkers) {
+            this.topTalkers = topTalkers;
+            return this;
+        }
+
+        public Builder setTopTalkersByTemplate(boolean topTalkersByTemplate) {
+            this.topTalkersByTemplate = topTalkersByTemplate;
+            return this;
+        }
+
+        public Builder setTopTalkersSize(int topTalkersSize) {
+            this.topTalkersSize = topTalkersSize;
+            return this;
+        }
+
+        public Builder setTopTalkersSummaryIntervalSec(int topTalkersSummaryIntervalSec) {
+            this.topTalkersSummaryIntervalSec = topTalkersSummaryIntervalSec;
+            return this;
+        }
+
+        public Builder setStatusSummaryIntervalSec(int statusSummaryIntervalSec) {
+            this.statusSummaryIntervalSec = statusSummaryIntervalSec;
+            return this;
+        }
+
+        public Builder setMaxMessageChars(int maxMessageChars) {
+            this.maxMessageChars = maxMessageChars;
+            return this;
+        }
+
+        public Builder setMaxExceptionChars(int maxExceptionChars) {
+            this.maxExceptionChars = maxExceptionChars;
+            return this;
+        }
+
+        public Builder setMaxMdcValueChars(int maxMdcValueChars) {
+            this.maxMdcValueChars = maxMdcValueChars;
+            return this;
+        }
+
+        public Builder setMaxEventBytes(int maxEventBytes) {
+            this.maxEventBytes = maxEventBytes;
+            return this;
+        }
+
+        public Builder setNonBlockingStart(boolean nonBlockingStart) {
+            this.nonBlockingStart = nonBlockingStart;
+            return this;
+        }
+
+        public Builder setStartupStagingCapacity(int startupStagingCapacity) {
+            this.startupStagingCapacity = startupStagingCapacity;
+            return this;
+        }
+
+        public Builder setEndOfBatchBuffering(boolean endOfBatchBuffering) {
+            this.endOfBatchBuffering = endOfBatchBuffering;
+            return this;
+        }
+
+        public Builder setEndOfBatchMaxLogs(int endOfBatchMaxLogs) {
+            this.endOfBatchMaxLogs = endOfBatchMaxLogs;
+            return this;
+        }
+
+        public Builder setFlushOnEndOfBatch(boolean flushOnEndOfBatch) {
+            this.flushOnEndOfBatch = flushOnEndOfBatch;
+            return this;
+        }
+
     }
 
     private static final int DONT_LIMIT_CAPACITY = -1;
+    private static final long DRAIN_POLL_MS = 10;
     private static final int LOWER_PERCENTAGE_FS_SPACE = 1;
     private static final int UPPER_PERCENTAGE_FS_SPACE = 100;
-    private LogzioSender logzioSender;
     private final String logzioToken;
     private final String logzioType;
     private final int drainTimeoutSec;
     private final int fileSystemFullPercentThreshold;
     private final String queueDir;
-    private final String logzioUrl;
+    private final List<String> logzioUrls;
     private final int connectTimeout;
     private final int socketTimeout;
     private final boolean debug;
@@ -275,47 +685,144 @@ public class LogzioAppender extends AbstractAppender {
     private final boolean inMemoryQueue;
     private final long inMemoryQueueCapacityBytes;
     private final long inMemoryLogsCountCapacity;
+    private final boolean inMemoryQueueSnapshot;
     private String exceedMaxSizeAction;
+    private final boolean httpClientTransport;
+    private final boolean binaryDiskQueue;
     private final Map<String, String> additionalFieldsMap = new HashMap<>();
+    // additionalFields with lookups, compiled on start
+    private final Map<String, String> additionalFieldLookups = new LinkedHashMap<>();
+    private final Configuration configuration;
+    private volatile FieldTemplate[] fieldTemplates = new FieldTemplate[0];
+    private volatile String hostname;
     private final boolean addOpentelemetryContext;
-
-    // need to keep static instances of ScheduledExecutorService per LogzioAppender as
-    // the LogzioSender.Builder keep static instances per the given token and type
-    private static final Map<String, ScheduledExecutorService> tasksExecutors = new HashMap<>();
-
-    private static final Map<LogzioAppender, LogzioSender> appenderToLogzioSender = new HashMap<>();
-
-    private LogzioAppender(String name, Filter filter, final boolean ignoreExceptions, String url,
-                           String token, String type, int drainTimeoutSec, int fileSystemFullPercentThreshold,
-                           String queueDir, int socketTimeout, int connectTimeout, boolean addHostname,
-                           String additionalFields, boolean debug, int gcPersistedQueueFilesIntervalSeconds,
-                           boolean compressRequests, boolean inMemoryQueue,
-                           long inMemoryQueueCapacityBytes, long inMemoryLogsCountCapacity, String exceedMaxSizeAction, boolean addOpentelemetryContext) {
-        super(name, filter, null, ignoreExceptions);
-        this.logzioToken = getValueFromSystemEnvironmentIfNeeded(token);
-        this.logzioUrl = getValueFromSystemEnvironmentIfNeeded(url);
-        this.logzioType = getValueFromSystemEnvironmentIfNeeded(type);
-        this.drainTimeoutSec = drainTimeoutSec;
-        this.fileSystemFullPercentThreshold = fileSystemFullPercentThreshold;
-        this.queueDir = queueDir;
-        this.socketTimeout = socketTimeout;
-        this.connectTimeout = connectTimeout;
-        this.debug = debug;
-        this.addHostname = addHostname;
-        this.gcPersistedQueueFilesIntervalSeconds = gcPersistedQueueFilesIntervalSeconds;
-        this.compressRequests = compressRequests;
-        this.inMemoryQueue = inMemoryQueue;
-        this.inMemoryQueueCapacityBytes = inMemoryQueueCapacityBytes;
-        this.inMemoryLogsCountCapacity = inMemoryLogsCountCapacity;
-        this.exceedMaxSizeAction = exceedMaxSizeAction;
-        this.addOpentelemetryContext = addOpentelemetryContext;
-
+    private final int maxInFlightBulks;
+    private final boolean adaptiveShipping;
+    private final long flushBytesThreshold;
+    private final int flushCountThreshold;
+    private final long maxLingerMs;
+    private final Level flushLevel;
+    private final int circuitBreakerFailureThreshold;
+    private final long circuitBreakerBaseBackoffMs;
+    private final long circuitBreakerMaxBackoffMs;
+    private final String routingMdcKey;
+    private final boolean routeByMarker;
+    private final Map<String, String> routes = new HashMap<>();
+    private final int routeIdleTimeoutSec;
+    private final long routeQueueCapacityBytes;
+    private final long routesCapacityBytes;
+    private final LocationResolver locationResolver;
+    private final TraceSampler traceSampler;
+    private final Redactor redactor;
+    private final ContextDataProjection contextDataProjection;
+    private final TopTalkers loggerTopTalkers;
+    private final TopTalkers templateTopTalkers;
+    private final int topTalkersSummaryIntervalSec;
+    private ScheduledExecutorService topTalkersSummaryExecutor;
+    private final StatusAggregator statusAggregator;
+    private final FieldLimits fieldLimits;
+    private final LayoutEncoder layoutEncoder;
+    private final SenderStatusReporter statusReporter;
+    private final int statusSummaryIntervalSec;
+    private ScheduledExecutorService statusSummaryExecutor;
+    private final boolean nonBlockingStart;
+    private final int startupStagingCapacity;
+    private final boolean endOfBatchBuffering;
+    private final int endOfBatchMaxLogs;
+    private final boolean flushOnEndOfBatch;
+    // Per-thread buffers of encoded logs, all of them are kept so stop() can write out what is left
+    private final Set<EndOfBatchBuffer> endOfBatchBuffers = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<EndOfBatchBuffer> threadEndOfBatchBuffer = ThreadLocal.withInitial(this::newEndOfBatchBuffer);
+    private volatile BulkShipper bulkShipper;
+    private QueueSnapshot queueSnapshot;
+    private volatile StartupStaging<StagedLog> startupStaging;
+    private volatile TenantRouter tenantRouter;
+    private Thread starter;
+    private final LogMessageEncoder logMessageEncoder;
+    // Set while the disk queue stores binary records
+    private volatile LogRecordCodec recordCodec;
+    private volatile FlushTrigger flushTrigger;
+    private final LogzioAppenderMetrics metrics = new LogzioAppenderMetrics();
+
+    private LogzioAppender(Builder builder) {
+        super(builder.name, builder.filter, builder.layout, builder.ignoreExceptions);
+        this.logzioToken = getValueFromSystemEnvironmentIfNeeded(builder.logzioToken);
+        String logzioUrl = getValueFromSystemEnvironmentIfNeeded(builder.logzioUrl);
+        this.logzioUrls = logzioUrl == null ? Collections.emptyList()
+                : Splitter.on(',').trimResults().omitEmptyStrings().splitToList(logzioUrl);
+        this.logzioType = getValueFromSystemEnvironmentIfNeeded(builder.logzioType);
+        this.drainTimeoutSec = builder.drainTimeoutSec;
+        this.fileSystemFullPercentThreshold = builder.fileSystemFullPercentThreshold;
+        this.queueDir = builder.queueDir == null ? builder.bufferDir : builder.queueDir;
+        this.socketTimeout = builder.socketTimeoutMs;
+        this.connectTimeout = builder.connectTimeoutMs;
+        this.debug = builder.debug;
+        this.addHostname = builder.addHostname;
+        this.gcPersistedQueueFilesIntervalSeconds = builder.gcPersistedQueueFilesIntervalSeconds;
+        this.compressRequests = builder.compressRequests;
+        this.inMemoryQueue = builder.inMemoryQueue;
+        this.inMemoryQueueCapacityBytes = builder.inMemoryQueueCapacityBytes;
+        this.inMemoryLogsCountCapacity = builder.inMemoryLogsCountCapacity;
+        this.inMemoryQueueSnapshot = builder.inMemoryQueueSnapshot;
+        this.exceedMaxSizeAction = builder.exceedMaxSizeAction;
+        this.httpClientTransport = isHttpClientTransport(builder.httpTransport);
+        this.binaryDiskQueue = isBinaryDiskQueue(builder.diskQueueFormat);
+        this.addOpentelemetryContext = builder.addOpentelemetryContext;
+        this.maxInFlightBulks = builder.maxInFlightBulks;
+        this.adaptiveShipping = builder.adaptiveShipping;
+        this.flushBytesThreshold = builder.flushBytesThreshold;
+        this.flushCountThreshold = builder.flushCountThreshold;
+        this.maxLingerMs = builder.maxLingerMs;
+        this.flushLevel = builder.flushLevel == null ? null : Level.toLevel(builder.flushLevel, null);
+        if (builder.flushLevel != null && flushLevel == null) {
+            statusLogger.warn("Invalid value for parameter flushLevel: " + builder.flushLevel + ", level triggered flushing is disabled");
+        }
+        this.circuitBreakerFailureThreshold = builder.circuitBreakerFailureThreshold;
+        this.circuitBreakerBaseBackoffMs = builder.circuitBreakerBaseBackoffMs;
+        this.circuitBreakerMaxBackoffMs = builder.circuitBreakerMaxBackoffMs;
+        this.routingMdcKey = builder.routingMdcKey;
+        this.routeByMarker = builder.routeByMarker;
+        this.routeIdleTimeoutSec = builder.routeIdleTimeoutSec;
+        this.routeQueueCapacityBytes = builder.routeQueueCapacityBytes;
+        this.routesCapacityBytes = builder.routesCapacityBytes;
+        this.locationResolver = builder.includeLocation ? new LocationResolver() : null;
+        this.configuration = builder.configuration;
+        this.traceSampler = newTraceSampler(builder);
+        this.metrics.setTraceSampler(traceSampler);
+        this.redactor = builder.redactor;
+        this.contextDataProjection = newContextDataProjection(builder);
+        this.loggerTopTalkers = builder.topTalkers ? new TopTalkers(builder.topTalkersSize) : null;
+        this.templateTopTalkers = builder.topTalkers && builder.topTalkersByTemplate ? new TopTalkers(builder.topTalkersSize) : null;
+        this.topTalkersSummaryIntervalSec = builder.topTalkersSummaryIntervalSec;
+        this.metrics.setTopTalkers(loggerTopTalkers, templateTopTalkers);
+        this.statusSummaryIntervalSec = builder.statusSummaryIntervalSec;
+        this.statusAggregator = statusSummaryIntervalSec > 0 ? new StatusAggregator(new StatusReporter()) : null;
+        this.metrics.setStatusAggregator(statusAggregator);
+        this.fieldLimits = new FieldLimits(fieldLimit("maxMessageChars", builder.maxMessageChars),
+                fieldLimit("maxExceptionChars", builder.maxExceptionChars), fieldLimit("maxMdcValueChars", builder.maxMdcValueChars),
+                builder.maxEventBytes);
+        this.metrics.setFieldLimits(fieldLimits);
+        this.layoutEncoder = builder.layout == null ? null : new LayoutEncoder(builder.layout, fieldLimits.getMaxEventBytes() > 0
+                ? Math.min(fieldLimits.getMaxEventBytes(), LogMessageEncoder.MAX_LOG_SIZE_IN_BYTES) : LogMessageEncoder.MAX_LOG_SIZE_IN_BYTES);
+        if (layoutEncoder != null) {
+            warnIgnoredByLayout(builder);
+        }
+        this.nonBlockingStart = builder.nonBlockingStart;
+        this.startupStagingCapacity = builder.startupStagingCapacity;
+        this.endOfBatchBuffering = builder.endOfBatchBuffering;
+        this.endOfBatchMaxLogs = builder.endOfBatchMaxLogs > 0 ? builder.endOfBatchMaxLogs : 1;
+        this.flushOnEndOfBatch = builder.flushOnEndOfBatch;
 
         verifyExceedMaxSizeAction(exceedMaxSizeAction);
-        if (additionalFields != null) {
-            Splitter.on(';').omitEmptyStrings().withKeyValueSeparator('=').split(additionalFields).forEach((k, v) -> {
+        this.statusReporter = statusAggregator != null ? statusAggregator : new StatusReporter();
+        // Logs are serialized by the appender, the shipper gets the final bytes
+        this.logMessageEncoder = new LogMessageEncoder(exceedMaxSizeAction.toLowerCase(), addOpentelemetryContext, fieldLimits, statusReporter, debug);
+        if (builder.additionalFields != null) {
+            Splitter.on(';').omitEmptyStrings().withKeyValueSeparator('=').split(builder.additionalFields).forEach((k, v) -> {
                 if (reservedFields.contains(k)) {
                     statusLogger.warn("The field name '" + k + "' defined in additionalFields configuration can't be used since it's a reserved field name. This field will not be added to the outgoing log messages");
+                } else if (FieldTemplate.hasLookups(v)) {
+                    additionalFieldLookups.put(k, v);
                 } else {
                     String value = getValueFromSystemEnvironmentIfNeeded(v);
                     if (value != null) {
@@ -323,11 +830,114 @@ public class LogzioAppender extends AbstractAppender {
                     }
                 }
             });
-            statusLogger.info("The additional fields that would be added: " + additionalFieldsMap.toString());
+            statusLogger.info("The additional fields that would be added: " + additionalFieldsMap.toString()
+                    + (additionalFieldLookups.isEmpty() ? "" : ", with lookups: " + additionalFieldLookups.toString()));
+        }
+        if (builder.routes != null) {
+            Splitter.on(';').omitEmptyStrings().trimResults().withKeyValueSeparator('=').split(builder.routes).forEach(routes::put);
+            if (routingMdcKey == null && !routeByMarker) {
+                statusLogger.warn("routes is set but neither routingMdcKey nor routeByMarker, all logs are sent to " + logzioType);
+            }
         }
     }
 
 
+    private TraceSampler newTraceSampler(Builder builder) {
+        if (builder.traceSamplingLevel == null) {
+            return null;
+        }
+        Level level = Level.toLevel(builder.traceSamplingLevel, null);
+        if (level == null) {
+            statusLogger.warn("Invalid value for parameter traceSamplingLevel: " + builder.traceSamplingLevel + ", trace sampling is disabled");
+            return null;
+        }
+        long bufferBytes = builder.traceSamplingBufferBytes;
+        if (bufferBytes <= 0) {
+            statusLogger.warn("Invalid value for parameter traceSamplingBufferBytes, using default: " + DEFAULT_TRACE_SAMPLING_BUFFER_BYTES);
+            bufferBytes = DEFAULT_TRACE_SAMPLING_BUFFER_BYTES;
+        }
+        return new TraceSampler(level, Math.max(0, builder.traceSamplingBufferMs), Math.max(1, builder.traceSamplingBufferSize), bufferBytes);
+    }
+
+    private static void warnIgnoredByLayout(Builder builder) {
+        List<String> ignored = new ArrayList<>();
+        if (builder.redactor != null) {
+            ignored.add("redaction");
+        }
+        if (builder.maxMessageChars != 0) {
+            ignored.add("maxMessageChars");
+        }
+        if (builder.maxExceptionChars != 0) {
+            ignored.add("maxExceptionChars");
+        }
+        if (builder.maxMdcValueChars != 0) {
+            ignored.add("maxMdcValueChars");
+        }
+        if (builder.additionalFields != null && !builder.additionalFields.isEmpty()) {
+            ignored.add("additionalFields");
+        }
+        if (!ignored.isEmpty()) {
+            statusLogger.warn("layout is set, so " + String.join(", ", ignored)
+                    + " don't apply to the logs it encodes");
+        }
+    }
+
+    private static int fieldLimit(String name, int maxChars) {
+        if (!FieldLimits.isValidLimit(maxChars)) {
+            statusLogger.warn("Invalid value for parameter " + name + ": " + maxChars + ", it should be 0 or at least "
+                    + FieldLimits.MIN_LIMIT_CHARS + ", using default: 0");
+            return 0;
+        }
+        return maxChars;
+    }
+
+    private ContextDataProjection newContextDataProjection(Builder builder) {
+        Map<String, String> renames = new HashMap<>();
+        Map<String, ContextDataProjection.Type> types = new HashMap<>();
+        try {
+            if (builder.mdcRenameKeys != null) {
+                renames.putAll(Splitter.on(';').omitEmptyStrings().trimResults().withKeyValueSeparator('=').split(builder.mdcRenameKeys));
+            }
+            if (builder.mdcKeyTypes != null) {
+                Splitter.on(';').omitEmptyStrings().trimResults().withKeyValueSeparator('=').split(builder.mdcKeyTypes).forEach((key, type) -> {
+                    try {
+                        types.put(key, ContextDataProjection.Type.valueOf(type.toUpperCase()));
+                    } catch (IllegalArgumentException e) {
+                        statusLogger.warn("Invalid type " + type + " of MDC key " + key + " in mdcKeyTypes, expected string, number or boolean");
+                    }
+                });
+            }
+        } catch (IllegalArgumentException e) {
+            statusLogger.warn("Invalid mdcRenameKeys or mdcKeyTypes, expected <key>=<value>;<key>=<value>: " + e.getMessage());
+        }
+        return new ContextDataProjection(splitKeys(builder.mdcIncludeKeys), splitKeys(builder.mdcExcludeKeys), renames, types,
+                this::filterContextValue);
+    }
+
+    private static List<String> splitKeys(String keys) {
+        return keys == null ? Collections.emptyList() : Splitter.on(',').omitEmptyStrings().trimResults().splitToList(keys);
+    }
+
+    private boolean isHttpClientTransport(String httpTransport) {
+        if (HTTP_CLIENT_TRANSPORT.equalsIgnoreCase(httpTransport)) {
+            return true;
+        }
+        if (httpTransport != null && !URL_CONNECTION_TRANSPORT.equalsIgnoreCase(httpTransport)) {
+            statusLogger.warn("Invalid value for parameter httpTransport, using default: " + URL_CONNECTION_TRANSPORT);
+        }
+        return false;
+    }
+
+    private boolean isBinaryDiskQueue(String diskQueueFormat) {
+        if (BINARY_DISK_QUEUE_FORMAT.equalsIgnoreCase(diskQueueFormat)) {
+            return true;
+        }
+        if (diskQueueFormat != null && !JSON_DISK_QUEUE_FORMAT.equalsIgnoreCase(diskQueueFormat)) {
+            statusLogger.warn("Invalid value for parameter diskQueueFormat, using default: " + JSON_DISK_QUEUE_FORMAT);
+        }
+        return false;
+    }
+
     private void verifyExceedMaxSizeAction(String exceedMaxSizeAction) {
         if (!Arrays.asList("cut", "drop").contains(exceedMaxSizeAction.toLowerCase())) {
             statusLogger.warn("Invalid value for parameter exceedMaxSizeAction, using default: cut");
@@ -336,86 +946,478 @@ public class LogzioAppender extends AbstractAppender {
     }
 
     public void start() {
-        safeStopLogzioSender();
-        HttpsRequestConfiguration conf;
-        try {
-            conf = getHttpsRequestConfiguration();
-        } catch (LogzioParameterErrorException e) {
-            statusLogger.error("Some of the configuration parameters of logz.io is wrong: " + e.getMessage(), e);
+        awaitStarter();
+        compileFieldTemplates();
+        stopShipping();
+        SenderStatusReporter reporter = statusReporter;
+        if (!routes.isEmpty() && (routingMdcKey != null || routeByMarker)) {
+            tenantRouter = newTenantRouter(reporter);
+            if (tenantRouter == null) {
+                return;
+            }
+            metrics.setTenantRouter(tenantRouter);
+        }
+        startStatusSummary();
+        if (nonBlockingStart) {
+            // Logs are staged until the shipper, the queue and the hostname are ready
+            StartupStaging<StagedLog> staging = new StartupStaging<>(startupStagingCapacity);
+            startupStaging = staging;
+            // Started before the starter runs, a start failing right away then leaves the appender stopped
+            super.start();
+            starter = Log4jThreadFactory.createDaemonThreadFactory(getClass().getSimpleName() + "Starter")
+                    .newThread(() -> finishNonBlockingStart(staging, reporter));
+            starter.start();
             return;
         }
-        setHostname();
-        LogzioSender.Builder logzioSenderBuilder = new LogzioSender
-                .Builder()
-                .setDebug(debug)
-                .setDrainTimeoutSec(drainTimeoutSec)
-                .setReporter(new StatusReporter())
-                .setHttpsRequestConfiguration(conf)
-                .setExceedMaxSizeAction(exceedMaxSizeAction)
-                .setWithOpentelemetryContext(addOpentelemetryContext);
+        if (startShipping(reporter)) {
+            startTopTalkersSummary();
+            metrics.register(getName());
+            super.start();
+        } else {
+            stopShipping();
+        }
+    }
 
+    private TenantRouter newTenantRouter(SenderStatusReporter reporter) {
+        if (routeQueueCapacityBytes <= 0 && routeQueueCapacityBytes != DONT_LIMIT_CAPACITY) {
+            statusLogger.error("routeQueueCapacityBytes should be a non zero integer or " + DONT_LIMIT_CAPACITY);
+            return null;
+        }
+        if (routesCapacityBytes <= 0 && routesCapacityBytes != DONT_LIMIT_CAPACITY) {
+            statusLogger.error("routesCapacityBytes should be a non zero integer or " + DONT_LIMIT_CAPACITY);
+            return null;
+        }
+        List<String> urls = logzioUrls.isEmpty() ? Collections.singletonList(null) : logzioUrls;
+        Map<String, TenantRouter.Destination> destinations = new HashMap<>();
+        Map<String, TenantRouter.Destination> compiledRoutes = new HashMap<>();
+        for (Map.Entry<String, String> route : routes.entrySet()) {
+            int separator = route.getValue().lastIndexOf(':');
+            String token = separator == -1 ? logzioToken : getValueFromSystemEnvironmentIfNeeded(route.getValue().substring(0, separator));
+            String type = getValueFromSystemEnvironmentIfNeeded(route.getValue().substring(separator + 1));
+            if (token == null || type == null || type.isEmpty()) {
+                statusLogger.warn("Invalid route " + route.getKey() + ", expected <value>=[token:]type, logs of this route are sent to " + logzioType);
+                continue;
+            }
+            try {
+                List<HttpsRequestConfiguration> confs = new ArrayList<>();
+                for (String url : urls) {
+                    confs.add(HttpsRequestConfiguration
+                            .builder()
+                            .setLogzioListenerUrl(url)
+                            .setSocketTimeout(socketTimeout)
+                            .setLogzioType(type)
+                            .setLogzioToken(token)
+                            .setConnectTimeout(connectTimeout)
+                            .setCompressRequests(compressRequests)
+                            .build());
+                }
+                TenantRouter.Destination destination = destinations.computeIfAbsent(token + ':' + type,
+                        key -> new TenantRouter.Destination(token, type, confs));
+                compiledRoutes.put(route.getKey(), destination);
+            } catch (LogzioParameterErrorException e) {
+                statusLogger.warn("Invalid route " + route.getKey() + ": " + e.getMessage() + ", logs of this route are sent to " + logzioType);
+            }
+        }
+        InMemoryLogsQueue.SharedCapacity routesCapacity = new InMemoryLogsQueue.SharedCapacity(routesCapacityBytes);
+        File routesDir;
         if (inMemoryQueue) {
-            if (!validateQueueCapacity()) {
-                return;
+            routesDir = null;
+        } else {
+            File queueDirFile = getQueueDirFile();
+            if (queueDirFile == null) {
+                return null;
+            }
+            routesDir = new File(queueDirFile.getParentFile(), ROUTES_QUEUE_DIR);
+        }
+        return new TenantRouter(compiledRoutes, routeIdleTimeoutSec, (destination, tasksExecutor, bulkExecutor) -> new BulkShipper(
+                newRouteQueue(destination, routesDir, routesCapacity, reporter),
+                newBulkTransport(destination.getConfigurations()),
+                new AdaptiveConcurrencyController(1, false, socketTimeout),
+                new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerBaseBackoffMs, circuitBreakerMaxBackoffMs),
+                reporter, drainTimeoutSec, debug, tasksExecutor, bulkExecutor));
+    }
+
+    // Routed logs are queued like the appender's own logs, as JSON when on disk
+    private LogsQueue newRouteQueue(TenantRouter.Destination destination, File routesDir,
+                                    InMemoryLogsQueue.SharedCapacity routesCapacity, SenderStatusReporter reporter) {
+        if (routesDir != null) {
+            File queueDirFile = new File(routesDir, destination.getQueueName());
+            try {
+                return DiskLogsQueue.open(queueDirFile, new LogRecordCodec(Collections.emptyList()), fileSystemFullPercentThreshold,
+                        gcPersistedQueueFilesIntervalSeconds, reporter);
+            } catch (IOException e) {
+                statusLogger.error("Couldn't open the disk queue " + queueDirFile + ", queueing the logs of " + destination.getType()
+                        + " in memory: " + e.getMessage(), e);
             }
+        }
+        return new InMemoryLogsQueue(routeQueueCapacityBytes, inMemoryLogsCountCapacity, routesCapacity, reporter);
+    }
 
-            final ScheduledExecutorService tasksExecutor = safeExecutorCreate(() ->
-                    Executors.newScheduledThreadPool(1, Log4jThreadFactory.createDaemonThreadFactory(this.getClass().getSimpleName())));
+    private void finishNonBlockingStart(StartupStaging<StagedLog> staging, SenderStatusReporter reporter) {
+        boolean started = false;
+        try {
+            started = startShipping(reporter);
+        } catch (RuntimeException e) {
+            statusLogger.error("Couldn't start the logz.io appender: " + e.getMessage(), e);
+        }
+        if (!started) {
+            // Stopped first, so Log4j2 stops appending before the staging and the shipper go away
+            setStopped();
+            long dropped = staging.close(log -> { });
+            startupStaging = null;
+            stopShipping();
+            statusLogger.error("The logz.io appender {} failed to start, dropping the logs appended while starting ({} dropped for lack of space)", getName(), dropped);
+            return;
+        }
+        long dropped = staging.close(this::shipStaged);
+        startupStaging = null;
+        if (dropped > 0) {
+            statusLogger.warn("Dropped {} logs appended while the appender was starting, startupStagingCapacity is {}", dropped, startupStagingCapacity);
+        }
+        flushTrigger.flush();
+        startTopTalkersSummary();
+        metrics.register(getName());
+    }
 
-            logzioSenderBuilder
-                    .setTasksExecutor(tasksExecutor)
-                    .withInMemoryQueue()
-                    .setCapacityInBytes(inMemoryQueueCapacityBytes)
-                    .setLogsCountLimit(inMemoryLogsCountCapacity)
-                    .endInMemoryQueue();
-        } else {
-            if (!validateFSFullPercentThreshold()) {
+    // Staged logs are serialized now that the hostname is known, and then shipped like the logs appended directly
+    private void shipStaged(StagedLog staged) {
+        byte[] log = staged.encoded;
+        if (log == null) {
+            String host = hostname;
+            if (host != null) {
+                staged.logMessage.addProperty("hostname", host);
+            }
+            log = logMessageEncoder.serialize(staged.logMessage, recordCodec);
+            if (log == null) {
                 return;
             }
+        }
+        recordVolume(staged.loggerName, staged.messageTemplate, LogRecordCodec.jsonLength(log));
+        deliver(log, staged.level, false, staged.decision, staged.spanContext, null, null);
+    }
 
-            File queueDirFile = getQueueDirFile();
-            if (queueDirFile == null) {
-                return;
+    private void ship(byte[] log) {
+        BulkShipper shipper = bulkShipper;
+        if (shipper != null) {
+            shipper.send(log);
+        }
+    }
+
+    private void startTopTalkersSummary() {
+        if (loggerTopTalkers == null || topTalkersSummaryIntervalSec <= 0) {
+            return;
+        }
+        topTalkersSummaryExecutor = Executors.newSingleThreadScheduledExecutor(
+                Log4jThreadFactory.createDaemonThreadFactory(getClass().getSimpleName() + "TopTalkers"));
+        topTalkersSummaryExecutor.scheduleAtFixedRate(this::shipTopTalkersSummary,
+                topTalkersSummaryIntervalSec, topTalkersSummaryIntervalSec, TimeUnit.SECONDS);
+    }
+
+    private void stopTopTalkersSummary() {
+        if (topTalkersSummaryExecutor != null) {
+            topTalkersSummaryExecutor.shutdownNow();
+            topTalkersSummaryExecutor = null;
+        }
+    }
+
+    private void startStatusSummary() {
+        if (statusAggregator == null) {
+            return;
+        }
+        statusSummaryExecutor = Executors.newSingleThreadScheduledExecutor(
+                Log4jThreadFactory.createDaemonThreadFactory(getClass().getSimpleName() + "Status"));
+        statusSummaryExecutor.scheduleAtFixedRate(statusAggregator::summarize,
+                statusSummaryIntervalSec, statusSummaryIntervalSec, TimeUnit.SECONDS);
+    }
+
+    private void stopStatusSummary() {
+        if (statusSummaryExecutor != null) {
+            statusSummaryExecutor.shutdownNow();
+            statusSummaryExecutor = null;
+            // What was suppressed since the last summary is reported before stopping
+            statusAggregator.summarize();
+        }
+    }
+
+    private void shipTopTalkersSummary() {
+        try {
+            JsonObject summary = new JsonObject();
+            summary.addProperty(TIMESTAMP, Instant.now().toString());
+            summary.addProperty(LOGLEVEL, Level.INFO.toString());
+            summary.addProperty(MESSAGE, "Top talkers of appender " + getName() + " in the last " + topTalkersSummaryIntervalSec
+                    + " seconds: " + loggerTopTalkers.getTotalCount() + " logs, " + loggerTopTalkers.getTotalBytes() + " bytes");
+            summary.addProperty(LOGGER, LogzioAppender.class.getName());
+            summary.addProperty(THREAD, Thread.currentThread().getName());
+            summary.addProperty("top_talkers_total_bytes", loggerTopTalkers.getTotalBytes());
+            summary.addProperty("top_talkers_total_count", loggerTopTalkers.getTotalCount());
+            summary.add("top_talkers", toJson(loggerTopTalkers, LOGGER));
+            loggerTopTalkers.reset();
+            if (templateTopTalkers != null) {
+                summary.add("top_talkers_templates", toJson(templateTopTalkers, "template"));
+                templateTopTalkers.reset();
+            }
+            additionalFieldsMap.forEach(summary::addProperty);
+            for (FieldTemplate template : fieldTemplates) {
+                if (template.getConstant() != null) {
+                    summary.addProperty(template.getName(), template.getConstant());
+                }
+            }
+            String host = hostname;
+            if (host != null) {
+                summary.addProperty("hostname", host);
+            }
+            byte[] log = logMessageEncoder.serialize(summary);
+            if (log != null) {
+                ship(log);
+            }
+        } catch (RuntimeException e) {
+            statusLogger.warn("Couldn't send the top talkers summary: " + e.getMessage(), e);
+        }
+    }
+
+    private static JsonArray toJson(TopTalkers topTalkers, String keyField) {
+        JsonArray talkers = new JsonArray();
+        for (TopTalkers.Talker talker : topTalkers.getTop()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty(keyField, talker.getKey());
+            entry.addProperty("bytes", talker.getBytes());
+            entry.addProperty("count", talker.getCount());
+            talkers.add(entry);
+        }
+        return talkers;
+    }
+
+    private void recordVolume(LogEvent logEvent, int bytes) {
+        if (loggerTopTalkers != null) {
+            recordVolume(logEvent.getLoggerName(), getMessageTemplate(logEvent), bytes);
+        }
+    }
+
+    private void recordVolume(String loggerName, String messageTemplate, int bytes) {
+        if (loggerTopTalkers == null) {
+            return;
+        }
+        loggerTopTalkers.record(loggerName, bytes);
+        if (templateTopTalkers != null && messageTemplate != null) {
+            templateTopTalkers.record(messageTemplate, bytes);
+        }
+    }
+
+    /**
+     * Only the messages with parameters have a template. The format of other messages is the message itself, which
+     * would make every distinct message a key, so they are counted under their logger name instead.
+     * Reusable messages, like the events of AsyncLoggers which are their own message, keep the format and the
+     * parameters of the logged message.
+     */
+    private String getMessageTemplate(LogEvent logEvent) {
+        if (templateTopTalkers == null) {
+            return null;
+        }
+        Message message = logEvent.getMessage();
+        if (message instanceof ParameterizedMessage) {
+            return ((ParameterizedMessage) message).getFormat();
+        }
+        if (message instanceof ReusableMessage) {
+            ReusableMessage reusableMessage = (ReusableMessage) message;
+            return reusableMessage.getParameterCount() > 0 ? getFormat(reusableMessage) : logEvent.getLoggerName();
+        }
+        if (message instanceof MessageFormatMessage) {
+            return ((MessageFormatMessage) message).getFormat();
+        }
+        if (message instanceof StringFormattedMessage) {
+            return ((StringFormattedMessage) message).getFormat();
+        }
+        return logEvent.getLoggerName();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String getFormat(Message message) {
+        // Message.getFormat() is deprecated, but the reusable messages and the AsyncLogger events override it
+        return message.getFormat();
+    }
+
+    private void awaitStarter() {
+        Thread thread = starter;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        starter = null;
+    }
+
+    private boolean startShipping(SenderStatusReporter reporter) {
+        List<HttpsRequestConfiguration> confs = new ArrayList<>();
+        try {
+            if (logzioUrls.isEmpty()) {
+                confs.add(getHttpsRequestConfiguration(null));
+            }
+            for (String url : logzioUrls) {
+                confs.add(getHttpsRequestConfiguration(url));
+            }
+        } catch (LogzioParameterErrorException e) {
+            statusLogger.error("Some of the configuration parameters of logz.io is wrong: " + e.getMessage(), e);
+            return false;
+        }
+        setHostname();
+        return startBulkShipper(confs, reporter);
+    }
+
+    private boolean startBulkShipper(List<HttpsRequestConfiguration> confs, SenderStatusReporter reporter) {
+        LogsQueue logsQueue = inMemoryQueue ? newInMemoryLogsQueue(reporter) : newDiskLogsQueue(reporter);
+        if (logsQueue == null) {
+            return false;
+        }
+        bulkShipper = new BulkShipper(
+                logsQueue,
+                newBulkTransport(confs),
+                new AdaptiveConcurrencyController(maxInFlightBulks, adaptiveShipping, socketTimeout),
+                new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerBaseBackoffMs, circuitBreakerMaxBackoffMs),
+                reporter, drainTimeoutSec, debug);
+        metrics.setBulkShipper(bulkShipper);
+        bulkShipper.start();
+        if (endOfBatchBuffering) {
+            // Synchronous loggers never end a batch, their buffers are written out by the tick and the triggers
+            flushTrigger = newFlushTrigger(bulkShipper.getTasksExecutor(), this::writeEndOfBatchBuffersAndDrain);
+            bulkShipper.getTasksExecutor().scheduleWithFixedDelay(this::endOfBatchTick, drainTimeoutSec, drainTimeoutSec, TimeUnit.SECONDS);
+        } else {
+            flushTrigger = newFlushTrigger(bulkShipper.getTasksExecutor(), bulkShipper::drainQueueAndSend);
+        }
+        return true;
+    }
+
+    private InMemoryLogsQueue newInMemoryLogsQueue(SenderStatusReporter reporter) {
+        if (!validateQueueCapacity()) {
+            return null;
+        }
+        InMemoryLogsQueue logsQueue = new InMemoryLogsQueue(inMemoryQueueCapacityBytes, inMemoryLogsCountCapacity, reporter);
+        if (inMemoryQueueSnapshot) {
+            queueSnapshot = newQueueSnapshot();
+            restoreQueueSnapshot(logsQueue);
+        }
+        return logsQueue;
+    }
+
+    private DiskLogsQueue newDiskLogsQueue(SenderStatusReporter reporter) {
+        if (!validateFSFullPercentThreshold()) {
+            return null;
+        }
+        File queueDirFile = getQueueDirFile();
+        if (queueDirFile == null) {
+            return null;
+        }
+        if (inMemoryQueueSnapshot) {
+            statusLogger.warn("inMemoryQueueSnapshot is ignored with the disk queue, which keeps the logs left on stop itself");
+        }
+        File dictionaryFile = new File(queueDirFile.getParentFile(), logzioType + LogRecordCodec.DICTIONARY_SUFFIX);
+        try {
+            // With the JSON format the dictionary is still read, for the records left by a run with the binary format
+            LogRecordCodec codec = binaryDiskQueue ? LogRecordCodec.open(dictionaryFile, getDictionaryConstants())
+                    : LogRecordCodec.load(dictionaryFile);
+            DiskLogsQueue logsQueue = DiskLogsQueue.open(queueDirFile, codec, fileSystemFullPercentThreshold,
+                    gcPersistedQueueFilesIntervalSeconds, reporter);
+            if (binaryDiskQueue) {
+                recordCodec = codec;
             }
-            final ScheduledExecutorService tasksExecutor = safeExecutorCreate(() ->
-                    Executors.newScheduledThreadPool(3, Log4jThreadFactory.createDaemonThreadFactory(this.getClass().getSimpleName())));
+            return logsQueue;
+        } catch (IOException e) {
+            statusLogger.error("Couldn't open the disk queue " + queueDirFile + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // The values repeated in every log, stored as dictionary ids in the records
+    private List<String> getDictionaryConstants() {
+        List<String> constants = new ArrayList<>();
+        if (hostname != null) {
+            constants.add(hostname);
+        }
+        additionalFieldsMap.forEach((name, value) -> {
+            constants.add(name);
+            constants.add(value);
+        });
+        for (FieldTemplate template : fieldTemplates) {
+            constants.add(template.getName());
+        }
+        return constants;
+    }
+
+    private QueueSnapshot newQueueSnapshot() {
+        File queueDirFile = getQueueDirFile();
+        if (queueDirFile == null) {
+            statusLogger.error("inMemoryQueueSnapshot is disabled, logs left in the queue on stop will be lost");
+            return null;
+        }
+        return new QueueSnapshot(new File(queueDirFile, getName() + ".snapshot"));
+    }
 
-            logzioSenderBuilder
-                    .setTasksExecutor(tasksExecutor)
-                    .withDiskQueue()
-                    .setQueueDir(queueDirFile)
-                    .setFsPercentThreshold(fileSystemFullPercentThreshold)
-                    .setGcPersistedQueueFilesIntervalSeconds(gcPersistedQueueFilesIntervalSeconds)
-                    .endDiskQueue();
+    private void restoreQueueSnapshot(InMemoryLogsQueue logsQueue) {
+        if (queueSnapshot == null) {
+            return;
         }
         try {
-            logzioSender = logzioSenderBuilder.build();
-        } catch (LogzioParameterErrorException | IOException e) {
-            statusLogger.error("Couldn't build logzio sender: " + e.getMessage(), e);
+            QueueSnapshot.Restored restored = queueSnapshot.restore(logsQueue);
+            if (restored.getRestored() > 0) {
+                statusLogger.info("Restored {} logs from the queue snapshot {}", restored.getRestored(), queueSnapshot.getFile());
+            }
+            if (restored.getDropped() > 0) {
+                statusLogger.warn("Dropped {} logs of the queue snapshot {}, they don't fit in the queue (inMemoryQueueCapacityBytes is {}, inMemoryLogsCountCapacity is {})",
+                        restored.getDropped(), queueSnapshot.getFile(), inMemoryQueueCapacityBytes, inMemoryLogsCountCapacity);
+            }
+        } catch (IOException e) {
+            statusLogger.error("Couldn't restore the queue snapshot " + queueSnapshot.getFile() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void saveQueueSnapshot(LogsQueue logsQueue) {
+        if (queueSnapshot == null) {
             return;
         }
+        try {
+            int saved = queueSnapshot.save(logsQueue);
+            if (saved > 0) {
+                statusLogger.info("Saved {} logs left in the queue to the snapshot {}", saved, queueSnapshot.getFile());
+            }
+        } catch (IOException e) {
+            statusLogger.error("Couldn't save the queue snapshot " + queueSnapshot.getFile() + ", the logs left in the queue are kept in memory and lost on exit: " + e.getMessage(), e);
+        }
+    }
 
-        synchronized (appenderToLogzioSender) {
-            appenderToLogzioSender.put(this, logzioSender);
+    private BulkTransport newBulkTransport(List<HttpsRequestConfiguration> confs) {
+        if (confs.size() == 1) {
+            return newBulkTransport(confs.get(0));
+        }
+        List<FailoverBulkTransport.Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < confs.size(); i++) {
+            endpoints.add(new FailoverBulkTransport.Endpoint(logzioUrls.get(i), newBulkTransport(confs.get(i))));
         }
+        return new FailoverBulkTransport(endpoints);
+    }
 
-        logzioSender.start();
+    private BulkTransport newBulkTransport(HttpsRequestConfiguration conf) {
+        return httpClientTransport ? new HttpClientBulkTransport(conf) : new HttpBulkTransport(conf);
+    }
 
-        super.start();
+    private FlushTrigger newFlushTrigger(ScheduledExecutorService executor, Runnable drain) {
+        FlushTrigger trigger = new FlushTrigger(flushBytesThreshold, flushCountThreshold, maxLingerMs, flushLevel, executor, drain);
+        metrics.setFlushTrigger(trigger);
+        return trigger;
     }
 
     private void setHostname() {
         try {
             if (addHostname) {
-                String hostname = InetAddress.getLocalHost().getHostName();
-                additionalFieldsMap.put("hostname", hostname);
+                hostname = InetAddress.getLocalHost().getHostName();
             }
         } catch (UnknownHostException e) {
             statusLogger.warn("The configuration addHostName was specified but the host could not be resolved, thus the field 'hostname' will not be added", e);
         }
     }
 
-    private HttpsRequestConfiguration getHttpsRequestConfiguration() throws LogzioParameterErrorException {
+    private HttpsRequestConfiguration getHttpsRequestConfiguration(String logzioUrl) throws LogzioParameterErrorException {
         return HttpsRequestConfiguration
                 .builder()
                 .setLogzioListenerUrl(logzioUrl)
@@ -477,91 +1479,280 @@ public class LogzioAppender extends AbstractAppender {
 
         boolean stopped = super.stop(timeout, timeUnit, false);
 
-        safeStopLogzioSender();
+        awaitStarter();
+        stopTopTalkersSummary();
+        flush();
+        if (timeout > 0) {
+            // What is left after the timeout is shipped by the final drain of the shipper
+            awaitDrained(Duration.ofNanos(timeUnit.toNanos(timeout)));
+        }
+        stopShipping();
 
         setStopped();
 
         return stopped;
     }
 
-    private void safeStopLogzioSender() {
-        if (logzioSender == null) {
-            return;
+    /**
+     * Ships the logs appended so far now, instead of waiting for the next drainTimeoutSec tick. Returns right away,
+     * use {@link #awaitDrained(Duration)} to wait for the logs to be sent.
+     */
+    public void flush() {
+        writeEndOfBatchBuffers();
+        FlushTrigger trigger = flushTrigger;
+        if (trigger != null) {
+            trigger.flush();
         }
+        TenantRouter router = tenantRouter;
+        if (router != null) {
+            router.flush();
+        }
+    }
 
-        boolean doStop = false;
-        synchronized (appenderToLogzioSender) {
-            appenderToLogzioSender.remove(this);
-
-            if (!appenderToLogzioSender.containsValue(logzioSender)) {
-                doStop = true;
+    /**
+     * Flushes, and waits until the logs appended so far were sent or the timeout expired. Logs the listener
+     * couldn't take are put back in the queue, so this waits for the timeout during a listener outage.
+     *
+     * @return true if the queues are empty and no bulk is in flight, false if the timeout expired first
+     */
+    public boolean awaitDrained(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            writeEndOfBatchBuffers();
+            while (!isDrained()) {
+                flush();
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                Thread.sleep(Math.min(remainingMs, DRAIN_POLL_MS));
             }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+    }
 
-        if (doStop) {
-            statusLogger.info("Stop {}", logzioSender);
+    private boolean isDrained() {
+        if (startupStaging != null) {
+            return false;
+        }
+        BulkShipper shipper = bulkShipper;
+        if (shipper != null && !shipper.isDrained()) {
+            return false;
+        }
+        TenantRouter router = tenantRouter;
+        return router == null || router.isDrained();
+    }
 
-            logzioSender.stop();
+    // Stops what start() started, also when starting failed half way
+    private void stopShipping() {
+        stopTopTalkersSummary();
+        stopBulkShipper();
+        stopTenantRouter();
+        stopStatusSummary();
+        metrics.unregister();
+    }
 
-            safeExecutorTerminate();
-        } else {
-            statusLogger.info("Stop skipped for reused {}", logzioSender);
+    private void stopTenantRouter() {
+        TenantRouter router = tenantRouter;
+        if (router == null) {
+            return;
+        }
+        tenantRouter = null;
+        metrics.setTenantRouter(null);
+        router.stop();
+    }
+
+    private void stopBulkShipper() {
+        if (bulkShipper == null) {
+            return;
+        }
+        statusLogger.info("Stop {}", bulkShipper);
+        // Logs appended while stopping are queued as JSON, which the disk queue returns as it is
+        recordCodec = null;
+        bulkShipper.stop();
+        saveQueueSnapshot(bulkShipper.getLogsQueue());
+        closeDiskLogsQueue(bulkShipper.getLogsQueue());
+        metrics.setBulkShipper(null);
+        bulkShipper = null;
+    }
+
+    private void closeDiskLogsQueue(LogsQueue logsQueue) {
+        if (!(logsQueue instanceof DiskLogsQueue)) {
+            return;
+        }
+        try {
+            logsQueue.close();
+        } catch (IOException e) {
+            statusLogger.error("Couldn't close the disk queue: " + e.getMessage(), e);
         }
     }
 
     @Override
     public void append(LogEvent logEvent) {
         if (!logEvent.getLoggerName().contains("io.logz.sender")) {
-            logzioSender.send(formatMessageAsJson(logEvent));
+            // Read once, both for sampling and for the trace fields of the log
+            SpanContext spanContext = addOpentelemetryContext || traceSampler != null
+                    ? Span.current().getSpanContext() : SpanContext.getInvalid();
+            TraceSampler.Decision decision = TraceSampler.Decision.KEEP;
+            if (traceSampler != null) {
+                decision = traceSampler.decide(logEvent.getLevel(), spanContext);
+                if (decision == TraceSampler.Decision.DROP) {
+                    return;
+                }
+                if (decision == TraceSampler.Decision.RELEASE) {
+                    traceSampler.release(spanContext.getTraceId());
+                }
+            }
+            TenantRouter router = tenantRouter;
+            TenantRouter.Destination destination = router == null ? null : router.resolve(getRoutingValue(logEvent));
+            StartupStaging<StagedLog> staging = startupStaging;
+            if (destination == null && staging != null && stage(staging, logEvent, spanContext, decision)) {
+                return;
+            }
+            // Routed logs are queued as JSON
+            byte[] log = encode(logEvent, spanContext, destination == null ? recordCodec : null);
+            if (log == null) {
+                return;
+            }
+            recordVolume(logEvent, LogRecordCodec.jsonLength(log));
+            deliver(log, logEvent.getLevel(), logEvent.isEndOfBatch(), decision, spanContext, router, destination);
         }
     }
 
-    private ScheduledExecutorService safeExecutorCreate(Supplier<ScheduledExecutorService> doCreate) {
-        final ScheduledExecutorService tasksExecutor = doCreate.get();
+    /**
+     * @return the log as it is queued, or null if it exceeds the maximum size and should be dropped
+     */
+    byte[] encode(LogEvent logEvent, SpanContext spanContext) {
+        return encode(logEvent, spanContext, recordCodec);
+    }
 
-        synchronized (tasksExecutors) {
-            final String key = getExecutorKey();
+    private byte[] encode(LogEvent logEvent, SpanContext spanContext, LogRecordCodec codec) {
+        if (layoutEncoder != null) {
+            return layoutEncoder.encode(logEvent);
+        }
+        return logMessageEncoder.encode(formatMessageAsJson(logEvent), spanContext, codec);
+    }
 
-            safeExecutorTerminate(key);
+    /**
+     * @return false if the staging was closed meanwhile and the log should be shipped directly
+     */
+    private boolean stage(StartupStaging<StagedLog> staging, LogEvent logEvent, SpanContext spanContext,
+                          TraceSampler.Decision decision) {
+        JsonObject logMessage = null;
+        byte[] encoded = null;
+        if (layoutEncoder != null) {
+            // The layout doesn't depend on the hostname, the log is staged encoded
+            encoded = layoutEncoder.encode(logEvent);
+            if (encoded == null) {
+                return true;
+            }
+        } else {
+            logMessage = formatMessageAsJson(logEvent);
+            logMessageEncoder.addContext(logMessage, spanContext);
+        }
+        return staging.offer(new StagedLog(logMessage, encoded, logEvent.getLevel(), logEvent.getLoggerName(),
+                getMessageTemplate(logEvent), spanContext, decision));
+    }
 
-            statusLogger.info("Created new tasksExecutor: {} for key.length: {}",
-                    tasksExecutor, key.length());
+    private void deliver(byte[] log, Level level, boolean endOfBatch, TraceSampler.Decision decision, SpanContext spanContext,
+                         TenantRouter router, TenantRouter.Destination destination) {
+        if (decision == TraceSampler.Decision.BUFFER
+                && traceSampler.buffer(spanContext.getTraceId(), log.length, () -> deliver(log, level, false, router, destination))) {
+            return;
+        }
+        deliver(log, level, endOfBatch, router, destination);
+    }
 
-            tasksExecutors.put(key, tasksExecutor);
+    private void deliver(byte[] log, Level level, boolean endOfBatch, TenantRouter router, TenantRouter.Destination destination) {
+        if (destination != null) {
+            router.send(destination, log);
+            return;
+        }
+        BulkShipper shipper = bulkShipper;
+        FlushTrigger trigger = flushTrigger;
+        if (shipper == null || trigger == null) {
+            // A log appended while a failed start or a stop tears down the shipper is dropped
+            return;
+        }
+        if (endOfBatchBuffering) {
+            EndOfBatchBuffer buffer = threadEndOfBatchBuffer.get();
+            boolean wasEmpty = buffer.isEmpty();
+            if (buffer.add(log, level) || endOfBatch) {
+                buffer.writeTo(this::writeBatch);
+            } else if (wasEmpty) {
+                trigger.onBuffered();
+            }
+        } else {
+            shipper.send(log);
+            trigger.onAppend(level, log.length);
         }
+    }
 
-        return tasksExecutor;
+    private String getRoutingValue(LogEvent logEvent) {
+        if (routingMdcKey != null) {
+            ReadOnlyStringMap contextData = logEvent.getContextData();
+            String value = contextData == null ? null : contextData.getValue(routingMdcKey);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (routeByMarker && logEvent.getMarker() != null) {
+            return logEvent.getMarker().getName();
+        }
+        return null;
     }
 
-    private void safeExecutorTerminate() {
-        synchronized (tasksExecutors) {
-            safeExecutorTerminate(getExecutorKey());
+    private void writeBatch(List<byte[]> logs, long sizeInBytes, Level mostSpecificLevel) {
+        BulkShipper shipper = bulkShipper;
+        FlushTrigger trigger = flushTrigger;
+        if (shipper == null || trigger == null) {
+            return;
+        }
+        shipper.send(logs);
+        trigger.onAppend(mostSpecificLevel, logs.size(), sizeInBytes);
+        if (flushOnEndOfBatch) {
+            trigger.flush();
         }
     }
 
-    private void safeExecutorTerminate(String key) {
-        final ScheduledExecutorService tasksExecutor = tasksExecutors.remove(key);
+    private EndOfBatchBuffer newEndOfBatchBuffer() {
+        return new EndOfBatchBuffer(endOfBatchMaxLogs, endOfBatchBuffers);
+    }
 
-        if (tasksExecutor != null) {
-            statusLogger.info("Terminating old tasksExecutor: {} for key.length: {}",
-                    tasksExecutor, key.length());
+    private void endOfBatchTick() {
+        try {
+            writeEndOfBatchBuffersAndDrain();
+            endOfBatchBuffers.forEach(EndOfBatchBuffer::unregisterIfIdle);
+        } catch (RuntimeException e) {
+            statusLogger.error("Uncaught error while writing out the end of batch buffers", e);
+        }
+    }
 
-            try {
-                tasksExecutor.shutdownNow();
+    private void writeEndOfBatchBuffersAndDrain() {
+        writeEndOfBatchBuffers();
+        BulkShipper shipper = bulkShipper;
+        if (shipper != null) {
+            shipper.drainQueueAndSend();
+        }
+    }
 
-                while (!tasksExecutor.isTerminated()) {
-                    Thread.sleep(500);
-                }
-            } catch (Exception e) {
-                statusLogger.error("Failed to stop old executor", e);
-            }
-        } else {
-            statusLogger.info("Skip terminating no tasksExecutor for key.length: {}", key.length());
+    private void writeEndOfBatchBuffers() {
+        if (bulkShipper == null) {
+            return;
         }
+        endOfBatchBuffers.forEach(buffer -> buffer.writeTo(this::writeBatch));
     }
 
-    private String getExecutorKey() {
-        return "" + logzioToken + logzioType;
+    private String redact(String text) {
+        return redactor == null ? text : redactor.redact(text);
+    }
+
+    // MDC values and field templates, which can resolve MDC values too, are redacted and cut alike
+    private String filterContextValue(String value) {
+        return fieldLimits.mdcValue(redact(value));
     }
 
     private JsonObject formatMessageAsJson(LogEvent loggingEvent) {
@@ -570,7 +1761,7 @@ public class LogzioAppender extends AbstractAppender {
         // Adding MDC first, as I dont want it to collide with any one of the following fields
         ReadOnlyStringMap mdcProperties = loggingEvent.getContextData();
         if (mdcProperties != null) {
-            mdcProperties.toMap().forEach(logMessage::addProperty);
+            contextDataProjection.addTo(mdcProperties, logMessage);
         }
 
         logMessage.addProperty(TIMESTAMP, new Date(loggingEvent.getTimeMillis()).toInstant().toString());
@@ -580,20 +1771,56 @@ public class LogzioAppender extends AbstractAppender {
         if (marker != null) {
             logMessage.addProperty(MARKER, marker.toString());
         }
-        logMessage.addProperty(MESSAGE, loggingEvent.getMessage().getFormattedMessage());
+        logMessage.addProperty(MESSAGE, fieldLimits.message(loggingEvent.getMessage(), this::redact));
         logMessage.addProperty(LOGGER, loggingEvent.getLoggerName());
         logMessage.addProperty(THREAD, loggingEvent.getThreadName());
+        if (locationResolver != null) {
+            LocationResolver.Location location = locationResolver.resolve(loggingEvent);
+            if (location != null) {
+                logMessage.addProperty("class", location.getClassName());
+                logMessage.addProperty("method", location.getMethodName());
+                logMessage.addProperty("file", location.getFileName());
+                logMessage.addProperty("line", location.getLineNumber());
+            }
+        }
         Throwable throwable = loggingEvent.getThrown();
         if (throwable != null) {
-            logMessage.addProperty(EXCEPTION, Throwables.getStackTraceAsString(throwable));
+            logMessage.addProperty(EXCEPTION, fieldLimits.exception(throwable, this::redact));
         }
 
         if (additionalFieldsMap != null) {
             additionalFieldsMap.forEach(logMessage::addProperty);
         }
+        for (FieldTemplate template : fieldTemplates) {
+            String value = template.resolve(loggingEvent);
+            if (value != null) {
+                logMessage.addProperty(template.getName(), filterContextValue(value));
+            }
+        }
+        String host = hostname;
+        if (host != null) {
+            logMessage.addProperty("hostname", host);
+        }
         return logMessage;
     }
 
+    private void compileFieldTemplates() {
+        if (additionalFieldLookups.isEmpty()) {
+            return;
+        }
+        StrSubstitutor substitutor = configuration != null ? configuration.getStrSubstitutor() : new StrSubstitutor(new Interpolator());
+        List<FieldTemplate> templates = new ArrayList<>();
+        additionalFieldLookups.forEach((name, value) -> {
+            FieldTemplate template = FieldTemplate.compile(name, value, substitutor);
+            if (template == null) {
+                statusLogger.warn("The additional field '" + name + "' resolved to nothing, it will not be added to the outgoing log messages");
+            } else {
+                templates.add(template);
+            }
+        });
+        fieldTemplates = templates.toArray(new FieldTemplate[0]);
+    }
+
     private static String getValueFromSystemEnvironmentIfNeeded(String value) {
         if (value == null)
             return null;
@@ -635,4 +1862,30 @@ public class LogzioAppender extends AbstractAppender {
             statusLogger.info(msg, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A log appended while the appender was starting, with what the appending thread knew about it, so it is shipped
+     * like the logs appended once started. The message is kept formatted, or encoded when a layout is set.
+     */
+    private static class StagedLog {
+
+        private final JsonObject logMessage;
+        private final byte[] encoded;
+        private final Level level;
+        private final String loggerName;
+        private final String messageTemplate;
+        private final SpanContext spanContext;
+        private final TraceSampler.Decision decision;
+
+        StagedLog(JsonObject logMessage, byte[] encoded, Level level, String loggerName, String messageTemplate,
+                  SpanContext spanContext, TraceSampler.Decision decision) {
+            this.logMessage = logMessage;
+            this.encoded = encoded;
+            this.level = level;
+            this.loggerName = loggerName;
+            this.messageTemplate = messageTemplate;
+            this.spanContext = spanContext;
+            this.decision = decision;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package io.logz.log4j2;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+class LogzioAppenderMetrics implements LogzioAppenderMetricsMBean {
+
+    private static final Logger statusLogger = StatusLogger.getLogger();
+
+    // A reconfigured appender is started before the old one is stopped, so the latest registration wins
+    // and stopping the old appender must not unregister its replacement
+    private static final Map<ObjectName, LogzioAppenderMetrics> registered = new ConcurrentHashMap<>();
+
+    private volatile BulkShipper bulkShipper;
+    private volatile FlushTrigger flushTrigger;
+    private volatile TenantRouter tenantRouter;
+    private volatile TraceSampler traceSampler;
+    private volatile TopTalkers loggerTopTalkers;
+    private volatile TopTalkers templateTopTalkers;
+    private volatile StatusAggregator statusAggregator;
+    private volatile FieldLimits fieldLimits;
+    private ObjectName objectName;
+
+    void setBulkShipper(BulkShipper bulkShipper) {
+        this.bulkShipper = bulkShipper;
+    }
+
+    void setFlushTrigger(FlushTrigger flushTrigger) {
+        this.flushTrigger = flushTrigger;
+    }
+
+    void setTenantRouter(TenantRouter tenantRouter) {
+        this.tenantRouter = tenantRouter;
+    }
+
+    void setTraceSampler(TraceSampler traceSampler) {
+        this.traceSampler = traceSampler;
+    }
+
+    void setTopTalkers(TopTalkers loggerTopTalkers, TopTalkers templateTopTalkers) {
+        this.loggerTopTalkers = loggerTopTalkers;
+        this.templateTopTalkers = templateTopTalkers;
+    }
+
+    void setStatusAggregator(StatusAggregator statusAggregator) {
+        this.statusAggregator = statusAggregator;
+    }
+
+    void setFieldLimits(FieldLimits fieldLimits) {
+        this.fieldLimits = fieldLimits;
+    }
+
+    void register(String appenderName) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("io.logz.log4j2:type=LogzioAppender,name=" + ObjectName.quote(appenderName));
+            synchronized (registered) {
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+                mBeanServer.registerMBean(this, name);
+                registered.put(name, this);
+            }
+            objectName = name;
+        } catch (JMException | SecurityException e) {
+            statusLogger.warn("Couldn't register metrics MBean for appender " + appenderName + ": " + e.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        synchronized (registered) {
+            if (registered.remove(objectName, this)) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException | SecurityException e) {
+                    statusLogger.warn("Couldn't unregister metrics MBean " + objectName + ": " + e.getMessage());
+                }
+            }
+        }
+        objectName = null;
+    }
+
+    @Override
+    public int getInFlightBulks() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getInFlightBulks();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 1 : shipper.getController().getConcurrency();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 1 : shipper.getController().getMaxConcurrency();
+    }
+
+    @Override
+    public int getBulkSizeLimitBytes() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES : shipper.getController().getBulkSizeBytes();
+    }
+
+    @Override
+    public long getConcurrencyIncreases() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getController().getIncreases();
+    }
+
+    @Override
+    public long getConcurrencyDecreases() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getController().getDecreases();
+    }
+
+    @Override
+    public long getSentBulks() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getSentBulks();
+    }
+
+    @Override
+    public long getFailedBulks() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getFailedBulks();
+    }
+
+    @Override
+    public long getSentLogs() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getSentLogs();
+    }
+
+    @Override
+    public long getLastBulkLatencyMs() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getLastBulkLatencyMs();
+    }
+
+    @Override
+    public long getTriggeredFlushes() {
+        FlushTrigger trigger = flushTrigger;
+        return trigger == null ? 0 : trigger.getTriggeredFlushes();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? CircuitBreaker.State.CLOSED.name() : shipper.getCircuitBreaker().getState().name();
+    }
+
+    @Override
+    public long getCircuitBreakerOpens() {
+        BulkShipper shipper = bulkShipper;
+        return shipper == null ? 0 : shipper.getCircuitBreaker().getOpens();
+    }
+
+    @Override
+    public int getActiveRoutes() {
+        TenantRouter router = tenantRouter;
+        return router == null ? 0 : router.getActiveTenants();
+    }
+
+    @Override
+    public long getTraceSamplingDroppedLogs() {
+        TraceSampler sampler = traceSampler;
+        return sampler == null ? 0 : sampler.getDroppedLogs();
+    }
+
+    @Override
+    public int getTraceSamplingBufferedTraces() {
+        TraceSampler sampler = traceSampler;
+        return sampler == null ? 0 : sampler.getBufferedTraces();
+    }
+
+    @Override
+    public long getTraceSamplingBufferedBytes() {
+        TraceSampler sampler = traceSampler;
+        return sampler == null ? 0 : sampler.getBufferedBytes();
+    }
+
+    @Override
+    public String[] getTopTalkers() {
+        return toStrings(loggerTopTalkers);
+    }
+
+    @Override
+    public String[] getTopTalkerTemplates() {
+        return toStrings(templateTopTalkers);
+    }
+
+    @Override
+    public long getTopTalkersTotalBytes() {
+        TopTalkers topTalkers = loggerTopTalkers;
+        return topTalkers == null ? 0 : topTalkers.getTotalBytes();
+    }
+
+    @Override
+    public void resetTopTalkers() {
+        TopTalkers topTalkers = loggerTopTalkers;
+        if (topTalkers != null) {
+            topTalkers.reset();
+        }
+        topTalkers = templateTopTalkers;
+        if (topTalkers != null) {
+            topTalkers.reset();
+        }
+    }
+
+    @Override
+    public long getStatusWarnings() {
+        StatusAggregator aggregator = statusAggregator;
+        return aggregator == null ? 0 : aggregator.getWarnings();
+    }
+
+    @Override
+    public long getStatusErrors() {
+        StatusAggregator aggregator = statusAggregator;
+        return aggregator == null ? 0 : aggregator.getErrors();
+    }
+
+    @Override
+    public long getSuppressedStatusMessages() {
+        StatusAggregator aggregator = statusAggregator;
+        return aggregator == null ? 0 : aggregator.getSuppressed();
+    }
+
+    @Override
+    public String getLastStatusError() {
+        StatusAggregator aggregator = statusAggregator;
+        return aggregator == null ? null : aggregator.getLastError();
+    }
+
+    @Override
+    public long getTruncatedFields() {
+        FieldLimits limits = fieldLimits;
+        return limits == null ? 0 : limits.getTruncatedFields();
+    }
+
+    private static String[] toStrings(TopTalkers topTalkers) {
+        if (topTalkers == null) {
+            return new String[0];
+        }
+        return topTalkers.getTop().stream().map(TopTalkers.Talker::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public int getListenerEndpoints() {
+        BulkShipper shipper = bulkShipper;
+        if (shipper != null && shipper.getTransport() instanceof FailoverBulkTransport) {
+            return ((FailoverBulkTransport) shipper.getTransport()).getEndpoints().size();
+        }
+        return 1;
+    }
+
+    @Override
+    public int getHealthyListenerEndpoints() {
+        BulkShipper shipper = bulkShipper;
+        if (shipper != null && shipper.getTransport() instanceof FailoverBulkTransport) {
+            return ((FailoverBulkTransport) shipper.getTransport()).getHealthyEndpoints();
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,64 @@
+package io.logz.log4j2;
+
+/**
+ * JMX view of a running {@link LogzioAppender}, registered as
+ * {@code io.logz.log4j2:type=LogzioAppender,name=<appender name>}.
+ */
+public interface LogzioAppenderMetricsMBean {
+
+    int getInFlightBulks();
+
+    int getConcurrencyLimit();
+
+    int getMaxConcurrency();
+
+    int getBulkSizeLimitBytes();
+
+    long getConcurrencyIncreases();
+
+    long getConcurrencyDecreases();
+
+    long getSentBulks();
+
+    long getFailedBulks();
+
+    long getSentLogs();
+
+    long getLastBulkLatencyMs();
+
+    long getTriggeredFlushes();
+
+    int getListenerEndpoints();
+
+    int getHealthyListenerEndpoints();
+
+    String getCircuitBreakerState();
+
+    long getCircuitBreakerOpens();
+
+    int getActiveRoutes();
+
+    long getTraceSamplingDroppedLogs();
+
+    int getTraceSamplingBufferedTraces();
+
+    long getTraceSamplingBufferedBytes();
+
+    String[] getTopTalkers();
+
+    String[] getTopTalkerTemplates();
+
+    long getTopTalkersTotalBytes();
+
+    void resetTopTalkers();
+
+    long getStatusWarnings();
+
+    long getStatusErrors();
+
+    long getSuppressedStatusMessages();
+
+    String getLastStatusError();
+
+    long getTruncatedFields();
+}
@@ -0,0 +1,391 @@
+package io.logz.log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.logz.sender.HttpsRequestConfiguration;
+import io.logz.sender.exceptions.LogzioParameterErrorException;
+
+/**
+ * Command line tool shipping the logs left in a disk queue, for example after a long listener outage or when the
+ * host of the service is gone:
+ * <pre>
+ * java -jar logzio-log4j2-appender.jar --queue-dir /var/log/logzio --type myType --token &lt;token&gt;
+ * </pre>
+ * The queue is read without being changed, see {@link DiskQueueReader}, while several bulks are sent at once. The
+ * index of the first log not shipped yet is saved to a checkpoint file, so a replay that was stopped or failed
+ * resumes where it stopped. Bulks shipped after the first unfinished one are shipped again on resume. Binary records
+ * of a queue written with diskQueueFormat binary are transcoded to JSON with the dictionary kept next to the queue.
+ */
+public class QueueReplay {
+
+    static final String CHECKPOINT_SUFFIX = ".replay-checkpoint";
+    private static final byte[] NEW_LINE = "\n".getBytes(StandardCharsets.UTF_8);
+    private static final long MAX_RETRY_BACKOFF_MS = 30 * 1000;
+
+    private static final String USAGE = "Usage: java -jar logzio-log4j2-appender.jar --queue-dir <dir> --token <token> [options]\n"
+            + "  --queue-dir <dir>            the queueDir of the appender\n"
+            + "  --type <type>                the logzioType of the appender, its queue is <queue-dir>/<type> (default: java)\n"
+            + "  --token <token>              the Logz.io shipping token\n"
+            + "  --url <url>                  the listener url (default: https://listener.logz.io:8071)\n"
+            + "  --checkpoint <file>          the checkpoint file (default: <queue-dir>/<type>" + CHECKPOINT_SUFFIX + ")\n"
+            + "  --parallelism <n>            bulks sent at once (default: 4)\n"
+            + "  --bulk-size-bytes <n>        maximum size of a bulk (default: 3145728)\n"
+            + "  --rate <n>                   maximum logs sent per second, 0 for no limit (default: 0)\n"
+            + "  --max-retries <n>            retries of a failing bulk before stopping (default: 5)\n"
+            + "  --progress-interval-sec <n>  interval of the progress reports and checkpoints (default: 10)\n"
+            + "  --no-compress                don't gzip the bulks";
+
+    private final Options options;
+    private final PrintStream out;
+    private final BulkTransport transport;
+
+    private final AtomicLong sentLogs = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong droppedLogs = new AtomicLong();
+    private final AtomicLong retriedBulks = new AtomicLong();
+    private final TreeMap<Long, Long> doneRanges = new TreeMap<>();
+    private long checkpointIndex;
+    private volatile String failure;
+
+    QueueReplay(Options options, PrintStream out) throws LogzioParameterErrorException {
+        this.options = options;
+        this.out = out;
+        HttpsRequestConfiguration.Builder configuration = HttpsRequestConfiguration.builder()
+                .setLogzioToken(options.token)
+                .setLogzioType(options.type)
+                .setCompressRequests(options.compress)
+                .setConnectTimeout(options.connectTimeoutMs)
+                .setSocketTimeout(options.socketTimeoutMs);
+        if (options.url != null) {
+            configuration.setLogzioListenerUrl(options.url);
+        }
+        this.transport = new HttpBulkTransport(configuration.build());
+    }
+
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = new QueueReplay(Options.parse(args), System.out).run() ? 0 : 1;
+        } catch (IllegalArgumentException | LogzioParameterErrorException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            exitCode = 2;
+        } catch (IOException e) {
+            System.err.println("Replay failed: " + e);
+            exitCode = 1;
+        } catch (InterruptedException e) {
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * @return true if every log of the queue was shipped
+     */
+    boolean run() throws IOException, InterruptedException {
+        DiskQueueReader reader = new DiskQueueReader(new File(options.queueDir, options.type));
+        LogRecordCodec codec = LogRecordCodec.load(new File(options.queueDir, options.type + LogRecordCodec.DICTIONARY_SUFFIX));
+        File checkpointFile = options.getCheckpointFile();
+        String queuePath = reader.getQueueDirectory().getCanonicalPath();
+        long start = Math.max(reader.getFrontIndex(), loadCheckpoint(checkpointFile, queuePath));
+        long end = reader.getHeadIndex();
+        synchronized (doneRanges) {
+            checkpointIndex = start;
+        }
+        if (start >= end) {
+            out.println("Nothing to replay in " + queuePath);
+            return true;
+        }
+        out.println("Replaying " + (end - start) + " logs of " + queuePath);
+
+        long startTime = System.nanoTime();
+        ExecutorService bulkExecutor = Executors.newFixedThreadPool(options.parallelism, daemonThreadFactory());
+        ScheduledExecutorService progressExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory());
+        progressExecutor.scheduleWithFixedDelay(() -> {
+            reportProgress(end - start, startTime);
+            saveCheckpoint(checkpointFile, queuePath);
+        }, options.progressIntervalSec, options.progressIntervalSec, TimeUnit.SECONDS);
+
+        Semaphore inFlight = new Semaphore(options.parallelism);
+        try {
+            long index = start;
+            long nextBulkNanos = System.nanoTime();
+            while (index < end && failure == null) {
+                long first = index;
+                List<byte[]> bulk = new ArrayList<>();
+                int size = 0;
+                while (index < end && size < options.bulkSizeBytes) {
+                    byte[] log = toJson(codec, reader.read(index++));
+                    if (log.length > 0) {
+                        bulk.add(log);
+                        size += log.length;
+                    }
+                }
+                long last = index;
+                nextBulkNanos = throttle(nextBulkNanos, bulk.size());
+                inFlight.acquire();
+                bulkExecutor.execute(() -> {
+                    try {
+                        if (ship(bulk)) {
+                            onShipped(first, last);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            inFlight.acquire(options.parallelism);
+        } finally {
+            bulkExecutor.shutdownNow();
+            progressExecutor.shutdownNow();
+        }
+
+        reportProgress(end - start, startTime);
+        saveCheckpoint(checkpointFile, queuePath);
+        if (failure != null) {
+            out.println("Replay stopped: " + failure + ". Run again to resume from the checkpoint " + checkpointFile);
+            return false;
+        }
+        out.println("Replay done, " + queuePath + " can be deleted once the service is not using it");
+        return true;
+    }
+
+    long getSentLogs() {
+        return sentLogs.get();
+    }
+
+    long getDroppedLogs() {
+        return droppedLogs.get();
+    }
+
+    private byte[] toJson(LogRecordCodec codec, byte[] log) {
+        try {
+            return codec.toJson(log);
+        } catch (IllegalArgumentException e) {
+            out.println("Dropping a log that can't be read: " + e.getMessage());
+            droppedLogs.incrementAndGet();
+            return new byte[0];
+        }
+    }
+
+    private boolean ship(List<byte[]> bulk) {
+        if (bulk.isEmpty()) {
+            return true;
+        }
+        byte[] payload = toNewLineSeparatedByteArray(bulk);
+        for (int attempt = 0; failure == null; attempt++) {
+            String error;
+            try {
+                int responseCode = transport.send(payload);
+                if (responseCode < 400) {
+                    sentLogs.addAndGet(bulk.size());
+                    sentBytes.addAndGet(payload.length);
+                    return true;
+                }
+                if (responseCode == 400) {
+                    out.println("Got 400 from logzio, dropping bulk of " + bulk.size() + " logs");
+                    droppedLogs.addAndGet(bulk.size());
+                    return true;
+                }
+                if (responseCode < 500) {
+                    failure = "got " + responseCode + " from logz.io, check the token";
+                    return false;
+                }
+                error = "got " + responseCode + " from logz.io";
+            } catch (IOException e) {
+                error = "could not send bulk to logz.io: " + e.getMessage();
+            }
+            if (attempt >= options.maxRetries) {
+                failure = error;
+                return false;
+            }
+            retriedBulks.incrementAndGet();
+            long backoffMs = Math.min(MAX_RETRY_BACKOFF_MS, 1000L << Math.min(attempt, 5));
+            out.println("Retrying bulk in " + backoffMs + " ms, " + error);
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // The checkpoint moves past a bulk once every bulk before it was shipped too
+    private void onShipped(long first, long last) {
+        synchronized (doneRanges) {
+            doneRanges.put(first, last);
+            Long next;
+            while ((next = doneRanges.remove(checkpointIndex)) != null) {
+                checkpointIndex = next;
+            }
+        }
+    }
+
+    private long throttle(long nextBulkNanos, int logs) throws InterruptedException {
+        if (options.rate <= 0) {
+            return nextBulkNanos;
+        }
+        long waitNanos = nextBulkNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return Math.max(nextBulkNanos, System.nanoTime()) + logs * TimeUnit.SECONDS.toNanos(1) / options.rate;
+    }
+
+    private void reportProgress(long total, long startTime) {
+        long sent = sentLogs.get();
+        long dropped = droppedLogs.get();
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        out.println(String.format("Replayed %d of %d logs (%.1f%%), %.1f MB sent, %d logs/s, %d dropped logs, %d retried bulks",
+                sent + dropped, total, (sent + dropped) * 100.0 / total, sentBytes.get() / (1024.0 * 1024.0),
+                sent * 1000 / elapsedMs, dropped, retriedBulks.get()));
+    }
+
+    private static long loadCheckpoint(File file, String queuePath) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        Properties checkpoint = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            checkpoint.load(in);
+        }
+        if (!queuePath.equals(checkpoint.getProperty("queue"))) {
+            throw new IOException("The checkpoint " + file + " is of another queue, " + checkpoint.getProperty("queue"));
+        }
+        try {
+            return Long.parseLong(checkpoint.getProperty("nextIndex"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void saveCheckpoint(File file, String queuePath) {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("queue", queuePath);
+        synchronized (doneRanges) {
+            checkpoint.setProperty("nextIndex", String.valueOf(checkpointIndex));
+        }
+        File tmpFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            try (OutputStream fileOut = new FileOutputStream(tmpFile)) {
+                checkpoint.store(fileOut, "Logz.io disk queue replay");
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            out.println("Could not save the checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static byte[] toNewLineSeparatedByteArray(List<byte[]> bulk) {
+        int size = 0;
+        for (byte[] log : bulk) {
+            size += log.length + NEW_LINE.length;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+        for (byte[] log : bulk) {
+            bos.write(log, 0, log.length);
+            bos.write(NEW_LINE, 0, NEW_LINE.length);
+        }
+        return bos.toByteArray();
+    }
+
+    private static ThreadFactory daemonThreadFactory() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, QueueReplay.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static class Options {
+
+        String queueDir;
+        String type = "java";
+        String token;
+        String url;
+        String checkpoint;
+        int parallelism = 4;
+        int bulkSizeBytes = AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES;
+        int rate;
+        int maxRetries = 5;
+        int progressIntervalSec = 10;
+        int connectTimeoutMs = 10 * 1000;
+        int socketTimeoutMs = 10 * 1000;
+        boolean compress = true;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--no-compress")) {
+                    options.compress = false;
+                    continue;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--queue-dir": options.queueDir = value; break;
+                    case "--type": options.type = value; break;
+                    case "--token": options.token = value; break;
+                    case "--url": options.url = value; break;
+                    case "--checkpoint": options.checkpoint = value; break;
+                    case "--parallelism": options.parallelism = positive(arg, value); break;
+                    case "--bulk-size-bytes": options.bulkSizeBytes = positive(arg, value); break;
+                    case "--rate": options.rate = Math.max(0, integer(arg, value)); break;
+                    case "--max-retries": options.maxRetries = Math.max(0, integer(arg, value)); break;
+                    case "--progress-interval-sec": options.progressIntervalSec = positive(arg, value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (options.queueDir == null || options.token == null) {
+                throw new IllegalArgumentException("--queue-dir and --token are required");
+            }
+            return options;
+        }
+
+        File getCheckpointFile() {
+            return checkpoint != null ? new File(checkpoint) : new File(queueDir, type + CHECKPOINT_SUFFIX);
+        }
+
+        private static int positive(String name, String value) {
+            int number = integer(name, value);
+            if (number <= 0) {
+                throw new IllegalArgumentException(name + " should be a positive number");
+            }
+            return number;
+        }
+
+        private static int integer(String name, String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " should be a number, got " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.logz.log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.logz.sender.LogsQueue;
+
+/**
+ * Keeps the logs left in an in-memory queue across restarts.
+ * <p>
+ * The file starts with a magic number followed by length prefixed encoded logs. It is written to a temporary file,
+ * synced to the disk and moved in place, so a crash while saving never leaves a half written snapshot behind. When
+ * saving fails the logs are put back in the queue; a snapshot that can't be read is moved aside for inspection.
+ */
+class QueueSnapshot {
+
+    static final String CORRUPT_SUFFIX = ".corrupt";
+    private static final int MAGIC = 0x4C5A5131; // "LZQ1"
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    QueueSnapshot(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Moves everything left in the queue to the snapshot file.
+     *
+     * @return the number of logs saved
+     * @throws IOException if the snapshot couldn't be written, the logs are back in the queue
+     */
+    int save(LogsQueue queue) throws IOException {
+        if (queue.isEmpty()) {
+            return 0;
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+        File tmpFile = new File(parent, file.getName() + ".tmp");
+        List<byte[]> saved = new ArrayList<>();
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tmpFile);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                byte[] log;
+                while ((log = queue.dequeue()) != null) {
+                    saved.add(log);
+                    out.writeInt(log.length);
+                    out.write(log);
+                }
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            saved.forEach(queue::enqueue);
+            Files.deleteIfExists(tmpFile.toPath());
+            throw e;
+        }
+        return saved.size();
+    }
+
+    /**
+     * Enqueues the logs of the snapshot file, if there is one, and deletes it. Logs that don't fit in the queue are
+     * dropped and counted, without a warning per log.
+     *
+     * @throws IOException if the snapshot can't be read, it is moved aside with {@link #CORRUPT_SUFFIX} and the logs
+     *                     read before the error stay in the queue
+     */
+    Restored restore(InMemoryLogsQueue queue) throws IOException {
+        if (!file.exists()) {
+            return new Restored(0, 0);
+        }
+        int restored = 0;
+        int dropped = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a queue snapshot: " + file);
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0) {
+                    throw new IOException("Corrupted queue snapshot: " + file);
+                }
+                byte[] log = new byte[length];
+                in.readFully(log);
+                if (queue.offer(log)) {
+                    restored++;
+                } else {
+                    dropped++;
+                }
+            }
+        } catch (IOException e) {
+            File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+            try {
+                Files.move(file.toPath(), corrupt.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException moveError) {
+                e.addSuppressed(moveError);
+                throw e;
+            }
+            throw new IOException(e.getMessage() + ", moved it to " + corrupt + " after restoring " + restored + " logs", e);
+        }
+        Files.deleteIfExists(file.toPath());
+        return new Restored(restored, dropped);
+    }
+
+    static class Restored {
+
+        private final int restored;
+        private final int dropped;
+
+        Restored(int restored, int dropped) {
+            this.restored = restored;
+            this.dropped = dropped;
+        }
+
+        int getRestored() {
+            return restored;
+        }
+
+        /**
+         * @return the logs of the snapshot that didn't fit in the queue
+         */
+        int getDropped() {
+            return dropped;
+        }
+    }
+}
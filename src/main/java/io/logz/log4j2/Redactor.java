@@ -0,0 +1,390 @@
+package io.logz.log4j2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Masks sensitive values (emails, card numbers, tokens, configured literals and a configured pattern) in log text.
+ * <p>
+ * Literals are compiled into an Aho-Corasick automaton and the built-in rules are matched by small scanners called
+ * from the same left to right pass over the text, so the cost barely grows with the number of rules. The configured
+ * pattern, if any, is a single regular expression run once over the text. Text without matches is returned as is,
+ * without copying.
+ */
+class Redactor {
+
+    static final String DEFAULT_MASK = "[REDACTED]";
+
+    private static final int MIN_CARD_DIGITS = 13;
+    private static final int MAX_CARD_DIGITS = 19;
+    private static final String BEARER = "bearer ";
+    private static final int ASCII = 128;
+
+    private final boolean email;
+    private final boolean creditCard;
+    private final boolean bearerToken;
+    private final boolean jwt;
+    private final Pattern pattern;
+    private final String mask;
+
+    // Aho-Corasick automaton, state 0 is the root
+    private final char[][] transitionChars;
+    private final int[][] transitionStates;
+    private final int[] failure;
+    private final int[] matchLength;
+    // Transitions of every state for ASCII chars with the failure links already followed, so they take a single lookup
+    private final int[] asciiTransitions;
+
+    private Redactor(List<String> rules, List<String> literals, Pattern pattern, String mask) {
+        this.email = rules.contains("email");
+        this.creditCard = rules.contains("creditcard");
+        this.bearerToken = rules.contains("bearertoken");
+        this.jwt = rules.contains("jwt");
+        this.pattern = pattern;
+        this.mask = mask;
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        lengths.add(0);
+        for (String literal : literals) {
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                Integer next = trie.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    lengths.add(0);
+                    trie.get(state).put(literal.charAt(i), next);
+                }
+                state = next;
+            }
+            lengths.set(state, literal.length());
+        }
+
+        int states = trie.size();
+        transitionChars = new char[states][];
+        transitionStates = new int[states][];
+        failure = new int[states];
+        matchLength = new int[states];
+        for (int state = 0; state < states; state++) {
+            TreeMap<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionStates[state] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionStates[state][i] = transition.getValue();
+                i++;
+            }
+            matchLength[state] = lengths.get(state);
+        }
+        // Breadth first, so the failure state of a parent is known before its children
+        Deque<Integer> queue = new ArrayDeque<>();
+        List<Integer> breadthFirstOrder = new ArrayList<>();
+        for (int child : transitionStates[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            breadthFirstOrder.add(state);
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                int child = transitionStates[state][i];
+                int fallback = failure[state];
+                int next;
+                while ((next = transition(fallback, transitionChars[state][i])) < 0 && fallback != 0) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = next < 0 ? 0 : next;
+                // the longest literal ending here may be a suffix of this state's own literal
+                matchLength[child] = Math.max(matchLength[child], matchLength[failure[child]]);
+                queue.add(child);
+            }
+        }
+
+        asciiTransitions = new int[states * ASCII];
+        for (char c = 0; c < ASCII; c++) {
+            asciiTransitions[c] = Math.max(0, transition(0, c));
+        }
+        for (int state : breadthFirstOrder) {
+            for (char c = 0; c < ASCII; c++) {
+                int next = transition(state, c);
+                asciiTransitions[state * ASCII + c] = next >= 0 ? next : asciiTransitions[failure[state] * ASCII + c];
+            }
+        }
+    }
+
+    /**
+     * @param rules comma separated built-in rules: email, creditCard, bearerToken and jwt
+     * @param literals comma separated literal values
+     * @param pattern a regular expression
+     * @param mask the text replacing every match, {@value #DEFAULT_MASK} if null
+     * @return null if nothing is configured to be redacted
+     * @throws IllegalArgumentException if a rule is unknown or the pattern is invalid
+     */
+    static Redactor create(String rules, String literals, String pattern, String mask) {
+        List<String> ruleNames = split(rules);
+        for (int i = 0; i < ruleNames.size(); i++) {
+            String rule = ruleNames.get(i).toLowerCase(Locale.ROOT);
+            if (!Arrays.asList("email", "creditcard", "bearertoken", "jwt").contains(rule)) {
+                throw new IllegalArgumentException("Unknown redaction rule " + ruleNames.get(i) + ", expected email, creditCard, bearerToken or jwt");
+            }
+            ruleNames.set(i, rule);
+        }
+        List<String> literalValues = split(literals);
+        Pattern compiledPattern = pattern == null || pattern.isEmpty() ? null : Pattern.compile(pattern);
+        if (ruleNames.isEmpty() && literalValues.isEmpty() && compiledPattern == null) {
+            return null;
+        }
+        return new Redactor(ruleNames, literalValues, compiledPattern, mask == null ? DEFAULT_MASK : mask);
+    }
+
+    String redact(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        Matches matches = new Matches();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (transitionChars.length > 1) {
+                if (c < ASCII) {
+                    state = asciiTransitions[state * ASCII + c];
+                } else {
+                    int next;
+                    while ((next = transition(state, c)) < 0 && state != 0) {
+                        state = failure[state];
+                    }
+                    state = next < 0 ? 0 : next;
+                }
+                if (matchLength[state] > 0) {
+                    matches.add(i + 1 - matchLength[state], i + 1);
+                }
+            }
+            if (c == '@' && email) {
+                matchEmail(text, i, matches);
+            } else if (c >= '0' && c <= '9' && creditCard) {
+                matchCreditCard(text, i, matches);
+            } else if ((c == 'B' || c == 'b') && bearerToken) {
+                matchBearerToken(text, i, matches);
+            } else if (c == 'e' && jwt) {
+                matchJwt(text, i, matches);
+            }
+        }
+        if (pattern != null) {
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    matches.add(matcher.start(), matcher.end());
+                }
+            }
+        }
+        return matches.size == 0 ? text : matches.apply(text, mask);
+    }
+
+    private int transition(int state, char c) {
+        char[] chars = transitionChars[state];
+        if (chars.length < 8) {
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return transitionStates[state][i];
+                }
+            }
+            return -1;
+        }
+        int i = Arrays.binarySearch(chars, c);
+        return i < 0 ? -1 : transitionStates[state][i];
+    }
+
+    private static void matchEmail(String text, int at, Matches matches) {
+        int start = at;
+        while (start > 0 && isEmailLocalChar(text.charAt(start - 1))) {
+            start--;
+        }
+        int end = at + 1;
+        int lastDot = -1;
+        while (end < text.length() && isDomainChar(text.charAt(end))) {
+            if (text.charAt(end) == '.') {
+                lastDot = end;
+            }
+            end++;
+        }
+        while (end > at + 1 && text.charAt(end - 1) == '.') {
+            end--;
+            lastDot = text.lastIndexOf('.', end - 1);
+        }
+        if (start < at && lastDot > at + 1 && end - lastDot > 2) {
+            matches.add(start, end);
+        }
+    }
+
+    private static void matchCreditCard(String text, int at, Matches matches) {
+        if (at > 0 && Character.isLetterOrDigit(text.charAt(at - 1))) {
+            return;
+        }
+        int digits = 0;
+        int end = at;
+        int i = at;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits == MAX_CARD_DIGITS) {
+                    return;
+                }
+                digits++;
+                end = ++i;
+            } else if ((c == ' ' || c == '-') && i + 1 < text.length() && Character.isDigit(text.charAt(i + 1)) && i > at) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (digits < MIN_CARD_DIGITS || (end < text.length() && Character.isLetter(text.charAt(end)))) {
+            return;
+        }
+        // Luhn checksum, doubling every second digit from the right
+        int sum = 0;
+        boolean doubled = false;
+        for (int d = end - 1; d >= at; d--) {
+            char c = text.charAt(d);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int value = c - '0';
+            if (doubled) {
+                value *= 2;
+                if (value > 9) {
+                    value -= 9;
+                }
+            }
+            sum += value;
+            doubled = !doubled;
+        }
+        if (sum % 10 == 0) {
+            matches.add(at, end);
+        }
+    }
+
+    private static void matchBearerToken(String text, int at, Matches matches) {
+        if (!text.regionMatches(true, at, BEARER, 0, BEARER.length())) {
+            return;
+        }
+        int start = at + BEARER.length();
+        int end = start;
+        while (end < text.length() && isTokenChar(text.charAt(end))) {
+            end++;
+        }
+        if (end > start) {
+            matches.add(start, end);
+        }
+    }
+
+    private static void matchJwt(String text, int at, Matches matches) {
+        if (!text.startsWith("eyJ", at) || (at > 0 && isTokenChar(text.charAt(at - 1)))) {
+            return;
+        }
+        int dots = 0;
+        int end = at;
+        while (end < text.length()) {
+            char c = text.charAt(end);
+            if (c == '.') {
+                if (end == at || text.charAt(end - 1) == '.') {
+                    return;
+                }
+                dots++;
+            } else if (!isBase64UrlChar(c)) {
+                break;
+            }
+            end++;
+        }
+        if (dots == 2 && text.charAt(end - 1) != '.') {
+            matches.add(at, end);
+        }
+    }
+
+    private static boolean isEmailLocalChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '.' || c == '_' || c == '%' || c == '+' || c == '-';
+    }
+
+    private static boolean isDomainChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '.' || c == '-';
+    }
+
+    private static boolean isTokenChar(char c) {
+        return isBase64UrlChar(c) || c == '.' || c == '~' || c == '+' || c == '/' || c == '=';
+    }
+
+    private static boolean isBase64UrlChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static List<String> split(String values) {
+        List<String> result = new ArrayList<>();
+        if (values != null) {
+            for (String value : values.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    result.add(value.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Matched ranges, merged when they overlap.
+     */
+    private static class Matches {
+
+        private int[] starts;
+        private int[] ends;
+        private int size;
+
+        void add(int start, int end) {
+            if (starts == null) {
+                starts = new int[4];
+                ends = new int[4];
+            } else if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            // matches mostly come in order, keep the ranges sorted by start
+            int i = size;
+            while (i > 0 && starts[i - 1] > start) {
+                starts[i] = starts[i - 1];
+                ends[i] = ends[i - 1];
+                i--;
+            }
+            starts[i] = start;
+            ends[i] = end;
+            size++;
+        }
+
+        String apply(String text, String mask) {
+            StringBuilder redacted = new StringBuilder(text.length());
+            int copied = 0;
+            int i = 0;
+            while (i < size) {
+                int start = starts[i];
+                int end = ends[i];
+                while (++i < size && starts[i] <= end) {
+                    end = Math.max(end, ends[i]);
+                }
+                redacted.append(text, copied, start).append(mask);
+                copied = end;
+            }
+            return redacted.append(text, copied, text.length()).toString();
+        }
+    }
+}
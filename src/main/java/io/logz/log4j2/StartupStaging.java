@@ -0,0 +1,49 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bounded buffer holding the logs appended while a non-blocking start is still running in the background.
+ * Logs are kept as formatted messages, they are serialized once the appender knows its hostname; logs encoded by a
+ * layout are kept encoded. When the buffer is full further logs are dropped.
+ */
+class StartupStaging<T> {
+
+    private final int capacity;
+    private final List<T> logs = new ArrayList<>();
+    private boolean open = true;
+    private long dropped;
+
+    StartupStaging(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false if the staging was already closed and the log should be shipped directly
+     */
+    synchronized boolean offer(T log) {
+        if (!open) {
+            return false;
+        }
+        if (logs.size() >= capacity) {
+            dropped++;
+        } else {
+            logs.add(log);
+        }
+        return true;
+    }
+
+    /**
+     * Hands the staged logs to the sink, in the order they were appended. Logs offered afterwards are refused.
+     *
+     * @return the number of logs dropped because the staging was full
+     */
+    synchronized long close(Consumer<T> sink) {
+        open = false;
+        logs.forEach(sink);
+        logs.clear();
+        return dropped;
+    }
+}
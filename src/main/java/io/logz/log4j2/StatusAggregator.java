@@ -0,0 +1,223 @@
+package io.logz.log4j2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.logz.sender.SenderStatusReporter;
+
+/**
+ * Rate limits the warnings and errors reported while shipping, so a listener outage doesn't print a status line
+ * (often with a stack trace) per failed bulk.
+ * <p>
+ * Messages are grouped in categories by level and text, up to the first {@code ": "} and with numbers ignored, the rest
+ * of the text being the cause. A leading {@code "Logz.io: "}, shared by many unrelated messages, is skipped first. Only
+ * the first message of each category is reported in a summary interval; the others are counted and reported as a single
+ * line when {@link #summarize()} is called, with the last cause seen. Info messages are always reported. The counts of
+ * all the messages and the last error are kept for the metrics.
+ */
+class StatusAggregator implements SenderStatusReporter {
+
+    static final int MAX_CATEGORIES = 256;
+    static final int MAX_KEY_LENGTH = 200;
+
+    private static final String OTHER_MESSAGES = "Other messages";
+    private static final String LOGZIO_PREFIX = "Logz.io: ";
+
+    private final SenderStatusReporter out;
+    private final Map<String, Category> categories = new ConcurrentHashMap<>();
+    private final AtomicLong warnings = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private volatile String lastError;
+    private volatile long intervalStartNanos = System.nanoTime();
+
+    StatusAggregator(SenderStatusReporter out) {
+        this.out = out;
+    }
+
+    @Override
+    public void error(String msg) {
+        error(msg, null);
+    }
+
+    @Override
+    public void error(String msg, Throwable e) {
+        errors.incrementAndGet();
+        lastError = e == null ? msg : msg + " (" + e + ")";
+        report(true, msg, e);
+    }
+
+    @Override
+    public void warning(String msg) {
+        warning(msg, null);
+    }
+
+    @Override
+    public void warning(String msg, Throwable e) {
+        warnings.incrementAndGet();
+        report(false, msg, e);
+    }
+
+    @Override
+    public void info(String msg) {
+        out.info(msg);
+    }
+
+    @Override
+    public void info(String msg, Throwable e) {
+        out.info(msg, e);
+    }
+
+    /**
+     * Reports the messages suppressed since the last summary, one line per category, and forgets the categories that
+     * had no message.
+     */
+    void summarize() {
+        long now = System.nanoTime();
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(now - intervalStartNanos));
+        intervalStartNanos = now;
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            Category category = entry.getValue();
+            Summary summary = category.reset();
+            if (summary == null) {
+                categories.remove(entry.getKey(), category);
+                continue;
+            }
+            if (summary.suppressed == 0) {
+                continue;
+            }
+            String line = summary.suppressed + " more " + (category.error ? "errors" : "warnings") + " like \""
+                    + summary.firstMessage + "\" in the last " + seconds + " s"
+                    + (summary.lastCause == null ? "" : ", last cause: " + summary.lastCause);
+            if (category.error) {
+                out.error(line);
+            } else {
+                out.warning(line);
+            }
+        }
+    }
+
+    long getWarnings() {
+        return warnings.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getSuppressed() {
+        return suppressed.get();
+    }
+
+    String getLastError() {
+        return lastError;
+    }
+
+    int getCategories() {
+        return categories.size();
+    }
+
+    private void report(boolean error, String msg, Throwable e) {
+        String text = msg == null ? "null" : msg;
+        String categorized = text.startsWith(LOGZIO_PREFIX) ? text.substring(LOGZIO_PREFIX.length()) : text;
+        int separator = categorized.indexOf(": ");
+        String key = (error ? "E " : "W ") + normalize(separator == -1 ? categorized : categorized.substring(0, separator));
+        String cause = e != null ? e.toString() : separator == -1 ? null : categorized.substring(separator + 2);
+        while (true) {
+            Category category = categories.get(key);
+            if (category == null) {
+                if (categories.size() >= MAX_CATEGORIES) {
+                    key = (error ? "E " : "W ") + OTHER_MESSAGES;
+                }
+                category = categories.computeIfAbsent(key, k -> new Category(error));
+            }
+            switch (category.add(text, cause)) {
+                case REPORT:
+                    if (error) {
+                        out.error(msg, e);
+                    } else {
+                        out.warning(msg, e);
+                    }
+                    return;
+                case SUPPRESSED:
+                    suppressed.incrementAndGet();
+                    return;
+                default:
+                    // the category was forgotten in between, a new one is created
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        StringBuilder key = new StringBuilder(Math.min(text.length(), MAX_KEY_LENGTH));
+        for (int i = 0; i < text.length() && key.length() < MAX_KEY_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (key.length() == 0 || key.charAt(key.length() - 1) != '#') {
+                    key.append('#');
+                }
+            } else {
+                key.append(c);
+            }
+        }
+        return key.toString();
+    }
+
+    private enum AddResult { REPORT, SUPPRESSED, FORGOTTEN }
+
+    private static class Summary {
+
+        private final String firstMessage;
+        private final long suppressed;
+        private final String lastCause;
+
+        Summary(String firstMessage, long suppressed, String lastCause) {
+            this.firstMessage = firstMessage;
+            this.suppressed = suppressed;
+            this.lastCause = lastCause;
+        }
+    }
+
+    private static class Category {
+
+        private final boolean error;
+        private String firstMessage;
+        private long suppressed;
+        private String lastCause;
+        private boolean forgotten;
+
+        Category(boolean error) {
+            this.error = error;
+        }
+
+        synchronized AddResult add(String message, String cause) {
+            if (forgotten) {
+                return AddResult.FORGOTTEN;
+            }
+            lastCause = cause;
+            if (firstMessage == null) {
+                firstMessage = message;
+                return AddResult.REPORT;
+            }
+            suppressed++;
+            return AddResult.SUPPRESSED;
+        }
+
+        /**
+         * @return what happened in the interval, or null if nothing did and the category is forgotten
+         */
+        synchronized Summary reset() {
+            if (firstMessage == null) {
+                forgotten = true;
+                return null;
+            }
+            Summary summary = new Summary(firstMessage, suppressed, lastCause);
+            firstMessage = null;
+            suppressed = 0;
+            lastCause = null;
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import io.logz.sender.HttpsRequestConfiguration;
+
+/**
+ * Routes logs to other Logz.io token/type destinations than the appender's own, by the value of an MDC key or the name
+ * of the log's marker, looked up in a routing table compiled when the appender is configured.
+ * <p>
+ * Each destination gets its own queue and {@link BulkShipper}, created by the {@link ShipperFactory} when the first
+ * log is routed to it and evicted once it stayed idle with an empty queue for {@code idleTimeoutSec}. The queue is
+ * closed once the shipper stopped. All destinations share the same
+ * executors, so the number of threads doesn't grow with the number of tenants. A shipper never waits on the shared
+ * scheduler threads, and is stopped by a final drain running on them.
+ */
+class TenantRouter {
+
+    static final int SHIPPING_THREADS = 4;
+    private static final int FINAL_DRAIN_TIMEOUT_SEC = 20;
+    private static final Logger statusLogger = StatusLogger.getLogger();
+
+    private final Map<String, Destination> routes;
+    private final ShipperFactory shipperFactory;
+    private final long idleTimeoutNanos;
+    private final ConcurrentMap<Destination, Tenant> tenants = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService tasksExecutor;
+    private final ExecutorService bulkExecutor;
+    private final ScheduledFuture<?> evictionTask;
+
+    TenantRouter(Map<String, Destination> routes, int idleTimeoutSec, ShipperFactory shipperFactory) {
+        this.routes = routes;
+        this.shipperFactory = shipperFactory;
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSec);
+        this.tasksExecutor = Executors.newScheduledThreadPool(2,
+                Log4jThreadFactory.createDaemonThreadFactory(TenantRouter.class.getSimpleName()));
+        this.bulkExecutor = Executors.newFixedThreadPool(SHIPPING_THREADS,
+                Log4jThreadFactory.createDaemonThreadFactory(TenantRouter.class.getSimpleName()));
+        long evictionIntervalSec = Math.max(1, Math.min(idleTimeoutSec, 60));
+        this.evictionTask = tasksExecutor.scheduleWithFixedDelay(this::evictIdleTenants, evictionIntervalSec, evictionIntervalSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the destination routed to by the given MDC value or marker name, or null for the appender's own destination
+     */
+    Destination resolve(String routingValue) {
+        return routingValue == null ? null : routes.get(routingValue);
+    }
+
+    void send(Destination destination, byte[] log) {
+        while (!tenants.computeIfAbsent(destination, this::newTenant).offer(log)) {
+            // the tenant was evicted in between, a new one is created
+        }
+    }
+
+    /**
+     * Drains the queues of all the destinations right away.
+     */
+    void flush() {
+        for (Tenant tenant : tenants.values()) {
+            try {
+                tasksExecutor.execute(tenant.shipper::drainQueueAndSend);
+            } catch (RejectedExecutionException e) {
+                // stopping, the final drain ships what is left
+            }
+        }
+    }
+
+    /**
+     * @return true if the queues of all the destinations are empty and no bulk is being sent
+     */
+    boolean isDrained() {
+        for (Tenant tenant : tenants.values()) {
+            if (!tenant.shipper.isDrained()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void stop() {
+        evictionTask.cancel(false);
+        List<Tenant> stopped = new ArrayList<>(tenants.values());
+        tenants.clear();
+        CompletableFuture<?>[] finalDrains = stopped.stream()
+                .map(tenant -> tenant.shipper.stopAsync())
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(finalDrains).get(FINAL_DRAIN_TIMEOUT_SEC, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // quitting with what could not be drained
+        } finally {
+            tasksExecutor.shutdownNow();
+            bulkExecutor.shutdownNow();
+            stopped.forEach(Tenant::closeQueue);
+        }
+    }
+
+    int getActiveTenants() {
+        return tenants.size();
+    }
+
+    private Tenant newTenant(Destination destination) {
+        BulkShipper shipper = shipperFactory.create(destination, tasksExecutor, bulkExecutor);
+        shipper.start();
+        return new Tenant(shipper);
+    }
+
+    private void evictIdleTenants() {
+        long now = System.nanoTime();
+        for (Destination destination : tenants.keySet()) {
+            Tenant[] evicted = new Tenant[1];
+            tenants.computeIfPresent(destination, (key, tenant) -> {
+                if (tenant.evictIfIdle(now, idleTimeoutNanos)) {
+                    evicted[0] = tenant;
+                    return null;
+                }
+                return tenant;
+            });
+            if (evicted[0] != null) {
+                // Its queue is empty, stopping doesn't wait on this scheduler thread
+                Tenant tenant = evicted[0];
+                tenant.shipper.stopAsync().whenComplete((result, error) -> tenant.closeQueue());
+            }
+        }
+    }
+
+    interface ShipperFactory {
+        BulkShipper create(Destination destination, ScheduledExecutorService tasksExecutor, ExecutorService bulkExecutor);
+    }
+
+    static class Destination {
+
+        private final String token;
+        private final String type;
+        private final List<HttpsRequestConfiguration> configurations;
+
+        /**
+         * @param configurations one per listener URL, in failover order
+         */
+        Destination(String token, String type, List<HttpsRequestConfiguration> configurations) {
+            this.token = token;
+            this.type = type;
+            this.configurations = configurations;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        List<HttpsRequestConfiguration> getConfigurations() {
+            return configurations;
+        }
+
+        /**
+         * @return a name telling destinations apart without showing the token, for the directory of a disk queue. The
+         *         token is hashed with SHA-256, so two tokens never end up sharing a queue
+         */
+        String getQueueName() {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+                StringBuilder name = new StringBuilder(type.length() + 1 + digest.length * 2).append(type).append('-');
+                for (byte b : digest) {
+                    name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return name.toString();
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Destination)) {
+                return false;
+            }
+            Destination that = (Destination) o;
+            return token.equals(that.token) && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(token, type);
+        }
+    }
+
+    private static class Tenant {
+
+        private final BulkShipper shipper;
+        private long lastAppendNanos = System.nanoTime();
+        private boolean evicted;
+
+        Tenant(BulkShipper shipper) {
+            this.shipper = shipper;
+        }
+
+        synchronized boolean offer(byte[] log) {
+            if (evicted) {
+                return false;
+            }
+            lastAppendNanos = System.nanoTime();
+            shipper.send(log);
+            return true;
+        }
+
+        synchronized boolean evictIfIdle(long now, long idleTimeoutNanos) {
+            if (now - lastAppendNanos >= idleTimeoutNanos && shipper.isDrained()) {
+                evicted = true;
+            }
+            return evicted;
+        }
+
+        void closeQueue() {
+            try {
+                shipper.getLogsQueue().close();
+            } catch (IOException e) {
+                statusLogger.error("Couldn't close the queue of a routed destination: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estimates which keys (logger names or message templates) produce the most shipped bytes, in constant memory.
+ * <p>
+ * Bytes and counts per key are kept in two count-min sketches updated with atomic adds. Keys whose estimated bytes
+ * reach the smallest of the current top ones are kept as candidates; when there are twice as many candidates as
+ * reported keys, the ones with the least bytes are pruned. Estimates can only be above the real volume, by at most
+ * a small fraction of the total volume.
+ */
+class TopTalkers {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 2048;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int size;
+    private final AtomicLongArray bytesSketch = new AtomicLongArray(DEPTH * WIDTH);
+    private final AtomicLongArray countSketch = new AtomicLongArray(DEPTH * WIDTH);
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+    private final ReentrantLock pruneLock = new ReentrantLock();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalCount = new AtomicLong();
+    private volatile long candidateThreshold;
+
+    TopTalkers(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    void record(String key, long bytes) {
+        if (key == null) {
+            return;
+        }
+        long hash = hash(key);
+        long estimatedBytes = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(hash, row);
+            estimatedBytes = Math.min(estimatedBytes, bytesSketch.addAndGet(index, bytes));
+            countSketch.incrementAndGet(index);
+        }
+        totalBytes.addAndGet(bytes);
+        totalCount.incrementAndGet();
+
+        if (estimatedBytes >= candidateThreshold && candidates.putIfAbsent(key, Boolean.TRUE) == null
+                && candidates.size() > 2 * size && pruneLock.tryLock()) {
+            try {
+                prune();
+            } finally {
+                pruneLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the keys with the most estimated bytes, the most first
+     */
+    List<Talker> getTop() {
+        List<Talker> talkers = new ArrayList<>();
+        for (String key : candidates.keySet()) {
+            talkers.add(estimate(key));
+        }
+        talkers.sort(Comparator.comparingLong(Talker::getBytes).reversed());
+        return talkers.size() > size ? new ArrayList<>(talkers.subList(0, size)) : talkers;
+    }
+
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    long getTotalCount() {
+        return totalCount.get();
+    }
+
+    int getCandidates() {
+        return candidates.size();
+    }
+
+    void reset() {
+        pruneLock.lock();
+        try {
+            for (int i = 0; i < DEPTH * WIDTH; i++) {
+                bytesSketch.set(i, 0);
+                countSketch.set(i, 0);
+            }
+            candidates.clear();
+            candidateThreshold = 0;
+            totalBytes.set(0);
+            totalCount.set(0);
+        } finally {
+            pruneLock.unlock();
+        }
+    }
+
+    private void prune() {
+        List<Talker> talkers = new ArrayList<>();
+        for (String key : candidates.keySet()) {
+            talkers.add(estimate(key));
+        }
+        talkers.sort(Comparator.comparingLong(Talker::getBytes).reversed());
+        for (int i = size; i < talkers.size(); i++) {
+            candidates.remove(talkers.get(i).getKey());
+        }
+        candidateThreshold = talkers.get(size - 1).getBytes();
+    }
+
+    private Talker estimate(String key) {
+        long hash = hash(key);
+        long bytes = Long.MAX_VALUE;
+        long count = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(hash, row);
+            bytes = Math.min(bytes, bytesSketch.get(index));
+            count = Math.min(count, countSketch.get(index));
+        }
+        return new Talker(key, bytes, count);
+    }
+
+    // The row hashes are derived from the two halves of a single hash
+    private static int index(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * WIDTH + Math.floorMod(h1 + row * h2, WIDTH);
+    }
+
+    // FNV-1a
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    static class Talker {
+
+        private final String key;
+        private final long bytes;
+        private final long count;
+
+        Talker(String key, long bytes, long count) {
+            this.key = key;
+            this.bytes = bytes;
+            this.count = count;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": " + bytes + " bytes, " + count + " logs";
+        }
+    }
+}
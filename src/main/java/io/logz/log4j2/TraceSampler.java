@@ -0,0 +1,271 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.Level;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+/**
+ * Keeps the logs below a level only for the traces sampled by OpenTelemetry.
+ * <p>
+ * Logs of unsampled traces below the level are held for a short while in a per trace buffer. If a log at or above
+ * the level is appended in the same trace meanwhile, the buffered logs are released (in their original order) and the
+ * rest of the trace's logs are kept until the buffer expires, otherwise the buffered logs are dropped.
+ * Logs appended outside of a trace are always kept.
+ * <p>
+ * Buffers are bounded by a number of traces, of logs per trace and of bytes overall. The first two are known before
+ * a log is encoded, so a log that wouldn't fit is dropped by {@link #decide} and never encoded. When the buffered
+ * bytes go over their limit, the buffers of the oldest traces are dropped to make room.
+ */
+class TraceSampler {
+
+    static final int MAX_BUFFERED_TRACES = 10000;
+
+    enum Decision {
+        /** Ship the log */
+        KEEP,
+        /** Ship the log, after releasing the logs buffered for its trace */
+        RELEASE,
+        /** Buffer the log until its trace is released or the buffer expires */
+        BUFFER,
+        /** Drop the log */
+        DROP
+    }
+
+    private final Level level;
+    private final long bufferNanos;
+    private final int maxLogsPerTrace;
+    private final long maxBufferedBytes;
+    private final Map<String, TraceBuffer> traces = new ConcurrentHashMap<>();
+    // Buffers in the order they were created, the oldest is evicted first
+    private final Queue<TraceBuffer> oldestFirst = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final AtomicLong droppedLogs = new AtomicLong();
+    private volatile long nextSweepNanos;
+
+    TraceSampler(Level level, long bufferMs, int maxLogsPerTrace, long maxBufferedBytes) {
+        this.level = level;
+        this.bufferNanos = TimeUnit.MILLISECONDS.toNanos(bufferMs);
+        this.maxLogsPerTrace = maxLogsPerTrace;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.nextSweepNanos = System.nanoTime() + bufferNanos;
+    }
+
+    Decision decide(Level logLevel, SpanContext spanContext) {
+        if (!spanContext.isValid() || spanContext.isSampled()) {
+            return Decision.KEEP;
+        }
+        long now = System.nanoTime();
+        if (now - nextSweepNanos >= 0) {
+            sweep(now);
+        }
+        if (logLevel.isMoreSpecificThan(level)) {
+            return bufferNanos > 0 ? Decision.RELEASE : Decision.KEEP;
+        }
+        if (bufferNanos == 0) {
+            droppedLogs.incrementAndGet();
+            return Decision.DROP;
+        }
+        TraceBuffer buffer = traces.get(spanContext.getTraceId());
+        if (buffer == null ? traces.size() >= MAX_BUFFERED_TRACES : buffer.isFull(maxLogsPerTrace)) {
+            droppedLogs.incrementAndGet();
+            return Decision.DROP;
+        }
+        return buffer != null && buffer.isReleased() ? Decision.KEEP : Decision.BUFFER;
+    }
+
+    /**
+     * Holds the sending of a log until its trace is released. The limits are checked again, as other threads may have
+     * filled the buffers since the decision was made.
+     *
+     * @param bytes the size of the log, counted against the bytes limit until it is sent or dropped
+     * @return false if the trace was released since the decision was made, and the log should be sent right away
+     */
+    boolean buffer(String traceId, int bytes, Runnable send) {
+        TraceBuffer buffer = traces.get(traceId);
+        if (buffer == null) {
+            if (traces.size() >= MAX_BUFFERED_TRACES) {
+                droppedLogs.incrementAndGet();
+                return true;
+            }
+            buffer = traces.computeIfAbsent(traceId, this::newBuffer);
+        }
+        switch (buffer.add(send, bytes, maxLogsPerTrace)) {
+            case RELEASED:
+                return false;
+            case FULL:
+                droppedLogs.incrementAndGet();
+                return true;
+            default:
+                if (bufferedBytes.addAndGet(bytes) > maxBufferedBytes) {
+                    evictOldest();
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Sends the logs buffered for the trace, and keeps the trace's logs from now on until its buffer expires.
+     */
+    void release(String traceId) {
+        TraceBuffer buffer = traces.computeIfAbsent(traceId, this::newBuffer);
+        List<Runnable> buffered = buffer.release();
+        bufferedBytes.addAndGet(-buffer.takeBytes());
+        buffered.forEach(Runnable::run);
+    }
+
+    long getDroppedLogs() {
+        return droppedLogs.get();
+    }
+
+    int getBufferedTraces() {
+        return traces.size();
+    }
+
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    private TraceBuffer newBuffer(String traceId) {
+        TraceBuffer buffer = new TraceBuffer(traceId, System.nanoTime());
+        oldestFirst.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Drops the buffers of the oldest traces until the buffered bytes are back within the limit. Released buffers
+     * hold no logs and are skipped; they stay in the map so the rest of their trace is still kept.
+     */
+    private void evictOldest() {
+        TraceBuffer oldest;
+        while (bufferedBytes.get() > maxBufferedBytes && (oldest = oldestFirst.poll()) != null) {
+            int dropped = oldest.evict();
+            if (dropped < 0) {
+                continue;
+            }
+            traces.remove(oldest.traceId, oldest);
+            droppedLogs.addAndGet(dropped);
+            bufferedBytes.addAndGet(-oldest.takeBytes());
+        }
+    }
+
+    private void sweep(long now) {
+        if (!sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            nextSweepNanos = now + Math.max(bufferNanos / 2, TimeUnit.MILLISECONDS.toNanos(100));
+            traces.entrySet().removeIf(trace -> {
+                TraceBuffer buffer = trace.getValue();
+                int dropped = buffer.expire(now, bufferNanos);
+                if (dropped < 0) {
+                    return false;
+                }
+                droppedLogs.addAndGet(dropped);
+                bufferedBytes.addAndGet(-buffer.takeBytes());
+                return true;
+            });
+            oldestFirst.removeIf(TraceBuffer::isReleased);
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    private enum AddResult { BUFFERED, RELEASED, FULL }
+
+    private static class TraceBuffer {
+
+        private final String traceId;
+        private final long createdNanos;
+        private List<Runnable> logs = new ArrayList<>();
+        private long bytes;
+        private boolean released;
+        private boolean evicted;
+
+        TraceBuffer(String traceId, long createdNanos) {
+            this.traceId = traceId;
+            this.createdNanos = createdNanos;
+        }
+
+        synchronized boolean isReleased() {
+            return released;
+        }
+
+        synchronized boolean isFull(int maxLogs) {
+            return evicted || logs.size() >= maxLogs;
+        }
+
+        synchronized AddResult add(Runnable send, int logBytes, int maxLogs) {
+            if (released) {
+                return AddResult.RELEASED;
+            }
+            if (evicted || logs.size() >= maxLogs) {
+                return AddResult.FULL;
+            }
+            logs.add(send);
+            bytes += logBytes;
+            return AddResult.BUFFERED;
+        }
+
+        /**
+         * @return the bytes of the logs that left the buffer since the last call
+         */
+        synchronized long takeBytes() {
+            if (!released && !evicted) {
+                return 0;
+            }
+            long taken = bytes;
+            bytes = 0;
+            return taken;
+        }
+
+        synchronized List<Runnable> release() {
+            if (released) {
+                return Collections.emptyList();
+            }
+            released = true;
+            List<Runnable> buffered = logs;
+            logs = Collections.emptyList();
+            return buffered;
+        }
+
+        /**
+         * @return the number of buffered logs dropped if the buffer expired, -1 otherwise
+         */
+        synchronized int expire(long now, long bufferNanos) {
+            if (now - createdNanos < bufferNanos) {
+                return -1;
+            }
+            int dropped = logs.size();
+            logs = Collections.emptyList();
+            released = true;
+            return dropped;
+        }
+
+        /**
+         * Drops the buffered logs, logs added later to this buffer are dropped too.
+         *
+         * @return the number of logs dropped, -1 if the buffer was already released
+         */
+        synchronized int evict() {
+            if (released || evicted) {
+                return -1;
+            }
+            int dropped = logs.size();
+            logs = Collections.emptyList();
+            evicted = true;
+            return dropped;
+        }
+    }
+}
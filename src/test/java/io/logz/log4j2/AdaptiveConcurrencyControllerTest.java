@@ -0,0 +1,93 @@
+package io.logz.log4j2;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveConcurrencyControllerTest {
+    private static final int SOCKET_TIMEOUT_MS = 10 * 1000;
+
+    @Test
+    public void defaultsShipFixedSizeBulks() {
+        // maxInFlightBulks=1 and adaptiveShipping=true, the appender's defaults
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, true, SOCKET_TIMEOUT_MS);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES);
+
+        controller.onFailure();
+        controller.onSuccess(SOCKET_TIMEOUT_MS);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES);
+        assertThat(controller.getDecreases()).isZero();
+    }
+
+    @Test
+    public void growsAdditivelyWhileHealthy() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(4, true, SOCKET_TIMEOUT_MS);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        int initialBulkSize = controller.getBulkSizeBytes();
+
+        controller.onSuccess(10);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(initialBulkSize + AdaptiveConcurrencyController.BULK_SIZE_STEP_BYTES);
+
+        // a full round of successes is needed before growing again
+        controller.onSuccess(10);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+        controller.onSuccess(10);
+        assertThat(controller.getConcurrency()).isEqualTo(3);
+
+        for (int i = 0; i < 100; i++) {
+            controller.onSuccess(10);
+        }
+        assertThat(controller.getConcurrency()).isEqualTo(4);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES);
+    }
+
+    @Test
+    public void backsOffMultiplicativelyOnFailure() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(8, true, SOCKET_TIMEOUT_MS);
+        for (int i = 0; i < 100; i++) {
+            controller.onSuccess(10);
+        }
+        assertThat(controller.getConcurrency()).isEqualTo(8);
+
+        controller.onFailure();
+        assertThat(controller.getConcurrency()).isEqualTo(4);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES / 2);
+
+        for (int i = 0; i < 10; i++) {
+            controller.onFailure();
+        }
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MIN_BULK_SIZE_BYTES);
+    }
+
+    @Test
+    public void latencyRelativeToSocketTimeout() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(8, true, SOCKET_TIMEOUT_MS);
+        controller.onSuccess(10);
+        controller.onSuccess(10);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+
+        // slow but not close to the timeout: hold
+        controller.onSuccess(SOCKET_TIMEOUT_MS / 2);
+        controller.onSuccess(SOCKET_TIMEOUT_MS / 2);
+        assertThat(controller.getConcurrency()).isEqualTo(2);
+
+        // close to the socket timeout: treated as a timeout
+        controller.onSuccess(SOCKET_TIMEOUT_MS - 1);
+        assertThat(controller.getConcurrency()).isEqualTo(1);
+        assertThat(controller.getDecreases()).isEqualTo(1);
+    }
+
+    @Test
+    public void fixedConcurrencyWhenNotAdaptive() {
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(6, false, SOCKET_TIMEOUT_MS);
+        assertThat(controller.getConcurrency()).isEqualTo(6);
+        controller.onFailure();
+        controller.onSuccess(SOCKET_TIMEOUT_MS);
+        assertThat(controller.getConcurrency()).isEqualTo(6);
+        assertThat(controller.getBulkSizeBytes()).isEqualTo(AdaptiveConcurrencyController.MAX_BULK_SIZE_BYTES);
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.logging.log4j.Logger;
 import org.junit.After;
 import org.junit.Before;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
 
@@ -47,9 +48,34 @@ public abstract class BaseLog4jAppenderTest {
         }
     }
 
+    protected LogzioAppender getAppender(Logger log4j2Logger) {
+        return (LogzioAppender) ((org.apache.logging.log4j.core.Logger) log4j2Logger).getAppenders().values().iterator().next();
+    }
+
+    protected void flushAndAwaitDrained(Logger log4j2Logger) {
+        assertThat(getAppender(log4j2Logger).awaitDrained(Duration.ofSeconds(10))).isTrue();
+    }
+
+    // For the flushes triggered by the appender itself, which a flush() would hide
+    protected void awaitReceivedMsgs(int numberOfLogs) {
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (mockListener.getNumberOfReceivedLogs() < numberOfLogs && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        mockListener.assertNumberOfReceivedMsgs(numberOfLogs);
+    }
+
     protected Logger getLogger(Builder logzioAppenderBuilder, String loggerName, String token, String type, int drainTimeout) {
+        return getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout, "http://" + mockListener.getHost() + ":" + mockListener.getPort());
+    }
+
+    protected Logger getLogger(Builder logzioAppenderBuilder, String loggerName, String token, String type, int drainTimeout, String logzioUrl) {
         logzioAppenderBuilder.setLogzioToken(token);
-        logzioAppenderBuilder.setLogzioUrl("http://" + mockListener.getHost() + ":" + mockListener.getPort());
+        logzioAppenderBuilder.setLogzioUrl(logzioUrl);
         logzioAppenderBuilder.setLogzioType(type);
         logzioAppenderBuilder.setDrainTimeoutSec(drainTimeout);
         Logger log4j2Logger =  LogManager.getLogger(loggerName);
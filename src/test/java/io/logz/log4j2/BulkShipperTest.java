@@ -0,0 +1,271 @@
+package io.logz.log4j2;
+
+import io.logz.sender.SenderStatusReporter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkShipperTest {
+
+    @Test
+    public void keepsSeveralBulksInFlight() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(200);
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(4, false, 10 * 1000);
+        BulkShipper shipper = newShipper(transport, controller);
+
+        enqueueLogs(shipper, 4000, 4 * 1024);
+        shipper.drainQueueAndSend();
+        shipper.stop();
+
+        assertThat(transport.receivedLogs.get()).isEqualTo(4000);
+        assertThat(transport.maxConcurrentRequests.get()).isEqualTo(4);
+        assertThat(shipper.getFailedBulks()).isZero();
+    }
+
+    @Test
+    public void slowShippersDontHoldTheSharedSchedulerThread() throws Exception {
+        ScheduledExecutorService tasksExecutor = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService bulkExecutor = Executors.newFixedThreadPool(2);
+        SenderStatusReporter reporter = new NoopReporter();
+        LatencyInjectingTransport slowTransport = new LatencyInjectingTransport(300);
+        LatencyInjectingTransport fastTransport = new LatencyInjectingTransport(0);
+        BulkShipper slow = new BulkShipper(new InMemoryLogsQueue(-1, -1, reporter), slowTransport,
+                new AdaptiveConcurrencyController(1, false, 10 * 1000), new CircuitBreaker(0, 1000, 1000),
+                reporter, 60, false, tasksExecutor, bulkExecutor);
+        BulkShipper fast = new BulkShipper(new InMemoryLogsQueue(-1, -1, reporter), fastTransport,
+                new AdaptiveConcurrencyController(1, false, 10 * 1000), new CircuitBreaker(0, 1000, 1000),
+                reporter, 60, false, tasksExecutor, bulkExecutor);
+
+        // Several bulks, one in flight at a time
+        enqueueLogs(slow, 3, 4 * 1024 * 1024);
+        enqueueLogs(fast, 10, 10);
+        tasksExecutor.submit(slow::drainQueueAndSend).get(100, TimeUnit.MILLISECONDS);
+        tasksExecutor.submit(fast::drainQueueAndSend).get(100, TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + 250;
+        while (fastTransport.receivedLogs.get() < 10 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertThat(fastTransport.receivedLogs.get()).isEqualTo(10);
+        assertThat(slowTransport.receivedLogs.get()).isLessThan(3);
+
+        // The completed bulks schedule the next drains
+        CompletableFuture.allOf(slow.stopAsync(), fast.stopAsync()).get(5, TimeUnit.SECONDS);
+        assertThat(slowTransport.receivedLogs.get()).isEqualTo(3);
+        tasksExecutor.shutdownNow();
+        bulkExecutor.shutdownNow();
+    }
+
+    @Test
+    public void backsOffAndRetriesOnServerErrors() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(50);
+        AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(8, true, 10 * 1000);
+        BulkShipper shipper = newShipper(transport, controller);
+
+        enqueueLogs(shipper, 5000, 1024);
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        int grownConcurrency = controller.getConcurrency();
+        assertThat(grownConcurrency).isGreaterThan(1);
+
+        transport.responseCode = 503;
+        enqueueLogs(shipper, 100, 1024);
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        assertThat(controller.getConcurrency()).isLessThan(grownConcurrency);
+        assertThat(shipper.getFailedBulks()).isGreaterThan(0);
+
+        transport.responseCode = 200;
+        shipper.drainQueueAndSend();
+        shipper.stop();
+        assertThat(transport.receivedLogs.get()).isEqualTo(5100);
+    }
+
+    @Test
+    public void timeoutsAreRetried() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(0);
+        BulkShipper shipper = newShipper(transport, new AdaptiveConcurrencyController(2, true, 10 * 1000));
+
+        transport.failWithTimeout = true;
+        enqueueLogs(shipper, 10, 100);
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        assertThat(transport.receivedLogs.get()).isZero();
+
+        transport.failWithTimeout = false;
+        shipper.drainQueueAndSend();
+        shipper.stop();
+        assertThat(transport.receivedLogs.get()).isEqualTo(10);
+    }
+
+    @Test
+    public void isDrainedOnceTheQueueIsEmptyAndNothingIsInFlight() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(200);
+        BulkShipper shipper = newShipper(transport, new AdaptiveConcurrencyController(1, false, 10 * 1000));
+        assertThat(shipper.isDrained()).isTrue();
+
+        enqueueLogs(shipper, 10, 100);
+        assertThat(shipper.isDrained()).isFalse();
+
+        new Thread(shipper::drainQueueAndSend).start();
+        sleep(50);
+        assertThat(shipper.isDrained()).isFalse();
+
+        waitForInFlight(shipper);
+        assertThat(shipper.isDrained()).isTrue();
+        assertThat(transport.receivedLogs.get()).isEqualTo(10);
+        shipper.stop();
+    }
+
+    @Test
+    public void batchesAreEnqueuedTogether() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(0);
+        BulkShipper shipper = newShipper(transport, new AdaptiveConcurrencyController(2, true, 10 * 1000));
+
+        List<byte[]> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(("{\"message\":\"batched log " + i + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        shipper.send(batch);
+        shipper.drainQueueAndSend();
+        shipper.stop();
+
+        assertThat(transport.receivedLogs.get()).isEqualTo(50);
+    }
+
+    @Test
+    public void openCircuitBreakerStopsSendingAndProbes() {
+        LatencyInjectingTransport transport = new LatencyInjectingTransport(0);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 200, 200);
+        BulkShipper shipper = newShipper(transport, new AdaptiveConcurrencyController(1, false, 10 * 1000), circuitBreaker);
+
+        transport.responseCode = 503;
+        enqueueLogs(shipper, 10, 100);
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        int requestsWhileOpen = transport.requests.get();
+        shipper.drainQueueAndSend();
+        waitForInFlight(shipper);
+        assertThat(transport.requests.get()).isEqualTo(requestsWhileOpen);
+
+        // the probe scheduled at the end of the backoff closes the breaker and ships the queue
+        transport.responseCode = 200;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.receivedLogs.get() < 10 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        shipper.stop();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(transport.receivedLogs.get()).isEqualTo(10);
+    }
+
+    private BulkShipper newShipper(BulkTransport transport, AdaptiveConcurrencyController controller) {
+        return newShipper(transport, controller, new CircuitBreaker(0, 1000, 1000));
+    }
+
+    private BulkShipper newShipper(BulkTransport transport, AdaptiveConcurrencyController controller, CircuitBreaker circuitBreaker) {
+        SenderStatusReporter reporter = new NoopReporter();
+        return new BulkShipper(new InMemoryLogsQueue(-1, -1, reporter), transport, controller, circuitBreaker, reporter, 60, false);
+    }
+
+    private void enqueueLogs(BulkShipper shipper, int count, int size) {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            padding.append('x');
+        }
+        for (int i = 0; i < count; i++) {
+            shipper.send(("{\"message\":\"log " + i + " " + padding + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void waitForInFlight(BulkShipper shipper) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (shipper.getInFlightBulks() > 0 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class LatencyInjectingTransport implements BulkTransport {
+        private final int latencyMs;
+        private final AtomicInteger concurrentRequests = new AtomicInteger();
+        final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+        final AtomicInteger receivedLogs = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int responseCode = 200;
+        volatile boolean failWithTimeout;
+
+        LatencyInjectingTransport(int latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public int send(byte[] bulk) throws IOException {
+            requests.incrementAndGet();
+            int concurrent = concurrentRequests.incrementAndGet();
+            maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+            try {
+                Thread.sleep(latencyMs);
+                if (failWithTimeout) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                if (responseCode == 200) {
+                    receivedLogs.addAndGet(new String(bulk, StandardCharsets.UTF_8).split("\n").length);
+                }
+                return responseCode;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                concurrentRequests.decrementAndGet();
+            }
+        }
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.logz.log4j2;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000, 1000);
+
+        assertThat(circuitBreaker.onFailure()).isZero();
+        assertThat(circuitBreaker.onFailure()).isZero();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.onFailure()).isBetween(500L, 1000L);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+        assertThat(circuitBreaker.getOpens()).isEqualTo(1);
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 1000, 1000);
+
+        circuitBreaker.onFailure();
+        assertThat(circuitBreaker.onSuccess()).isFalse();
+        assertThat(circuitBreaker.onFailure()).isZero();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void halfOpenLetsASingleProbeThrough() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50, 50);
+        circuitBreaker.onFailure();
+
+        Thread.sleep(60);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        assertThat(circuitBreaker.onSuccess()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void backoffGrowsWithEveryFailedProbe() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 20, 80);
+
+        assertThat(circuitBreaker.onFailure()).isBetween(10L, 20L);
+        Thread.sleep(25);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.onFailure()).isBetween(20L, 40L);
+        Thread.sleep(45);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.onFailure()).isBetween(40L, 80L);
+        Thread.sleep(85);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.onFailure()).isBetween(40L, 80L);
+        assertThat(circuitBreaker.getOpens()).isEqualTo(4);
+    }
+
+    @Test
+    public void zeroThresholdDisablesTheBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0, 1000, 1000);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(circuitBreaker.onFailure()).isZero();
+        }
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+}
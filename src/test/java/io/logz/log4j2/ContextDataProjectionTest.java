@@ -0,0 +1,74 @@
+package io.logz.log4j2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.Test;
+
+import io.logz.sender.com.google.gson.JsonObject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContextDataProjectionTest {
+
+    @Test
+    public void addsEveryKeyAsAStringByDefault() {
+        ContextDataProjection projection = new ContextDataProjection(Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyMap(), Collections.emptyMap(), value -> value);
+        SortedArrayStringMap contextData = contextData();
+        contextData.putValue("count", 3);
+
+        JsonObject logMessage = new JsonObject();
+        projection.addTo(contextData, logMessage);
+
+        assertThat(logMessage.toString()).isEqualTo(
+                "{\"count\":\"3\",\"http.method\":\"GET\",\"http.status\":\"200\",\"internal.span\":\"x\",\"requestId\":\"r1\",\"retry\":\"true\",\"user\":\"john\"}");
+    }
+
+    @Test
+    public void includesAndExcludesKeysByNameAndPattern() {
+        ContextDataProjection projection = new ContextDataProjection(Arrays.asList("requestId", "http.*", "us?r"),
+                Collections.singletonList("*.method"), Collections.emptyMap(), Collections.emptyMap(), value -> value);
+
+        JsonObject logMessage = new JsonObject();
+        projection.addTo(contextData(), logMessage);
+
+        assertThat(logMessage.keySet()).containsExactlyInAnyOrder("requestId", "http.status", "user");
+    }
+
+    @Test
+    public void renamesAndTypesValues() {
+        Map<String, String> renames = new HashMap<>();
+        renames.put("http.status", "status");
+        Map<String, ContextDataProjection.Type> types = new HashMap<>();
+        types.put("http.status", ContextDataProjection.Type.NUMBER);
+        types.put("retry", ContextDataProjection.Type.BOOLEAN);
+        types.put("user", ContextDataProjection.Type.NUMBER);
+        ContextDataProjection projection = new ContextDataProjection(Collections.emptyList(), Collections.singletonList("internal.*"),
+                renames, types, String::toUpperCase);
+
+        JsonObject logMessage = new JsonObject();
+        projection.addTo(contextData(), logMessage);
+
+        assertThat(logMessage.get("status").getAsJsonPrimitive().isNumber()).isTrue();
+        assertThat(logMessage.get("status").getAsInt()).isEqualTo(200);
+        assertThat(logMessage.has("http.status")).isFalse();
+        assertThat(logMessage.get("retry").getAsJsonPrimitive().isBoolean()).isTrue();
+        // Values that don't parse stay strings, after the value filter
+        assertThat(logMessage.get("user").getAsString()).isEqualTo("JOHN");
+    }
+
+    private static SortedArrayStringMap contextData() {
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("requestId", "r1");
+        contextData.putValue("http.method", "GET");
+        contextData.putValue("http.status", "200");
+        contextData.putValue("internal.span", "x");
+        contextData.putValue("retry", "true");
+        contextData.putValue("user", "john");
+        return contextData;
+    }
+}
@@ -0,0 +1,97 @@
+package io.logz.log4j2;
+
+import io.logz.sender.SenderStatusReporter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DiskLogsQueueTest {
+
+    private File folder;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("logzio-disk-queue").toFile();
+        folder.deleteOnExit();
+    }
+
+    @Test
+    public void queuesShareOneMaintenanceThread() throws IOException {
+        long threadsBefore = countThreads(DiskLogsQueue.class.getSimpleName());
+        List<DiskLogsQueue> queues = new ArrayList<>();
+        try {
+            for (int i = 0; i < 5; i++) {
+                DiskLogsQueue queue = DiskLogsQueue.open(new File(folder, "type-" + i), new LogRecordCodec(Collections.emptyList()),
+                        98, 1, new NoopReporter());
+                queue.enqueue(("{\"message\":\"log " + i + "\"}").getBytes(StandardCharsets.UTF_8));
+                queues.add(queue);
+            }
+
+            // At most the shared thread was added, a thread of queues closed before may still be exiting
+            assertThat(countThreads(DiskLogsQueue.class.getSimpleName())).isLessThanOrEqualTo(threadsBefore + 1);
+            for (int i = 0; i < 5; i++) {
+                assertThat(new String(queues.get(i).dequeue(), StandardCharsets.UTF_8)).isEqualTo("{\"message\":\"log " + i + "\"}");
+            }
+        } finally {
+            for (DiskLogsQueue queue : queues) {
+                queue.close();
+            }
+        }
+    }
+
+    @Test
+    public void aQueueOpenedAgainIsShared() throws IOException {
+        File directory = new File(folder, "type");
+        DiskLogsQueue first = DiskLogsQueue.open(directory, new LogRecordCodec(Collections.emptyList()), 98, 1, new NoopReporter());
+        DiskLogsQueue second = DiskLogsQueue.open(directory, new LogRecordCodec(Collections.emptyList()), 98, 1, new NoopReporter());
+        try {
+            assertThat(second).isSameAs(first);
+            first.close();
+            second.enqueue("{\"message\":\"still open\"}".getBytes(StandardCharsets.UTF_8));
+            assertThat(new String(second.dequeue(), StandardCharsets.UTF_8)).isEqualTo("{\"message\":\"still open\"}");
+        } finally {
+            second.close();
+        }
+    }
+
+    private static long countThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().contains(name))
+                .count();
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.logz.log4j2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EndOfBatchBufferTest {
+
+    private final Set<EndOfBatchBuffer> registry = ConcurrentHashMap.newKeySet();
+
+    @Test
+    public void writesOutWhenFull() {
+        EndOfBatchBuffer buffer = new EndOfBatchBuffer(2, registry);
+        List<String> written = new ArrayList<>();
+
+        assertThat(buffer.add(log("first"), Level.INFO)).isFalse();
+        assertThat(buffer.add(log("second"), Level.ERROR)).isTrue();
+        buffer.writeTo((logs, sizeInBytes, mostSpecificLevel) -> {
+            logs.forEach(log -> written.add(new String(log, StandardCharsets.UTF_8)));
+            assertThat(mostSpecificLevel).isEqualTo(Level.ERROR);
+        });
+
+        assertThat(written).containsExactly("first", "second");
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void idleBuffersLeaveTheRegistryUntilTheirNextLog() {
+        EndOfBatchBuffer buffer = new EndOfBatchBuffer(10, registry);
+        assertThat(registry).containsExactly(buffer);
+
+        buffer.add(log("in use"), Level.INFO);
+        buffer.writeTo((logs, sizeInBytes, mostSpecificLevel) -> { });
+        // Written out, but a log was added since the previous check
+        buffer.unregisterIfIdle();
+        assertThat(registry).containsExactly(buffer);
+        buffer.unregisterIfIdle();
+        assertThat(registry).isEmpty();
+
+        buffer.add(log("in use again"), Level.INFO);
+        assertThat(registry).containsExactly(buffer);
+    }
+
+    private static byte[] log(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,130 @@
+package io.logz.log4j2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FailoverBulkTransportTest {
+
+    private static final byte[] BULK = "{\"message\":\"log\"}\n".getBytes();
+
+    @Test
+    public void failsOverToHealthyEndpoint() throws IOException {
+        FakeEndpoint down = new FakeEndpoint(0);
+        down.failWithConnectException = true;
+        FakeEndpoint up = new FakeEndpoint(0);
+        FailoverBulkTransport transport = newTransport(down, up);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(transport.send(BULK)).isEqualTo(200);
+        }
+
+        assertThat(up.requests.get()).isEqualTo(20);
+        assertThat(down.requests.get()).isLessThanOrEqualTo(1);
+        assertThat(transport.getHealthyEndpoints()).isEqualTo(1);
+    }
+
+    @Test
+    public void serverErrorsFailOver() throws IOException {
+        FakeEndpoint failing = new FakeEndpoint(0);
+        failing.responseCode = 503;
+        FakeEndpoint up = new FakeEndpoint(0);
+        FailoverBulkTransport transport = newTransport(failing, up);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(transport.send(BULK)).isEqualTo(200);
+        }
+
+        assertThat(up.requests.get()).isEqualTo(20);
+        assertThat(failing.requests.get()).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void slowEndpointGetsLessTraffic() throws IOException {
+        FakeEndpoint slow = new FakeEndpoint(50);
+        FakeEndpoint fast = new FakeEndpoint(1);
+        FailoverBulkTransport transport = newTransport(slow, fast);
+
+        for (int i = 0; i < 100; i++) {
+            transport.send(BULK);
+        }
+
+        assertThat(fast.requests.get()).isGreaterThan(slow.requests.get() * 3);
+        assertThat(slow.requests.get()).isGreaterThan(0);
+    }
+
+    @Test
+    public void allEndpointsDownReturnsTheFailure() throws IOException {
+        FakeEndpoint first = new FakeEndpoint(0);
+        first.responseCode = 502;
+        FakeEndpoint second = new FakeEndpoint(0);
+        second.responseCode = 503;
+        FailoverBulkTransport transport = newTransport(first, second);
+
+        assertThat(transport.send(BULK)).isGreaterThanOrEqualTo(500);
+        assertThat(transport.getHealthyEndpoints()).isZero();
+
+        // both are cooling down, the one recovering first is still tried
+        second.responseCode = 200;
+        first.responseCode = 200;
+        assertThat(transport.send(BULK)).isEqualTo(200);
+        assertThat(transport.getHealthyEndpoints()).isEqualTo(1);
+    }
+
+    @Test
+    public void endpointRecoversAfterCooldown() throws Exception {
+        FakeEndpoint flaky = new FakeEndpoint(0);
+        flaky.failWithConnectException = true;
+        FakeEndpoint up = new FakeEndpoint(0);
+        FailoverBulkTransport transport = newTransport(flaky, up);
+
+        while (flaky.requests.get() == 0) {
+            transport.send(BULK);
+        }
+        flaky.failWithConnectException = false;
+        Thread.sleep(FailoverBulkTransport.BASE_COOLDOWN_MS + 100);
+
+        assertThat(transport.getHealthyEndpoints()).isEqualTo(2);
+        for (int i = 0; i < 50; i++) {
+            transport.send(BULK);
+        }
+        assertThat(flaky.requests.get()).isGreaterThan(1);
+    }
+
+    private FailoverBulkTransport newTransport(FakeEndpoint... endpoints) {
+        return new FailoverBulkTransport(Arrays.asList(
+                Arrays.stream(endpoints)
+                        .map(endpoint -> new FailoverBulkTransport.Endpoint("http://listener-" + endpoint.hashCode(), endpoint))
+                        .toArray(FailoverBulkTransport.Endpoint[]::new)));
+    }
+
+    private static class FakeEndpoint implements BulkTransport {
+        private final int latencyMs;
+        final AtomicInteger requests = new AtomicInteger();
+        volatile int responseCode = 200;
+        volatile boolean failWithConnectException;
+
+        FakeEndpoint(int latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public int send(byte[] bulk) throws IOException {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failWithConnectException) {
+                throw new ConnectException("Connection refused");
+            }
+            return responseCode;
+        }
+    }
+}
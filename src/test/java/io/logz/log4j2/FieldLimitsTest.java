@@ -0,0 +1,194 @@
+package io.logz.log4j2;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.junit.Test;
+
+import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.com.google.gson.JsonObject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FieldLimitsTest {
+
+    private static final String SUFFIX = LogMessageEncoder.TRUNCATED_MESSAGE_SUFFIX;
+
+    @Test
+    public void cutsFieldsAboveTheirLimit() {
+        FieldLimits limits = new FieldLimits(20, 0, 15, 0);
+
+        assertThat(limits.message("short")).isEqualTo("short");
+        assertThat(limits.message("a message longer than twenty chars")).isEqualTo("a messag" + SUFFIX).hasSize(20);
+        assertThat(limits.mdcValue("0123456789abcdef")).isEqualTo("012" + SUFFIX);
+        assertThat(limits.mdcValue(null)).isNull();
+        assertThat(limits.getTruncatedFields()).isEqualTo(2);
+    }
+
+    @Test
+    public void zeroDisablesTheLimits() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 0);
+        String longText = repeat('x', 100000);
+        Exception exception = new IllegalStateException("failed");
+
+        assertThat(limits.message(longText)).isSameAs(longText);
+        assertThat(limits.mdcValue(longText)).isSameAs(longText);
+        assertThat(limits.exception(exception)).isEqualTo(stackTrace(exception));
+        assertThat(limits.getTruncatedFields()).isZero();
+    }
+
+    @Test
+    public void stackTracesAreWrittenUpToTheLimit() {
+        FieldLimits limits = new FieldLimits(0, 100, 0, 0);
+        Exception exception = new IllegalStateException("failed", new RuntimeException("cause"));
+
+        String cut = limits.exception(exception);
+
+        assertThat(cut).hasSize(100).endsWith(SUFFIX);
+        assertThat(stackTrace(exception)).startsWith(cut.substring(0, 100 - SUFFIX.length()));
+        assertThat(limits.getTruncatedFields()).isEqualTo(1);
+    }
+
+    @Test
+    public void stackTracesAreRedactedBeforeTheyAreCut() {
+        Redactor redactor = Redactor.create("email,creditCard", null, null, Redactor.DEFAULT_MASK);
+        Exception exception = new IllegalStateException("Payment of john.doe@example.com with 4111 1111 1111 1111 failed");
+        String stackTrace = stackTrace(exception);
+
+        for (String secret : new String[]{"john.doe@example.com", "4111 1111 1111 1111"}) {
+            // The limit falls in the middle of the value
+            int maxExceptionChars = stackTrace.indexOf(secret) + secret.length() / 2 + SUFFIX.length();
+            FieldLimits limits = new FieldLimits(0, maxExceptionChars, 0, 0);
+
+            String cut = limits.exception(exception, redactor::redact);
+
+            assertThat(cut).endsWith(SUFFIX).hasSizeLessThanOrEqualTo(maxExceptionChars);
+            assertThat(cut).doesNotContain("john.doe").doesNotContain("4111 1111");
+        }
+    }
+
+    @Test
+    public void formattedMessagesAreRedactedBeforeTheyAreCut() {
+        Redactor redactor = Redactor.create("email", null, null, Redactor.DEFAULT_MASK);
+        String text = "Sent the receipt to ";
+        // The limit falls in the middle of the address
+        FieldLimits limits = new FieldLimits(text.length() + 8 + SUFFIX.length(), 0, 0, 0);
+
+        String cut = limits.message(new ParameterizedMessage(text + "{} after {} retries", "john.doe@example.com", 3), redactor::redact);
+
+        assertThat(cut).startsWith(text).endsWith(SUFFIX).doesNotContain("john.doe");
+        assertThat(cut.length()).isLessThanOrEqualTo(text.length() + 8 + SUFFIX.length());
+        assertThat(limits.message(new ParameterizedMessage("short {}", 1), redactor::redact)).isEqualTo("short 1");
+        assertThat(limits.getTruncatedFields()).isEqualTo(1);
+    }
+
+    @Test
+    public void limitsShorterThanTheSuffixAreRejected() {
+        assertThatThrownBy(() -> new FieldLimits(SUFFIX.length(), 0, 0, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(FieldLimits.isValidLimit(0)).isTrue();
+        assertThat(FieldLimits.isValidLimit(5)).isFalse();
+        assertThat(FieldLimits.isValidLimit(FieldLimits.MIN_LIMIT_CHARS)).isTrue();
+    }
+
+    @Test
+    public void surrogatePairsAreNotSplit() {
+        FieldLimits limits = new FieldLimits(SUFFIX.length() + 2, 0, 0, 0);
+
+        assertThat(limits.message("a\uD83D\uDE00 and a long text")).isEqualTo("a" + SUFFIX);
+    }
+
+    @Test
+    public void eventIsFittedByCuttingTheExceptionFirst() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 1000);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", repeat('m', 500));
+        logMessage.addProperty("exception", repeat('e', 800));
+
+        limits.fitEvent(logMessage, "message", "exception");
+
+        assertThat(logMessage.get("message").getAsString()).isEqualTo(repeat('m', 500));
+        assertThat(logMessage.get("exception").getAsString()).endsWith(SUFFIX);
+        assertThat(logMessage.toString().length()).isLessThanOrEqualTo(1000);
+        assertThat(limits.getTruncatedFields()).isEqualTo(1);
+    }
+
+    @Test
+    public void messageIsCutWhenTheExceptionIsNotEnough() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 1000);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", repeat('m', 3000));
+        logMessage.addProperty("exception", repeat('e', 100));
+
+        limits.fitEvent(logMessage, "message", "exception");
+
+        assertThat(logMessage.get("exception").getAsString()).isEqualTo(SUFFIX);
+        assertThat(logMessage.get("message").getAsString()).endsWith(SUFFIX);
+        assertThat(logMessage.toString().length()).isLessThanOrEqualTo(1000);
+        assertThat(limits.getTruncatedFields()).isEqualTo(2);
+    }
+
+    @Test
+    public void encoderAppliesMaxEventBytes() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 1000);
+        LogMessageEncoder encoder = new LogMessageEncoder("cut", false, limits, new NoopReporter(), false);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", repeat('\u00e9', 900));
+
+        byte[] log = encoder.serialize(logMessage);
+
+        assertThat(log.length).isLessThanOrEqualTo(1000);
+        assertThat(logMessage.get("message").getAsString()).endsWith(SUFFIX);
+    }
+
+    @Test
+    public void encoderDropsLogsAboveMaxEventBytesWithDropAction() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 1000);
+        LogMessageEncoder encoder = new LogMessageEncoder("drop", false, limits, new NoopReporter(), false);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", repeat('m', 2000));
+
+        assertThat(encoder.serialize(logMessage)).isNull();
+    }
+
+    private static String stackTrace(Throwable throwable) {
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
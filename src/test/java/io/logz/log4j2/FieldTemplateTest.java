@@ -0,0 +1,74 @@
+package io.logz.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.lookup.Interpolator;
+import org.apache.logging.log4j.core.lookup.StrSubstitutor;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FieldTemplateTest {
+
+    private static final StrSubstitutor SUBSTITUTOR = new StrSubstitutor(new Interpolator());
+
+    @Test
+    public void lookupsNotDependingOnTheLogAreResolvedOnce() {
+        System.setProperty("logzio.template.region", "eu-west");
+
+        FieldTemplate template = FieldTemplate.compile("region", "aws-${sys:logzio.template.region}", SUBSTITUTOR);
+
+        assertThat(template.getConstant()).isEqualTo("aws-eu-west");
+        assertThat(template.resolve(event("r1"))).isEqualTo("aws-eu-west");
+    }
+
+    @Test
+    public void contextLookupsAreResolvedPerLog() {
+        FieldTemplate template = FieldTemplate.compile("request", "${ctx:requestId}", SUBSTITUTOR);
+
+        assertThat(template.getConstant()).isNull();
+        assertThat(template.resolve(event("r1"))).isEqualTo("r1");
+        assertThat(template.resolve(event("r2"))).isEqualTo("r2");
+        assertThat(template.resolve(event(null))).isNull();
+    }
+
+    @Test
+    public void partsAreCombinedWithDefaults() {
+        System.setProperty("logzio.template.service", "orders");
+
+        FieldTemplate template = FieldTemplate.compile("id", "${sys:logzio.template.service}:${ctx:requestId:-none}/${ctx:missing}", SUBSTITUTOR);
+
+        assertThat(template.resolve(event("r1"))).isEqualTo("orders:r1/");
+        assertThat(template.resolve(event(null))).isEqualTo("orders:none/");
+    }
+
+    @Test
+    public void nestedLookupsAreResolvedAsAWhole() {
+        System.setProperty("logzio.template.key", "requestId");
+
+        FieldTemplate template = FieldTemplate.compile("request", "${ctx:${sys:logzio.template.key}}", SUBSTITUTOR);
+
+        assertThat(template.resolve(event("r1"))).isEqualTo("r1");
+    }
+
+    @Test
+    public void valuesResolvingToNothingAreNotCompiled() {
+        assertThat(FieldTemplate.compile("missing", "${sys:logzio.template.missing}", SUBSTITUTOR)).isNull();
+    }
+
+    private static LogEvent event(String requestId) {
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        if (requestId != null) {
+            contextData.putValue("requestId", requestId);
+        }
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("template")
+                .setLevel(Level.INFO)
+                .setContextData(contextData)
+                .setMessage(new SimpleMessage("message"))
+                .build();
+    }
+}
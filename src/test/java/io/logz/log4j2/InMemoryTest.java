@@ -1,6 +1,7 @@
 package io.logz.log4j2;
 
 import io.logz.log4j2.LogzioAppender.Builder;
+import io.logz.test.MockLogzioBulkListener;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.junit.Before;
@@ -57,4 +58,49 @@ public class InMemoryTest extends BaseLog4jAppenderTest {
         mockListener.assertNumberOfReceivedMsgs(2);
         mockListener.assertLogReceivedIs(message1, token, type, loggerName, Level.INFO.name());
     }
+
+    @Test
+    public void parallelShipping() {
+        String token = "parallelShippingToken";
+        String type = random(8);
+        String loggerName = "parallelShipping" + random(8);
+        int drainTimeout = 1;
+        int numberOfLogs = 500;
+
+        logzioAppenderBuilder.setMaxInFlightBulks(4);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+
+        for (int i = 0; i < numberOfLogs; i++) {
+            testLogger.info("Parallel log " + i);
+        }
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(numberOfLogs);
+        mockListener.assertLogReceivedIs("Parallel log 0", token, type, loggerName, Level.INFO.name());
+    }
+
+    @Test
+    public void failoverToHealthyListener() throws Exception {
+        String token = "failoverToken";
+        String type = random(8);
+        String loggerName = "failover" + random(8);
+        int drainTimeout = 1;
+        int numberOfLogs = 100;
+
+        MockLogzioBulkListener deadListener = new MockLogzioBulkListener();
+        deadListener.start();
+        String deadUrl = "http://" + deadListener.getHost() + ":" + deadListener.getPort();
+        deadListener.stop();
+        String liveUrl = "http://" + mockListener.getHost() + ":" + mockListener.getPort();
+
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout, deadUrl + "," + liveUrl);
+
+        for (int i = 0; i < numberOfLogs; i++) {
+            testLogger.info("Failover log " + i);
+        }
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(numberOfLogs);
+        mockListener.assertLogReceivedIs("Failover log 0", token, type, loggerName, Level.INFO.name());
+    }
 }
@@ -0,0 +1,63 @@
+package io.logz.log4j2;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LayoutEncoderTest {
+
+    private static final PatternLayout LAYOUT = PatternLayout.newBuilder()
+            .setPattern("{\"message\":\"%enc{%m}{JSON}\",\"level\":\"%p\"}%n")
+            .build();
+
+    @Test
+    public void encodesWithTheLayoutWithoutTheLineSeparator() {
+        LayoutEncoder encoder = new LayoutEncoder(LAYOUT, LogMessageEncoder.MAX_LOG_SIZE_IN_BYTES);
+
+        byte[] log = encoder.encode(event("Hello \"world\""));
+
+        assertThat(new String(log, StandardCharsets.UTF_8)).isEqualTo("{\"message\":\"Hello \\\"world\\\"\",\"level\":\"INFO\"}");
+    }
+
+    @Test
+    public void logsLargerThanTheInitialBufferAreEncoded() {
+        LayoutEncoder encoder = new LayoutEncoder(LAYOUT, LogMessageEncoder.MAX_LOG_SIZE_IN_BYTES);
+        String message = repeat('x', 3 * LayoutEncoder.INITIAL_BUFFER_SIZE);
+
+        byte[] log = encoder.encode(event(message));
+
+        assertThat(new String(log, StandardCharsets.UTF_8)).isEqualTo("{\"message\":\"" + message + "\",\"level\":\"INFO\"}");
+        assertThat(encoder.encode(event("small")).length).isEqualTo("{\"message\":\"small\",\"level\":\"INFO\"}".length());
+    }
+
+    @Test
+    public void logsAboveTheMaximumSizeAreDropped() {
+        LayoutEncoder encoder = new LayoutEncoder(LAYOUT, 1000);
+
+        assertThat(encoder.encode(event(repeat('x', 2000)))).isNull();
+        assertThat(encoder.encode(event(repeat('x', 100)))).isNotNull();
+    }
+
+    private static LogEvent event(String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("layout")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package io.logz.log4j2;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocationResolverTest {
+
+    private final LocationResolver resolver = new LocationResolver();
+
+    @Test
+    public void findsTheCallerOfTheLogger() {
+        LogEvent logEvent = Log4jLogEvent.newBuilder().setLoggerFqcn(FakeLogger.class.getName()).build();
+
+        int line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+        LocationResolver.Location location = FakeLogger.log(resolver, logEvent);
+
+        assertThat(location.getClassName()).isEqualTo(LocationResolverTest.class.getName());
+        assertThat(location.getMethodName()).isEqualTo("findsTheCallerOfTheLogger");
+        assertThat(location.getFileName()).isEqualTo("LocationResolverTest.java");
+        assertThat(location.getLineNumber()).isEqualTo(line);
+    }
+
+    @Test
+    public void cachesLocationsPerCallSite() {
+        LogEvent logEvent = Log4jLogEvent.newBuilder().setLoggerFqcn(FakeLogger.class.getName()).build();
+
+        LocationResolver.Location first = null;
+        for (int i = 0; i < 3; i++) {
+            LocationResolver.Location location = FakeLogger.log(resolver, logEvent);
+            if (first == null) {
+                first = location;
+            }
+            assertThat(location).isSameAs(first);
+        }
+        LocationResolver.Location other = FakeLogger.log(resolver, logEvent);
+
+        assertThat(other).isNotSameAs(first);
+        assertThat(other.getLineNumber()).isGreaterThan(first.getLineNumber());
+        assertThat(resolver.getCachedCallSites()).isEqualTo(2);
+    }
+
+    @Test
+    public void usesTheCapturedLocationAfterAnAsyncHandOff() {
+        StackTraceElement source = new StackTraceElement("com.example.Service", "handle", "Service.java", 42);
+        LogEvent logEvent = Log4jLogEvent.newBuilder().setLoggerFqcn("org.apache.logging.log4j.spi.AbstractLogger").setSource(source).build();
+
+        LocationResolver.Location location = resolver.resolve(logEvent);
+
+        assertThat(location.getClassName()).isEqualTo("com.example.Service");
+        assertThat(location.getLineNumber()).isEqualTo(42);
+        assertThat(resolver.getCachedCallSites()).isZero();
+    }
+
+    private static class FakeLogger {
+
+        static LocationResolver.Location log(LocationResolver resolver, LogEvent logEvent) {
+            return resolver.resolve(logEvent);
+        }
+    }
+}
@@ -6,20 +6,36 @@ import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.Marker;
 import org.apache.logging.log4j.MarkerManager;
 import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.async.AsyncLoggerContext;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
+import org.apache.logging.log4j.message.SimpleMessage;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.logz.test.MockLogzioBulkListener.LogRequest;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -246,6 +262,32 @@ public class Log4j2AppenderTest extends BaseLog4jAppenderTest {
         assertAdditionalFields(logRequest, additionalFields);
     }
 
+    @Test
+    public void additionalFieldsWithLookups() {
+        String token = "additionalFieldsWithLookups";
+        String type = random(8);
+        String loggerName = "additionalLookupsLogger" + random(8);
+        int drainTimeout = 1;
+        String message1 = "Lookups log - " + random(5);
+        System.setProperty("logzio.test.region", "eu-west");
+
+        logzioAppenderBuilder.setAdditionalFields("region=${sys:logzio.test.region};request=${ctx:requestId};"
+                + "zone=${sys:logzio.test.region}/${ctx:zone:-a};missing=${ctx:missing}");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        ThreadContext.put("requestId", "req-1");
+        testLogger.info(message1);
+        ThreadContext.remove("requestId");
+
+        flushAndAwaitDrained(testLogger);
+
+        mockListener.assertNumberOfReceivedMsgs(1);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage(message1);
+        assertThat(logRequest.getStringFieldOrNull("region")).isEqualTo("eu-west");
+        assertThat(logRequest.getStringFieldOrNull("request")).isEqualTo("req-1");
+        assertThat(logRequest.getStringFieldOrNull("zone")).isEqualTo("eu-west/a");
+        assertThat(logRequest.getStringFieldOrNull("missing")).isNull();
+    }
+
     @Test
     public void existingHostname() throws Exception {
         String token = "checkingHostname";
@@ -324,6 +366,34 @@ public class Log4j2AppenderTest extends BaseLog4jAppenderTest {
         assertThat(logRequest.getStringFieldOrNull(mdcKey)).isEqualTo(mdcValue);
     }
 
+    @Test
+    public void mdcProjection() {
+        String token = "mdcProjection";
+        String type = random(8);
+        String loggerName = "mdcProjection" + random(8);
+        int drainTimeout = 1;
+        String message1 = "Projected MDC log - " + random(5);
+
+        logzioAppenderBuilder.setMdcExcludeKeys("internal.*");
+        logzioAppenderBuilder.setMdcRenameKeys("durationMs=duration_ms");
+        logzioAppenderBuilder.setMdcKeyTypes("durationMs=number;cached=boolean");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        ThreadContext.put("internal.id", "hidden");
+        ThreadContext.put("durationMs", "42");
+        ThreadContext.put("cached", "false");
+        testLogger.info(message1);
+        ThreadContext.clearMap();
+
+        flushAndAwaitDrained(testLogger);
+
+        mockListener.assertNumberOfReceivedMsgs(1);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage(message1);
+        assertThat(logRequest.getStringFieldOrNull("internal.id")).isNull();
+        assertThat(logRequest.getJsonObject().get("duration_ms").getAsJsonPrimitive().isNumber()).isTrue();
+        assertThat(logRequest.getJsonObject().get("duration_ms").getAsInt()).isEqualTo(42);
+        assertThat(logRequest.getJsonObject().get("cached").getAsJsonPrimitive().isBoolean()).isTrue();
+    }
+
     @Test
     public void testMarker() {
         String token = "markerToken";
@@ -366,4 +436,485 @@ public class Log4j2AppenderTest extends BaseLog4jAppenderTest {
         LogRequest logRequest = mockListener.assertLogReceivedByMessage(message1);
         mockListener.assertLogReceivedIs(logRequest, token, type, loggerName, Level.INFO.name());
     }
+
+    @Test
+    public void flushOnLevel() {
+        String token = "flushOnLevelToken";
+        String type = random(8);
+        String loggerName = "flushOnLevel" + random(8);
+        int drainTimeout = 60;
+        String message1 = "Error that should not wait for the drain - " + random(5);
+
+        logzioAppenderBuilder.setFlushLevel("ERROR");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        // past the drain run on start, only the trigger can ship the log
+        sleepSeconds(1);
+
+        testLogger.error(message1);
+
+        awaitReceivedMsgs(1);
+        mockListener.assertLogReceivedIs(message1, token, type, loggerName, Level.ERROR.name());
+    }
+
+    @Test
+    public void flushOnCountThresholdAndLinger() {
+        String token = "flushOnCountToken";
+        String type = random(8);
+        String loggerName = "flushOnCount" + random(8);
+        int drainTimeout = 60;
+
+        logzioAppenderBuilder.setFlushCountThreshold(10);
+        logzioAppenderBuilder.setMaxLingerMs(1000);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        sleepSeconds(1);
+
+        for (int i = 0; i < 10; i++) {
+            testLogger.info("Batch log " + i);
+        }
+        awaitReceivedMsgs(10);
+
+        testLogger.info("Lingering log");
+        awaitReceivedMsgs(11);
+        mockListener.assertLogReceivedIs("Lingering log", token, type, loggerName, Level.INFO.name());
+    }
+
+    @Test
+    public void endOfBatchBuffering() {
+        String token = "endOfBatchToken";
+        String type = random(8);
+        String loggerName = "endOfBatch" + random(8);
+        int drainTimeout = 60;
+
+        // synchronous loggers never mark the end of a batch, so only the size cap writes the buffer out
+        logzioAppenderBuilder.setEndOfBatchBuffering(true);
+        logzioAppenderBuilder.setEndOfBatchMaxLogs(5);
+        logzioAppenderBuilder.setFlushOnEndOfBatch(true);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        sleepSeconds(1);
+
+        for (int i = 0; i < 4; i++) {
+            testLogger.info("Buffered log " + i);
+        }
+        sleepSeconds(1);
+        mockListener.assertNumberOfReceivedMsgs(0);
+
+        testLogger.info("Buffered log 4");
+        awaitReceivedMsgs(5);
+        mockListener.assertLogReceivedIs("Buffered log 4", token, type, loggerName, Level.INFO.name());
+    }
+
+    @Test
+    public void endOfBatchBuffersAreWrittenOutAfterMaxLinger() {
+        String token = "endOfBatchLingerToken";
+        String type = random(8);
+        String loggerName = "endOfBatchLinger" + random(8);
+        int drainTimeout = 60;
+
+        logzioAppenderBuilder.setEndOfBatchBuffering(true);
+        logzioAppenderBuilder.setEndOfBatchMaxLogs(100);
+        logzioAppenderBuilder.setMaxLingerMs(200);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+
+        for (int i = 0; i < 3; i++) {
+            testLogger.info("Lingering buffered log " + i);
+        }
+        awaitReceivedMsgs(3);
+        mockListener.assertLogReceivedIs("Lingering buffered log 2", token, type, loggerName, Level.INFO.name());
+    }
+
+    @Test
+    public void nonBlockingStart() {
+        String token = "nonBlockingStartToken";
+        String type = random(8);
+        String loggerName = "nonBlockingStart" + random(8);
+        int drainTimeout = 1;
+
+        logzioAppenderBuilder.setNonBlockingStart(true);
+        logzioAppenderBuilder.setAddHostname(true);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+
+        // appended right away, possibly before the sender is ready
+        testLogger.info("Logged while starting");
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage("Logged while starting");
+        mockListener.assertLogReceivedIs(logRequest, token, type, loggerName, Level.INFO.name());
+        assertThat(logRequest.getStringFieldOrNull("hostname")).isNotNull();
+    }
+
+    @Test
+    public void stagedLogsAreSampledLikeTheOthers() {
+        String token = "stagedSamplingToken";
+        String type = random(8);
+        String loggerName = "stagedSampling" + random(8);
+        int drainTimeout = 1;
+
+        logzioAppenderBuilder.setNonBlockingStart(true);
+        logzioAppenderBuilder.setTraceSamplingLevel("WARN");
+        Tracer tracer = OpenTelemetrySdk.builder()
+                .setTracerProvider(SdkTracerProvider.builder().setSampler(Sampler.alwaysOff()).build())
+                .build()
+                .getTracer("test-tracer");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+
+        // appended right away, possibly while starting
+        Span quietSpan = tracer.spanBuilder("quiet").startSpan();
+        Scope quietScope = quietSpan.makeCurrent();
+        try {
+            testLogger.info("Unsampled trace without errors");
+        } finally {
+            quietScope.close();
+            quietSpan.end();
+        }
+        Span failingSpan = tracer.spanBuilder("failing").startSpan();
+        Scope failingScope = failingSpan.makeCurrent();
+        try {
+            testLogger.info("Before the error");
+            testLogger.error("The error");
+        } finally {
+            failingScope.close();
+            failingSpan.end();
+        }
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedByMessage("Before the error");
+        mockListener.assertLogReceivedByMessage("The error");
+    }
+
+    @Test
+    public void failedNonBlockingStartStopsItsThreads() throws Exception {
+        String token = "failedStartToken";
+        String type = random(8);
+        int drainTimeout = 1;
+
+        // Invalid for the queue of each mode
+        logzioAppenderBuilder.setInMemoryQueueCapacityBytes(0);
+        logzioAppenderBuilder.setFileSystemFullPercentThreshold(0);
+        logzioAppenderBuilder.setNonBlockingStart(true);
+        logzioAppenderBuilder.setLogzioToken(token);
+        logzioAppenderBuilder.setLogzioUrl("http://" + mockListener.getHost() + ":" + mockListener.getPort());
+        logzioAppenderBuilder.setLogzioType(type);
+        logzioAppenderBuilder.setDrainTimeoutSec(drainTimeout);
+        long statusThreadsBefore = countThreads("LogzioAppenderStatus");
+        // Started directly, the start can fail before getLogger() would check that the appender started
+        LogzioAppender appender = logzioAppenderBuilder.build();
+        appender.start();
+
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while ((!appender.isStopped() || countThreads("LogzioAppenderStatus") > statusThreadsBefore)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(appender.isStopped()).isTrue();
+        assertThat(countThreads("LogzioAppenderStatus")).isEqualTo(statusThreadsBefore);
+    }
+
+    @Test
+    public void appendingWhileANonBlockingStartFailsDoesntThrow() throws Exception {
+        String token = "failedStartAppendToken";
+        String type = random(8);
+        String loggerName = "failedStartAppend" + random(8);
+
+        logzioAppenderBuilder.setInMemoryQueueCapacityBytes(0);
+        logzioAppenderBuilder.setFileSystemFullPercentThreshold(0);
+        logzioAppenderBuilder.setNonBlockingStart(true);
+        logzioAppenderBuilder.setLogzioToken(token);
+        logzioAppenderBuilder.setLogzioUrl("http://" + mockListener.getHost() + ":" + mockListener.getPort());
+        logzioAppenderBuilder.setLogzioType(type);
+        LogzioAppender appender = logzioAppenderBuilder.build();
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName(loggerName)
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("Appended while the start fails"))
+                .build();
+
+        // The appender is called directly, as Log4j2 can still be inside append() when the start fails
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> appenders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                while (!done.get()) {
+                    try {
+                        appender.append(event);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                        return;
+                    }
+                }
+            });
+            thread.start();
+            appenders.add(thread);
+        }
+        appender.start();
+
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!appender.isStopped() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Keep appending a while after the teardown
+        Thread.sleep(100);
+        done.set(true);
+        for (Thread thread : appenders) {
+            thread.join();
+        }
+        assertThat(appender.isStopped()).isTrue();
+        assertThat(errors).isEmpty();
+    }
+
+    private static long countThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().contains(name))
+                .count();
+    }
+
+    @Test
+    public void flushAndAwaitDrained() {
+        String token = "flushToken";
+        String type = random(8);
+        String loggerName = "flushAndAwaitDrained" + random(8);
+        // long enough for the periodic drain not to ship the logs during the test
+        int drainTimeout = 60;
+
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        LogzioAppender appender = getAppender(testLogger);
+        testLogger.info("First");
+        testLogger.info("Second");
+
+        assertThat(appender.awaitDrained(Duration.ofSeconds(10))).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedByMessage("First");
+        mockListener.assertLogReceivedByMessage("Second");
+    }
+
+    @Test
+    public void httpClientTransport() {
+        String token = "httpClientToken";
+        String type = random(8);
+        String loggerName = "httpClientTransport" + random(8);
+        int drainTimeout = 60;
+
+        logzioAppenderBuilder.setHttpTransport(LogzioAppender.HTTP_CLIENT_TRANSPORT);
+        logzioAppenderBuilder.setCompressRequests(true);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        LogzioAppender appender = getAppender(testLogger);
+        testLogger.info("Sent with HttpClient");
+        testLogger.warn("Sent with HttpClient too");
+
+        assertThat(appender.awaitDrained(Duration.ofSeconds(10))).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(2);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage("Sent with HttpClient");
+        mockListener.assertLogReceivedIs(logRequest, token, type, loggerName, Level.INFO.name());
+    }
+
+    @Test
+    public void binaryDiskQueue() throws Exception {
+        String token = "binaryDiskQueueToken";
+        String type = random(8);
+        String loggerName = "binaryDiskQueue" + random(8);
+        int drainTimeout = 60;
+        File queueDir = Files.createTempDirectory("binaryDiskQueue").toFile();
+
+        logzioAppenderBuilder.setInMemoryQueue(false);
+        logzioAppenderBuilder.setQueueDir(queueDir.getAbsolutePath());
+        logzioAppenderBuilder.setDiskQueueFormat(LogzioAppender.BINARY_DISK_QUEUE_FORMAT);
+        logzioAppenderBuilder.setAdditionalFields("environment=prod");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        LogzioAppender appender = getAppender(testLogger);
+        testLogger.info("Queued as a \"record\"");
+        testLogger.error("Queued as a record too", new RuntimeException("failure"));
+
+        assertThat(appender.awaitDrained(Duration.ofSeconds(10))).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(2);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage("Queued as a \"record\"");
+        mockListener.assertLogReceivedIs(logRequest, token, type, loggerName, Level.INFO.name());
+        assertThat(logRequest.getStringFieldOrNull("environment")).isEqualTo("prod");
+        assertThat(mockListener.assertLogReceivedByMessage("Queued as a record too").getStringFieldOrNull("exception"))
+                .contains("java.lang.RuntimeException: failure");
+        assertThat(new File(queueDir, type + LogRecordCodec.DICTIONARY_SUFFIX)).exists();
+    }
+
+    @Test
+    public void awaitDrainedDuringAnOutage() {
+        String token = "outageToken";
+        String type = random(8);
+        String loggerName = "awaitDrainedDuringAnOutage" + random(8);
+        int drainTimeout = 60;
+
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        LogzioAppender appender = getAppender(testLogger);
+        mockListener.setFailWithServerError(true);
+        testLogger.info("Kept in the queue");
+
+        assertThat(appender.awaitDrained(Duration.ofSeconds(1))).isFalse();
+        mockListener.assertNumberOfReceivedMsgs(0);
+
+        mockListener.setFailWithServerError(false);
+        assertThat(appender.awaitDrained(Duration.ofSeconds(10))).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedByMessage("Kept in the queue");
+    }
+
+    @Test
+    public void routedLogsFollowTheQueueMode() throws Exception {
+        String token = "routingToken";
+        String type = random(8);
+        String routedType = "routed" + random(8);
+        String loggerName = "routedLogsFollowTheQueueMode" + random(8);
+        int drainTimeout = 60;
+        File queueDir = Files.createTempDirectory("routes").toFile();
+
+        logzioAppenderBuilder.setQueueDir(queueDir.getAbsolutePath());
+        logzioAppenderBuilder.setRoutingMdcKey("tenant");
+        logzioAppenderBuilder.setRoutes("acme=" + routedType);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        ThreadContext.put("tenant", "acme");
+        try {
+            testLogger.info("Routed to acme");
+        } finally {
+            ThreadContext.remove("tenant");
+        }
+        testLogger.info("Not routed");
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedIs(mockListener.assertLogReceivedByMessage("Routed to acme"), token, routedType, loggerName, Level.INFO.name());
+        mockListener.assertLogReceivedIs(mockListener.assertLogReceivedByMessage("Not routed"), token, type, loggerName, Level.INFO.name());
+        assertThat(new File(queueDir, "routes").isDirectory()).isEqualTo(queueType == QueueType.DISK);
+    }
+
+    @Test
+    public void layout() {
+        String token = "layoutToken";
+        String type = random(8);
+        String loggerName = "layout" + random(8);
+        int drainTimeout = 1;
+
+        logzioAppenderBuilder.setLayout(PatternLayout.newBuilder()
+                .setPattern("{\"message\":\"%enc{%m}{JSON}\",\"logger\":\"%c\",\"loglevel\":\"%p\",\"custom\":\"from layout\"}%n")
+                .build());
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        testLogger.warn("Encoded by the \"layout\"");
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage("Encoded by the \"layout\"");
+        mockListener.assertLogReceivedIs(logRequest, token, type, loggerName, Level.WARN.name());
+        assertThat(logRequest.getStringFieldOrNull("custom")).isEqualTo("from layout");
+    }
+
+    @Test
+    public void redaction() {
+        String token = "redactionToken";
+        String type = random(8);
+        String loggerName = "redaction" + random(8);
+        int drainTimeout = 1;
+
+        logzioAppenderBuilder.setRedact("email,creditCard");
+        logzioAppenderBuilder.setRedactLiterals("hunter2");
+        logzioAppenderBuilder.setAdditionalFields("contact=${ctx:user} (user)");
+        logzioAppenderBuilder.setMaxMdcValueChars(15);
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+
+        ThreadContext.put("user", "john@example.com");
+        testLogger.info("Paid with 4111 1111 1111 1111, password hunter2");
+        ThreadContext.remove("user");
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        LogRequest logRequest = mockListener.assertLogReceivedByMessage("Paid with [REDACTED], password [REDACTED]");
+        assertThat(logRequest.getStringFieldOrNull("user")).isEqualTo("[REDACTED]");
+        // Field templates are redacted and cut like MDC values
+        assertThat(logRequest.getStringFieldOrNull("contact")).isEqualTo("[RE" + LogMessageEncoder.TRUNCATED_MESSAGE_SUFFIX);
+    }
+
+    @Test
+    public void asyncLoggersKeepTheMessageTemplate() throws Exception {
+        String appenderName = "asyncLoggersTemplate" + random(8);
+        logzioAppenderBuilder.setName(appenderName);
+        logzioAppenderBuilder.setTopTalkers(true);
+        logzioAppenderBuilder.setTopTalkersByTemplate(true);
+        logzioAppenderBuilder.setLogzioToken("asyncLoggersToken");
+        logzioAppenderBuilder.setLogzioUrl("http://" + mockListener.getHost() + ":" + mockListener.getPort());
+        logzioAppenderBuilder.setLogzioType(random(8));
+        LogzioAppender appender = logzioAppenderBuilder.build();
+        appender.start();
+        AsyncLoggerContext context = new AsyncLoggerContext(appenderName);
+        context.start();
+        try {
+            // Reusable messages are the default outside of web apps, the event is then its own message
+            org.apache.logging.log4j.core.Logger asyncLogger = context.getLogger("asyncLoggersTemplate", new ReusableMessageFactory());
+            assertThat(asyncLogger.getClass().getSimpleName()).isEqualTo("AsyncLogger");
+            asyncLogger.addAppender(appender);
+            asyncLogger.setAdditive(false);
+            asyncLogger.info("User {} logged in", "alice");
+            asyncLogger.info("User {} logged in", "bob");
+
+            ObjectName metrics = new ObjectName("io.logz.log4j2:type=LogzioAppender,name=" + ObjectName.quote(appenderName));
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            long deadline = System.currentTimeMillis() + 10_000;
+            String[] templates;
+            do {
+                Thread.sleep(50);
+                templates = (String[]) mBeanServer.getAttribute(metrics, "TopTalkerTemplates");
+            } while (templates.length == 0 && System.currentTimeMillis() < deadline);
+
+            assertThat(templates).hasSize(1);
+            assertThat(templates[0]).startsWith("User {} logged in");
+        } finally {
+            context.stop();
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void invalidRedactionFailsTheAppender() {
+        logzioAppenderBuilder.setLogzioToken("invalidRedactionToken");
+        logzioAppenderBuilder.setLogzioType(random(8));
+        logzioAppenderBuilder.setRedactPattern("password=(");
+
+        assertThat(logzioAppenderBuilder.build()).isNull();
+    }
+
+    @Test
+    public void traceSampling() {
+        String token = "traceSamplingToken";
+        String type = random(8);
+        String loggerName = "traceSampling" + random(8);
+        int drainTimeout = 1;
+
+        logzioAppenderBuilder.setTraceSamplingLevel("WARN");
+        Logger testLogger = getLogger(logzioAppenderBuilder, loggerName, token, type, drainTimeout);
+        Tracer tracer = OpenTelemetrySdk.builder()
+                .setTracerProvider(SdkTracerProvider.builder().setSampler(Sampler.alwaysOff()).build())
+                .build()
+                .getTracer("test-tracer");
+
+        Span quietSpan = tracer.spanBuilder("quiet").startSpan();
+        Scope quietScope = quietSpan.makeCurrent();
+        try {
+            testLogger.info("Unsampled trace without errors");
+        } finally {
+            quietScope.close();
+            quietSpan.end();
+        }
+        Span failingSpan = tracer.spanBuilder("failing").startSpan();
+        Scope failingScope = failingSpan.makeCurrent();
+        try {
+            testLogger.info("Before the error");
+            testLogger.error("The error");
+        } finally {
+            failingScope.close();
+            failingSpan.end();
+        }
+        testLogger.debug("Outside of a trace");
+
+        flushAndAwaitDrained(testLogger);
+        mockListener.assertNumberOfReceivedMsgs(3);
+        mockListener.assertLogReceivedByMessage("Before the error");
+        mockListener.assertLogReceivedByMessage("The error");
+        mockListener.assertLogReceivedByMessage("Outside of a trace");
+    }
 }
@@ -0,0 +1,215 @@
+package io.logz.log4j2;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.ThrowableAssert.ThrowingCallable;
+
+import org.junit.Test;
+
+import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.com.google.gson.JsonArray;
+import io.logz.sender.com.google.gson.JsonNull;
+import io.logz.sender.com.google.gson.JsonObject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LogRecordCodecTest {
+
+    @Test
+    public void transcodesToTheJsonGsonWrites() throws Exception {
+        LogRecordCodec codec = LogRecordCodec.open(new File(Files.createTempDirectory("codec").toFile(), "type.dictionary"),
+                Arrays.asList("web-1", "env", "prod"));
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("@timestamp", "2024-01-01T00:00:00Z");
+        logMessage.addProperty("loglevel", "INFO");
+        logMessage.addProperty("message", "Say \"hi\" \\ to\n\tthe caf\u00e9 \u2028 \u0001 \uD83D\uDE00");
+        logMessage.addProperty("hostname", "web-1");
+        logMessage.addProperty("env", "prod");
+        logMessage.addProperty("line", 42);
+        logMessage.addProperty("negative", Long.MIN_VALUE);
+        logMessage.addProperty("ratio", 0.25);
+        logMessage.addProperty("big", new BigDecimal("12345678901234567890.5"));
+        logMessage.addProperty("retry", true);
+        logMessage.addProperty("cached", false);
+        logMessage.add("nothing", JsonNull.INSTANCE);
+        JsonArray tags = new JsonArray();
+        tags.add("a");
+        tags.add(1);
+        logMessage.add("tags", tags);
+
+        byte[] record = codec.encode(logMessage);
+        byte[] json = logMessage.toString().getBytes(StandardCharsets.UTF_8);
+
+        assertThat(LogRecordCodec.isRecord(record)).isTrue();
+        assertThat(LogRecordCodec.jsonLength(record)).isEqualTo(json.length);
+        assertThat(new String(codec.toJson(record), StandardCharsets.UTF_8)).isEqualTo(logMessage.toString());
+        assertThat(record.length).isLessThan(json.length);
+    }
+
+    @Test
+    public void returnsLogsThatAreNotRecordsAsTheyAre() {
+        LogRecordCodec codec = new LogRecordCodec(Collections.emptyList());
+        byte[] log = "{\"message\":\"json\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(LogRecordCodec.isRecord(log)).isFalse();
+        assertThat(codec.toJson(log)).isSameAs(log);
+        assertThat(LogRecordCodec.jsonLength(log)).isEqualTo(log.length);
+    }
+
+    @Test
+    public void keepsTheDictionaryEntriesOfPreviousRuns() throws Exception {
+        File dictionary = new File(Files.createTempDirectory("codec").toFile(), "type.dictionary");
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("hostname", "web-1");
+        byte[] record = LogRecordCodec.open(dictionary, Collections.singletonList("web-1")).encode(logMessage);
+
+        LogRecordCodec restarted = LogRecordCodec.open(dictionary, Collections.singletonList("web-2"));
+
+        assertThat(new String(restarted.toJson(record), StandardCharsets.UTF_8)).isEqualTo("{\"hostname\":\"web-1\"}");
+        assertThat(new String(LogRecordCodec.load(dictionary).toJson(record), StandardCharsets.UTF_8)).isEqualTo("{\"hostname\":\"web-1\"}");
+        // Without the dictionary, the constant can't be read
+        assertThatThrownBy(() -> new LogRecordCodec(Collections.emptyList()).toJson(record))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rejectsCorruptedRecords() {
+        LogRecordCodec codec = new LogRecordCodec(Collections.emptyList());
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", "cut short");
+        byte[] record = codec.encode(logMessage);
+
+        assertThatThrownBy(() -> codec.toJson(Arrays.copyOf(record, record.length - 3)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void everyCorruptionIsAnIllegalArgumentException() {
+        LogRecordCodec codec = new LogRecordCodec(Arrays.asList("message", "line"));
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", "corrupted");
+        logMessage.addProperty("line", 42);
+        logMessage.addProperty("ratio", 0.5);
+        byte[] record = codec.encode(logMessage);
+
+        for (int length = 1; length < record.length; length++) {
+            assertThatThrownBy(toJson(codec, Arrays.copyOf(record, length))).isInstanceOf(IllegalArgumentException.class);
+        }
+        for (int i = 1; i < record.length; i++) {
+            for (int value : new int[]{0x00, 0x7F, 0x80, 0xFF}) {
+                byte[] corrupted = record.clone();
+                corrupted[i] = (byte) value;
+                try {
+                    codec.toJson(corrupted);
+                } catch (IllegalArgumentException e) {
+                    // expected for most of them, others still transcode to some JSON of the right length
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsJsonLengthsNoLogHasBeforeAllocatingThem() {
+        LogRecordCodec codec = new LogRecordCodec(Collections.emptyList());
+        // Magic, version, then a JSON length of 2^31 - 1 and of -1 as varints
+        byte[] huge = {0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0};
+        byte[] negative = {0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, 0x01, 0};
+
+        assertThatThrownBy(toJson(codec, huge)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(toJson(codec, negative)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LogRecordCodec.jsonLength(huge)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void appendersOpeningTheSameDictionaryGetTheSameIds() throws Exception {
+        File dictionary = new File(Files.createTempDirectory("codec").toFile(), "type.dictionary");
+        List<Callable<LogRecordCodec>> opens = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            List<String> constants = Collections.singletonList("constant-" + i);
+            opens.add(() -> LogRecordCodec.open(dictionary, constants));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(opens.size());
+        List<LogRecordCodec> codecs = new ArrayList<>();
+        try {
+            for (Future<LogRecordCodec> codec : executor.invokeAll(opens)) {
+                codecs.add(codec.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LogRecordCodec persisted = LogRecordCodec.load(dictionary);
+        for (int i = 0; i < codecs.size(); i++) {
+            JsonObject logMessage = new JsonObject();
+            logMessage.addProperty("hostname", "constant-" + i);
+            // Each record refers to its constant by id, which must be the same in the persisted dictionary
+            byte[] record = codecs.get(i).encode(logMessage);
+            assertThat(new String(persisted.toJson(record), StandardCharsets.UTF_8)).isEqualTo(logMessage.toString());
+        }
+    }
+
+    private static ThrowingCallable toJson(LogRecordCodec codec, byte[] record) {
+        return () -> codec.toJson(record);
+    }
+
+    @Test
+    public void sizeLimitsApplyToTheTranscodedJson() {
+        FieldLimits limits = new FieldLimits(0, 0, 0, 1000);
+        LogMessageEncoder encoder = new LogMessageEncoder("cut", false, limits, new NoopReporter(), false);
+        LogRecordCodec codec = new LogRecordCodec(Collections.singletonList("message"));
+        JsonObject logMessage = new JsonObject();
+        // Escaped in JSON, the record is smaller than the limit but not the JSON
+        logMessage.addProperty("message", repeat('\n', 900));
+        JsonObject copy = logMessage.deepCopy();
+
+        byte[] record = encoder.serialize(logMessage, codec);
+
+        assertThat(logMessage.get("message").getAsString()).endsWith(LogMessageEncoder.TRUNCATED_MESSAGE_SUFFIX);
+        assertThat(codec.toJson(record)).isEqualTo(encoder.serialize(copy));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
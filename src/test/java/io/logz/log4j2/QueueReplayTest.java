@@ -0,0 +1,177 @@
+package io.logz.log4j2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.logz.sender.com.google.gson.JsonObject;
+import io.logz.sender.org.ikasan.bigqueue.BigQueueImpl;
+import io.logz.test.MockLogzioBulkListener;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueueReplayTest {
+
+    private static final String TYPE = "replayType";
+
+    private MockLogzioBulkListener mockListener;
+    private File queueDir;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void startListener() throws Exception {
+        mockListener = new MockLogzioBulkListener();
+        mockListener.start();
+        queueDir = Files.createTempDirectory("queue-replay").toFile();
+    }
+
+    @After
+    public void stopListener() {
+        mockListener.stop();
+    }
+
+    @Test
+    public void replaysTheLogsLeftInTheQueueWithoutChangingIt() throws Exception {
+        writeQueue(0, 1000, 100);
+
+        QueueReplay replay = new QueueReplay(options(), new PrintStream(output, true));
+
+        assertThat(replay.run()).isTrue();
+        assertThat(replay.getSentLogs()).isEqualTo(900);
+        mockListener.assertNumberOfReceivedMsgs(900);
+        mockListener.assertLogReceivedByMessage("log 100");
+        mockListener.assertLogReceivedByMessage("log 999");
+        assertThat(mockListener.getLogByMessageField("log 99")).isEmpty();
+        assertThat(checkpoint()).isEqualTo(1000);
+        assertThat(output.toString()).contains("Replayed 900 of 900 logs");
+
+        BigQueueImpl queue = new BigQueueImpl(queueDir.getAbsolutePath(), TYPE);
+        assertThat(queue.size()).isEqualTo(900);
+        queue.close();
+    }
+
+    @Test
+    public void resumesFromTheCheckpoint() throws Exception {
+        writeQueue(0, 200, 0);
+        assertThat(new QueueReplay(options(), new PrintStream(output, true)).run()).isTrue();
+        writeQueue(200, 50, 0);
+
+        QueueReplay replay = new QueueReplay(options(), new PrintStream(output, true));
+
+        assertThat(replay.run()).isTrue();
+        assertThat(replay.getSentLogs()).isEqualTo(50);
+        mockListener.assertNumberOfReceivedMsgs(250);
+        assertThat(checkpoint()).isEqualTo(250);
+    }
+
+    @Test
+    public void stopsWhenTheListenerKeepsFailingAndResumesLater() throws Exception {
+        writeQueue(0, 300, 0);
+        QueueReplay.Options options = options();
+        options.maxRetries = 0;
+        mockListener.setFailWithServerError(true);
+
+        assertThat(new QueueReplay(options, new PrintStream(output, true)).run()).isFalse();
+        assertThat(checkpoint()).isEqualTo(0);
+        assertThat(output.toString()).contains("Replay stopped");
+
+        mockListener.setFailWithServerError(false);
+
+        assertThat(new QueueReplay(options, new PrintStream(output, true)).run()).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(300);
+        assertThat(checkpoint()).isEqualTo(300);
+    }
+
+    @Test
+    public void parsesTheCommandLine() {
+        QueueReplay.Options options = QueueReplay.Options.parse(new String[]{
+                "--queue-dir", "/var/log/logzio", "--type", "myType", "--token", "secret", "--rate", "5000", "--no-compress"});
+
+        assertThat(options.queueDir).isEqualTo("/var/log/logzio");
+        assertThat(options.type).isEqualTo("myType");
+        assertThat(options.token).isEqualTo("secret");
+        assertThat(options.rate).isEqualTo(5000);
+        assertThat(options.compress).isFalse();
+        assertThat(options.getCheckpointFile()).isEqualTo(new File("/var/log/logzio", "myType" + QueueReplay.CHECKPOINT_SUFFIX));
+    }
+
+    @Test
+    public void transcodesBinaryRecords() throws Exception {
+        LogRecordCodec codec = LogRecordCodec.open(new File(queueDir, TYPE + LogRecordCodec.DICTIONARY_SUFFIX),
+                Collections.singletonList(TYPE));
+        BigQueueImpl queue = new BigQueueImpl(queueDir.getAbsolutePath(), TYPE);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", "binary record");
+        logMessage.addProperty("type", TYPE);
+        queue.enqueue(codec.encode(logMessage));
+        queue.enqueue("{\"message\":\"json log\"}".getBytes(StandardCharsets.UTF_8));
+        queue.close();
+
+        QueueReplay replay = new QueueReplay(options(), new PrintStream(output, true));
+
+        assertThat(replay.run()).isTrue();
+        mockListener.assertNumberOfReceivedMsgs(2);
+        mockListener.assertLogReceivedByMessage("binary record");
+        mockListener.assertLogReceivedByMessage("json log");
+    }
+
+    @Test
+    public void corruptedRecordsAreCountedAsDropped() throws Exception {
+        LogRecordCodec codec = LogRecordCodec.open(new File(queueDir, TYPE + LogRecordCodec.DICTIONARY_SUFFIX),
+                Collections.singletonList(TYPE));
+        BigQueueImpl queue = new BigQueueImpl(queueDir.getAbsolutePath(), TYPE);
+        JsonObject logMessage = new JsonObject();
+        logMessage.addProperty("message", "binary record");
+        byte[] record = codec.encode(logMessage);
+        queue.enqueue(Arrays.copyOf(record, record.length - 4));
+        // A JSON length of 2^31 - 1
+        queue.enqueue(new byte[]{0, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0});
+        queue.enqueue(record);
+        queue.close();
+
+        QueueReplay replay = new QueueReplay(options(), new PrintStream(output, true));
+
+        assertThat(replay.run()).isTrue();
+        assertThat(replay.getDroppedLogs()).isEqualTo(2);
+        mockListener.assertNumberOfReceivedMsgs(1);
+        mockListener.assertLogReceivedByMessage("binary record");
+    }
+
+    private QueueReplay.Options options() {
+        return QueueReplay.Options.parse(new String[]{
+                "--queue-dir", queueDir.getAbsolutePath(), "--type", TYPE, "--token", "token",
+                "--url", "http://" + mockListener.getHost() + ":" + mockListener.getPort(),
+                "--bulk-size-bytes", "2000", "--parallelism", "3"});
+    }
+
+    private void writeQueue(int first, int count, int alreadySent) throws IOException {
+        BigQueueImpl queue = new BigQueueImpl(queueDir.getAbsolutePath(), TYPE);
+        for (int i = first; i < first + count; i++) {
+            queue.enqueue(("{\"message\":\"log " + i + "\",\"type\":\"" + TYPE + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < alreadySent; i++) {
+            queue.dequeue();
+        }
+        queue.close();
+    }
+
+    private long checkpoint() throws IOException {
+        Properties checkpoint = new Properties();
+        try (InputStream in = new FileInputStream(new File(queueDir, TYPE + QueueReplay.CHECKPOINT_SUFFIX))) {
+            checkpoint.load(in);
+        }
+        return Long.parseLong(checkpoint.getProperty("nextIndex"));
+    }
+}
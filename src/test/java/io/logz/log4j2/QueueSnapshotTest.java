@@ -0,0 +1,178 @@
+package io.logz.log4j2;
+
+import io.logz.sender.SenderStatusReporter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class QueueSnapshotTest {
+
+    private File folder;
+
+    @Before
+    public void createFolder() throws IOException {
+        folder = Files.createTempDirectory("logzio-queue-snapshot").toFile();
+        folder.deleteOnExit();
+    }
+
+    @Test
+    public void savedLogsAreRestoredInOrder() throws IOException {
+        QueueSnapshot snapshot = new QueueSnapshot(new File(folder, "queue/appender.snapshot"));
+        InMemoryLogsQueue queue = newQueue();
+        for (int i = 0; i < 1000; i++) {
+            queue.enqueue(("{\"message\":\"log " + i + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertThat(snapshot.save(queue)).isEqualTo(1000);
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(snapshot.getFile().exists()).isTrue();
+
+        InMemoryLogsQueue restored = newQueue();
+        assertThat(snapshot.restore(restored).getRestored()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(new String(restored.dequeue(), StandardCharsets.UTF_8)).isEqualTo("{\"message\":\"log " + i + "\"}");
+        }
+        assertThat(snapshot.getFile().exists()).isFalse();
+    }
+
+    @Test
+    public void emptyQueueWritesNoSnapshot() throws IOException {
+        QueueSnapshot snapshot = new QueueSnapshot(new File(folder, "appender.snapshot"));
+
+        assertThat(snapshot.save(newQueue())).isZero();
+        assertThat(snapshot.getFile().exists()).isFalse();
+        assertThat(snapshot.restore(newQueue()).getRestored()).isZero();
+    }
+
+    @Test
+    public void corruptedSnapshotIsMovedAside() throws IOException {
+        File file = new File(folder, "appender.snapshot");
+        Files.write(file.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+        QueueSnapshot snapshot = new QueueSnapshot(file);
+
+        try {
+            snapshot.restore(newQueue());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("Not a queue snapshot");
+        }
+        assertThat(file.exists()).isFalse();
+        File corrupt = new File(folder, "appender.snapshot" + QueueSnapshot.CORRUPT_SUFFIX);
+        assertThat(new String(Files.readAllBytes(corrupt.toPath()), StandardCharsets.UTF_8)).isEqualTo("not a snapshot");
+    }
+
+    @Test
+    public void truncatedSnapshotKeepsTheLogsReadBeforeTheError() throws IOException {
+        File file = new File(folder, "appender.snapshot");
+        QueueSnapshot snapshot = new QueueSnapshot(file);
+        InMemoryLogsQueue queue = newQueue();
+        queue.enqueue("first".getBytes(StandardCharsets.UTF_8));
+        queue.enqueue("second".getBytes(StandardCharsets.UTF_8));
+        snapshot.save(queue);
+        byte[] content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(content, content.length - 2));
+
+        InMemoryLogsQueue restored = newQueue();
+        try {
+            snapshot.restore(restored);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("after restoring 1 logs");
+        }
+        assertThat(new String(restored.dequeue(), StandardCharsets.UTF_8)).isEqualTo("first");
+        assertThat(restored.isEmpty()).isTrue();
+        assertThat(file.exists()).isFalse();
+        assertThat(new File(folder, "appender.snapshot" + QueueSnapshot.CORRUPT_SUFFIX).exists()).isTrue();
+    }
+
+    @Test
+    public void logsAreKeptInTheQueueWhenTheSnapshotCantBeWritten() throws IOException {
+        // A non empty directory in place of the snapshot makes the final move fail, after the logs were written
+        File file = new File(folder, "appender.snapshot");
+        assertThat(new File(file, "blocker").mkdirs()).isTrue();
+        QueueSnapshot snapshot = new QueueSnapshot(file);
+        InMemoryLogsQueue queue = newQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue(("log " + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            snapshot.save(queue);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        for (int i = 0; i < 10; i++) {
+            assertThat(new String(queue.dequeue(), StandardCharsets.UTF_8)).isEqualTo("log " + i);
+        }
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(new File(folder, "appender.snapshot.tmp").exists()).isFalse();
+    }
+
+    @Test
+    public void logsThatDontFitAreCountedWithoutAWarningPerLog() throws IOException {
+        QueueSnapshot snapshot = new QueueSnapshot(new File(folder, "appender.snapshot"));
+        InMemoryLogsQueue queue = newQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue(("log " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        snapshot.save(queue);
+
+        CountingReporter reporter = new CountingReporter();
+        InMemoryLogsQueue smallQueue = new InMemoryLogsQueue(InMemoryLogsQueue.DONT_LIMIT_CAPACITY, 4, reporter);
+        QueueSnapshot.Restored restored = snapshot.restore(smallQueue);
+
+        assertThat(restored.getRestored()).isEqualTo(4);
+        assertThat(restored.getDropped()).isEqualTo(6);
+        assertThat(smallQueue.getLogsCount()).isEqualTo(4);
+        assertThat(reporter.warnings).isZero();
+    }
+
+    private InMemoryLogsQueue newQueue() {
+        return new InMemoryLogsQueue(InMemoryLogsQueue.DONT_LIMIT_CAPACITY, InMemoryLogsQueue.DONT_LIMIT_CAPACITY, new NoopReporter());
+    }
+
+    private static class CountingReporter extends NoopReporter {
+
+        private int warnings;
+
+        @Override
+        public void warning(String msg) {
+            warnings++;
+        }
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.logz.log4j2;
+
+import io.logz.sender.com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StartupStagingTest {
+
+    @Test
+    public void stagedLogsAreHandedOverInOrder() {
+        StartupStaging<JsonObject> staging = new StartupStaging<>(10);
+        for (int i = 0; i < 5; i++) {
+            assertThat(staging.offer(log("staged " + i))).isTrue();
+        }
+
+        List<String> shipped = new ArrayList<>();
+        assertThat(staging.close(log -> shipped.add(log.get("message").getAsString()))).isZero();
+
+        assertThat(shipped).containsExactly("staged 0", "staged 1", "staged 2", "staged 3", "staged 4");
+    }
+
+    @Test
+    public void logsAreDroppedWhenFull() {
+        StartupStaging<JsonObject> staging = new StartupStaging<>(3);
+        for (int i = 0; i < 5; i++) {
+            assertThat(staging.offer(log("staged " + i))).isTrue();
+        }
+
+        List<String> shipped = new ArrayList<>();
+        assertThat(staging.close(log -> shipped.add(log.get("message").getAsString()))).isEqualTo(2);
+        assertThat(shipped).containsExactly("staged 0", "staged 1", "staged 2");
+    }
+
+    @Test
+    public void closedStagingRefusesLogs() {
+        StartupStaging<JsonObject> staging = new StartupStaging<>(3);
+        staging.close(log -> { });
+
+        assertThat(staging.offer(log("late"))).isFalse();
+    }
+
+    private JsonObject log(String message) {
+        JsonObject log = new JsonObject();
+        log.addProperty("message", message);
+        return log;
+    }
+}
@@ -0,0 +1,171 @@
+package io.logz.log4j2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.logz.sender.SenderStatusReporter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatusAggregatorTest {
+
+    @Test
+    public void reportsTheFirstMessageOfACategoryAndSummarizesTheOthers() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.warning("Could not send bulk to logz.io, will retry in the next interval: Connection refused");
+        aggregator.warning("Could not send bulk to logz.io, will retry in the next interval: Read timed out");
+        aggregator.warning("Could not send bulk to logz.io, will retry in the next interval: Connection reset");
+
+        assertThat(out.lines).containsExactly("WARN Could not send bulk to logz.io, will retry in the next interval: Connection refused");
+        assertThat(aggregator.getWarnings()).isEqualTo(3);
+        assertThat(aggregator.getSuppressed()).isEqualTo(2);
+
+        out.lines.clear();
+        aggregator.summarize();
+
+        assertThat(out.lines).hasSize(1);
+        assertThat(out.lines.get(0))
+                .startsWith("WARN 2 more warnings like \"Could not send bulk to logz.io, will retry in the next interval: Connection refused\" in the last ")
+                .endsWith(", last cause: Connection reset");
+    }
+
+    @Test
+    public void numbersDontSplitCategories() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.warning("Got 400 from logzio, dropping bulk of 12 logs");
+        aggregator.warning("Got 400 from logzio, dropping bulk of 3456 logs");
+        aggregator.error("Logz.io: Got forbidden! Your token is not right. Unfortunately, dropping logs.");
+
+        assertThat(out.lines).containsExactly(
+                "WARN Got 400 from logzio, dropping bulk of 12 logs",
+                "ERROR Logz.io: Got forbidden! Your token is not right. Unfortunately, dropping logs.");
+        assertThat(aggregator.getCategories()).isEqualTo(2);
+    }
+
+    @Test
+    public void theLogzioPrefixDoesntMakeACategory() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.warning("Logz.io: listener keeps failing, pausing shipping for 1000 ms, logs are kept in the queue");
+        aggregator.warning("Logz.io: Dropping logs - we crossed the memory threshold of 100 MB");
+        aggregator.warning("Logz.io: listener keeps failing, pausing shipping for 2000 ms, logs are kept in the queue");
+
+        assertThat(out.lines).containsExactly(
+                "WARN Logz.io: listener keeps failing, pausing shipping for 1000 ms, logs are kept in the queue",
+                "WARN Logz.io: Dropping logs - we crossed the memory threshold of 100 MB");
+        assertThat(aggregator.getCategories()).isEqualTo(2);
+        assertThat(aggregator.getSuppressed()).isEqualTo(1);
+    }
+
+    @Test
+    public void throwableIsTheCauseAndIsOnlyReportedWithTheFirstMessage() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.error("Uncaught error from Logz.io bulk shipper", new IOException("first"));
+        aggregator.error("Uncaught error from Logz.io bulk shipper", new IOException("second"));
+
+        assertThat(out.throwables).hasSize(1);
+        assertThat(aggregator.getLastError()).isEqualTo("Uncaught error from Logz.io bulk shipper (java.io.IOException: second)");
+
+        out.lines.clear();
+        aggregator.summarize();
+
+        assertThat(out.lines).hasSize(1);
+        assertThat(out.lines.get(0)).startsWith("ERROR 1 more errors like").endsWith("last cause: java.io.IOException: second");
+    }
+
+    @Test
+    public void reportsAgainAfterASummaryAndForgetsQuietCategories() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.warning("Logz.io: listener keeps failing, pausing shipping for 1000 ms, logs are kept in the queue");
+        aggregator.summarize();
+        aggregator.warning("Logz.io: listener keeps failing, pausing shipping for 2000 ms, logs are kept in the queue");
+
+        assertThat(out.lines).hasSize(2);
+        assertThat(aggregator.getSuppressed()).isEqualTo(0);
+
+        aggregator.summarize();
+        aggregator.summarize();
+
+        assertThat(out.lines).hasSize(2);
+        assertThat(aggregator.getCategories()).isEqualTo(0);
+    }
+
+    @Test
+    public void infoIsNeverSuppressed() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        aggregator.info("Logz.io: listener is reachable again, resuming shipping");
+        aggregator.info("Logz.io: listener is reachable again, resuming shipping");
+
+        assertThat(out.lines).hasSize(2);
+    }
+
+    @Test
+    public void categoriesAreBounded() {
+        RecordingReporter out = new RecordingReporter();
+        StatusAggregator aggregator = new StatusAggregator(out);
+
+        for (int i = 0; i < StatusAggregator.MAX_CATEGORIES + 10; i++) {
+            aggregator.warning("Failure number " + i + " of kind " + (char) ('a' + i % 26) + (char) ('a' + i / 26));
+        }
+
+        assertThat(aggregator.getCategories()).isEqualTo(StatusAggregator.MAX_CATEGORIES + 1);
+        assertThat(aggregator.getSuppressed()).isEqualTo(9);
+    }
+
+    private static class RecordingReporter implements SenderStatusReporter {
+
+        private final List<String> lines = new ArrayList<>();
+        private final List<Throwable> throwables = new ArrayList<>();
+
+        @Override
+        public void error(String msg) {
+            error(msg, null);
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+            record("ERROR", msg, e);
+        }
+
+        @Override
+        public void warning(String msg) {
+            warning(msg, null);
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+            record("WARN", msg, e);
+        }
+
+        @Override
+        public void info(String msg) {
+            info(msg, null);
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+            record("INFO", msg, e);
+        }
+
+        private synchronized void record(String level, String msg, Throwable e) {
+            lines.add(level + " " + msg);
+            if (e != null) {
+                throwables.add(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.logz.log4j2;
+
+import io.logz.sender.HttpsRequestConfiguration;
+import io.logz.sender.SenderStatusReporter;
+import io.logz.sender.exceptions.LogzioParameterErrorException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TenantRouterTest {
+
+    private final Map<String, AtomicInteger> receivedByType = new ConcurrentHashMap<>();
+
+    @Test
+    public void tokensWithTheSameHashCodeGetTheirOwnQueue() {
+        // "Aa" and "BB" have the same String hash code
+        TenantRouter.Destination first = new TenantRouter.Destination("Aa", "type", Collections.emptyList());
+        TenantRouter.Destination second = new TenantRouter.Destination("BB", "type", Collections.emptyList());
+
+        assertThat(first.getQueueName()).isNotEqualTo(second.getQueueName());
+        assertThat(first.getQueueName()).startsWith("type-").hasSize("type-".length() + 64).doesNotContain("Aa");
+    }
+
+    @Test
+    public void routesToTheDestinationOfTheRoutingValue() throws Exception {
+        TenantRouter router = newRouter(300, "tenant-a", "tenant-b");
+
+        assertThat(router.resolve("unknown")).isNull();
+        assertThat(router.resolve(null)).isNull();
+        assertThat(router.getActiveTenants()).isZero();
+
+        for (int i = 0; i < 10; i++) {
+            router.send(router.resolve("tenant-a"), log(i));
+        }
+        router.send(router.resolve("tenant-b"), log(0));
+        assertThat(router.getActiveTenants()).isEqualTo(2);
+        router.stop();
+
+        assertThat(receivedByType.get("type-tenant-a").get()).isEqualTo(10);
+        assertThat(receivedByType.get("type-tenant-b").get()).isEqualTo(1);
+    }
+
+    @Test
+    public void idleTenantsAreEvicted() throws Exception {
+        TenantRouter router = newRouter(1, "tenant-a");
+
+        router.send(router.resolve("tenant-a"), log(0));
+        assertThat(router.getActiveTenants()).isEqualTo(1);
+        // the first periodic drain may run before the log is queued, the next one is only in 60 seconds
+        router.flush();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (router.getActiveTenants() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(router.getActiveTenants()).isZero();
+        assertThat(receivedByType.get("type-tenant-a").get()).isEqualTo(1);
+
+        // a log routed after the eviction creates the tenant again
+        router.send(router.resolve("tenant-a"), log(1));
+        router.stop();
+        assertThat(receivedByType.get("type-tenant-a").get()).isEqualTo(2);
+    }
+
+    @Test
+    public void threadsDontGrowWithTenants() throws Exception {
+        String[] tenants = new String[500];
+        for (int i = 0; i < tenants.length; i++) {
+            tenants[i] = "tenant-" + i;
+        }
+        int threadsBefore = Thread.activeCount();
+        TenantRouter router = newRouter(300, tenants);
+
+        for (String tenant : tenants) {
+            router.send(router.resolve(tenant), log(0));
+        }
+        assertThat(router.getActiveTenants()).isEqualTo(tenants.length);
+        assertThat(Thread.activeCount() - threadsBefore).isLessThanOrEqualTo(2 + TenantRouter.SHIPPING_THREADS);
+        router.stop();
+
+        int received = receivedByType.values().stream().mapToInt(AtomicInteger::get).sum();
+        assertThat(received).isEqualTo(tenants.length);
+    }
+
+    @Test
+    public void queuesShareTheRoutesCapacity() {
+        SenderStatusReporter reporter = new NoopReporter();
+        InMemoryLogsQueue.SharedCapacity routesCapacity = new InMemoryLogsQueue.SharedCapacity(3 * log(0).length);
+        InMemoryLogsQueue tenantA = new InMemoryLogsQueue(-1, -1, routesCapacity, reporter);
+        InMemoryLogsQueue tenantB = new InMemoryLogsQueue(-1, -1, routesCapacity, reporter);
+
+        for (int i = 0; i < 3; i++) {
+            tenantA.enqueue(log(i));
+            tenantB.enqueue(log(i));
+        }
+        assertThat(tenantA.getLogsCount() + tenantB.getLogsCount()).isEqualTo(3);
+
+        tenantA.dequeue();
+        // Two logs of tenant A and one of tenant B were queued, one of A was shipped
+        tenantB.enqueue(log(3));
+        assertThat(tenantB.getLogsCount()).isEqualTo(2);
+        tenantA.clear();
+        assertThat(routesCapacity.getSizeInBytes()).isEqualTo(tenantB.getSizeInBytes());
+    }
+
+    private TenantRouter newRouter(int idleTimeoutSec, String... routingValues) throws LogzioParameterErrorException {
+        Map<String, TenantRouter.Destination> routes = new HashMap<>();
+        for (String routingValue : routingValues) {
+            String type = "type-" + routingValue;
+            HttpsRequestConfiguration conf = HttpsRequestConfiguration.builder()
+                    .setLogzioToken("token")
+                    .setLogzioType(type)
+                    .build();
+            routes.put(routingValue, new TenantRouter.Destination("token", type, Collections.singletonList(conf)));
+        }
+        SenderStatusReporter reporter = new NoopReporter();
+        return new TenantRouter(routes, idleTimeoutSec, (destination, tasksExecutor, bulkExecutor) -> new BulkShipper(
+                new InMemoryLogsQueue(-1, -1, reporter),
+                bulk -> {
+                    receivedByType.computeIfAbsent(destination.getType(), type -> new AtomicInteger())
+                            .addAndGet(new String(bulk, StandardCharsets.UTF_8).split("\n").length);
+                    return 200;
+                },
+                new AdaptiveConcurrencyController(1, false, 10 * 1000),
+                new CircuitBreaker(0, 1000, 1000),
+                reporter, 60, false, tasksExecutor, bulkExecutor));
+    }
+
+    private byte[] log(int i) {
+        return ("{\"message\":\"routed log " + i + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static class NoopReporter implements SenderStatusReporter {
+        @Override
+        public void error(String msg) {
+        }
+
+        @Override
+        public void error(String msg, Throwable e) {
+        }
+
+        @Override
+        public void warning(String msg) {
+        }
+
+        @Override
+        public void warning(String msg, Throwable e) {
+        }
+
+        @Override
+        public void info(String msg) {
+        }
+
+        @Override
+        public void info(String msg, Throwable e) {
+        }
+    }
+}
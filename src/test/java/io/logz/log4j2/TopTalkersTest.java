@@ -0,0 +1,56 @@
+package io.logz.log4j2;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopTalkersTest {
+
+    @Test
+    public void findsHeavyHittersAmongManyQuietLoggers() {
+        TopTalkers topTalkers = new TopTalkers(3);
+        for (int i = 0; i < 100_000; i++) {
+            topTalkers.record("quiet.logger." + i, 10);
+            if (i % 10 == 0) {
+                topTalkers.record("noisy.first", 1000);
+                topTalkers.record("noisy.second", 500);
+                topTalkers.record("noisy.third", 200);
+            }
+        }
+
+        List<TopTalkers.Talker> top = topTalkers.getTop();
+        assertThat(top.stream().map(TopTalkers.Talker::getKey).collect(Collectors.toList()))
+                .containsExactly("noisy.first", "noisy.second", "noisy.third");
+        assertThat(top.get(0).getBytes()).isGreaterThanOrEqualTo(10_000_000L);
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(10_000L);
+        assertThat(topTalkers.getTotalCount()).isEqualTo(130_000L);
+        assertThat(topTalkers.getTotalBytes()).isEqualTo(1_000_000L + 10_000L * 1700);
+    }
+
+    @Test
+    public void candidatesStayBounded() {
+        TopTalkers topTalkers = new TopTalkers(5);
+        for (int i = 0; i < 50_000; i++) {
+            topTalkers.record("logger." + i, 1 + i % 7);
+        }
+
+        assertThat(topTalkers.getCandidates()).isLessThanOrEqualTo(2 * 5 + 1);
+        assertThat(topTalkers.getTop()).hasSize(5);
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        TopTalkers topTalkers = new TopTalkers(5);
+        topTalkers.record("logger", 100);
+
+        topTalkers.reset();
+
+        assertThat(topTalkers.getTop()).isEmpty();
+        assertThat(topTalkers.getTotalBytes()).isZero();
+        topTalkers.record("other", 10);
+        assertThat(topTalkers.getTop().get(0).getBytes()).isEqualTo(10L);
+    }
+}
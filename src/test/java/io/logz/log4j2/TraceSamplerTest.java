@@ -0,0 +1,146 @@
+package io.logz.log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Test;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceSamplerTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String SPAN_ID = "b7ad6b7169203331";
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private static SpanContext spanContext(boolean sampled) {
+        return spanContext(TRACE_ID, sampled);
+    }
+
+    private static SpanContext spanContext(String traceId, boolean sampled) {
+        return SpanContext.create(traceId, SPAN_ID, sampled ? TraceFlags.getSampled() : TraceFlags.getDefault(), TraceState.getDefault());
+    }
+
+    private static String traceId(int i) {
+        return String.format("%032x", i + 1);
+    }
+
+    @Test
+    public void keepsLogsOfSampledTracesAndOutsideOfTraces() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 10, MAX_BYTES);
+
+        assertThat(sampler.decide(Level.DEBUG, spanContext(true))).isEqualTo(TraceSampler.Decision.KEEP);
+        assertThat(sampler.decide(Level.DEBUG, SpanContext.getInvalid())).isEqualTo(TraceSampler.Decision.KEEP);
+    }
+
+    @Test
+    public void dropsLogsOfUnsampledTracesWithoutBuffer() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 0, 10, MAX_BYTES);
+
+        assertThat(sampler.decide(Level.INFO, spanContext(false))).isEqualTo(TraceSampler.Decision.DROP);
+        assertThat(sampler.decide(Level.WARN, spanContext(false))).isEqualTo(TraceSampler.Decision.KEEP);
+        assertThat(sampler.getDroppedLogs()).isEqualTo(1);
+    }
+
+    @Test
+    public void errorReleasesTheBufferedLogsOfItsTrace() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 10, MAX_BYTES);
+        List<String> sent = new ArrayList<>();
+
+        assertThat(sampler.decide(Level.DEBUG, spanContext(false))).isEqualTo(TraceSampler.Decision.BUFFER);
+        assertThat(sampler.buffer(TRACE_ID, 10, () -> sent.add("first"))).isTrue();
+        assertThat(sampler.buffer(TRACE_ID, 10, () -> sent.add("second"))).isTrue();
+        assertThat(sent).isEmpty();
+
+        assertThat(sampler.decide(Level.ERROR, spanContext(false))).isEqualTo(TraceSampler.Decision.RELEASE);
+        sampler.release(TRACE_ID);
+        assertThat(sent).containsExactly("first", "second");
+
+        // the rest of the trace is kept
+        assertThat(sampler.decide(Level.DEBUG, spanContext(false))).isEqualTo(TraceSampler.Decision.KEEP);
+    }
+
+    @Test
+    public void expiredBuffersAreDropped() throws InterruptedException {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 50, 10, MAX_BYTES);
+        List<String> sent = new ArrayList<>();
+        sampler.decide(Level.DEBUG, spanContext(false));
+        sampler.buffer(TRACE_ID, 10, () -> sent.add("expired"));
+
+        Thread.sleep(200);
+        sampler.decide(Level.DEBUG, SpanContext.create("1af7651916cd43dd8448eb211c80319c", SPAN_ID, TraceFlags.getDefault(), TraceState.getDefault()));
+
+        assertThat(sampler.getBufferedTraces()).isZero();
+        assertThat(sampler.getDroppedLogs()).isEqualTo(1);
+        sampler.release(TRACE_ID);
+        assertThat(sent).isEmpty();
+    }
+
+    @Test
+    public void buffersAreBounded() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 2, MAX_BYTES);
+
+        for (int i = 0; i < 5; i++) {
+            sampler.buffer(TRACE_ID, 10, () -> { });
+        }
+
+        assertThat(sampler.getDroppedLogs()).isEqualTo(3);
+    }
+
+    @Test
+    public void logsThatWouldntFitAreDroppedBeforeBeingEncoded() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 2, MAX_BYTES);
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(sampler.decide(Level.DEBUG, spanContext(false))).isEqualTo(TraceSampler.Decision.BUFFER);
+            sampler.buffer(TRACE_ID, 10, () -> { });
+        }
+
+        assertThat(sampler.decide(Level.DEBUG, spanContext(false))).isEqualTo(TraceSampler.Decision.DROP);
+        assertThat(sampler.getDroppedLogs()).isEqualTo(1);
+        // an error still releases the trace
+        assertThat(sampler.decide(Level.ERROR, spanContext(false))).isEqualTo(TraceSampler.Decision.RELEASE);
+    }
+
+    @Test
+    public void oldestTracesAreEvictedWhenOverTheBytesLimit() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 10, 100);
+        List<String> sent = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            String traceId = traceId(i);
+            assertThat(sampler.decide(Level.DEBUG, spanContext(traceId, false))).isEqualTo(TraceSampler.Decision.BUFFER);
+            assertThat(sampler.buffer(traceId, 40, () -> sent.add(traceId))).isTrue();
+        }
+
+        // 160 bytes were buffered, the two oldest traces were dropped to fit in 100
+        assertThat(sampler.getBufferedBytes()).isEqualTo(80);
+        assertThat(sampler.getBufferedTraces()).isEqualTo(2);
+        assertThat(sampler.getDroppedLogs()).isEqualTo(2);
+
+        for (int i = 0; i < 4; i++) {
+            sampler.release(traceId(i));
+        }
+        assertThat(sent).containsExactly(traceId(2), traceId(3));
+        assertThat(sampler.getBufferedBytes()).isZero();
+    }
+
+    @Test
+    public void releasedTracesAreNotEvicted() {
+        TraceSampler sampler = new TraceSampler(Level.WARN, 1000, 10, 100);
+        sampler.buffer(traceId(0), 40, () -> { });
+        sampler.release(traceId(0));
+
+        sampler.buffer(traceId(1), 60, () -> { });
+        sampler.buffer(traceId(2), 60, () -> { });
+
+        assertThat(sampler.decide(Level.DEBUG, spanContext(traceId(0), false))).isEqualTo(TraceSampler.Decision.KEEP);
+        assertThat(sampler.getBufferedBytes()).isEqualTo(60);
+        assertThat(sampler.getDroppedLogs()).isEqualTo(1);
+    }
+}